@@ -0,0 +1,61 @@
+package edu.cg.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ForkJoinPool;
+
+import edu.cg.Scenes;
+import edu.cg.scene.Scene;
+
+/**
+ * Measures how many bytes the ray tracer allocates per pixel, and how fast, when rendering the built-in scenes.
+ * Every scene is rendered a few times to warm up the JIT before it is measured.
+ *
+ * Usage: java -cp target/benchmarks.jar edu.cg.benchmarks.AllocationBenchmark [width height [threads]]
+ */
+public class AllocationBenchmark {
+	private static final int WARMUP_ROUNDS = 3;
+	private static final int MEASURED_ROUNDS = 3;
+
+	public static void main(String[] args) throws Exception {
+		int width = args.length > 1 ? Integer.parseInt(args[0]) : 400;
+		int height = args.length > 1 ? Integer.parseInt(args[1]) : 400;
+		int nThreads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		if (!threads.isThreadAllocatedMemorySupported())
+			throw new UnsupportedOperationException("This JVM can't measure allocations per thread.");
+		threads.setThreadAllocatedMemoryEnabled(true);
+
+		ForkJoinPool pool = new ForkJoinPool(nThreads);
+		System.out.println("scene, width, height, threads, ms/frame, bytes/pixel, MB/s");
+		for (int i = 1; i <= 9; ++i) {
+			Scene scene = (Scene) Scenes.class.getMethod("scene" + i).invoke(null);
+			scene.initWorkerPool(pool);
+			for (int round = 0; round < WARMUP_ROUNDS; ++round)
+				scene.render(width, height, 4.0, s -> { });
+
+			long allocatedBefore = allocatedBytes(threads);
+			long start = System.nanoTime();
+			for (int round = 0; round < MEASURED_ROUNDS; ++round)
+				scene.render(width, height, 4.0, s -> { });
+			long nanos = System.nanoTime() - start;
+			long allocated = allocatedBytes(threads) - allocatedBefore;
+
+			double msPerFrame = nanos / 1e6 / MEASURED_ROUNDS;
+			double bytesPerPixel = (double) allocated / MEASURED_ROUNDS / (width * height);
+			double mbPerSecond = allocated / 1e6 / (nanos / 1e9);
+			System.out.println(String.format("scene%d, %d, %d, %d, %.1f, %.1f, %.1f",
+					i, width, height, nThreads, msPerFrame, bytesPerPixel, mbPerSecond));
+		}
+		pool.shutdown();
+	}
+
+	// The total number of bytes allocated so far by all the live threads (the pool's workers included).
+	private static long allocatedBytes(com.sun.management.ThreadMXBean threads) {
+		long total = 0;
+		for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+			if (allocated > 0)
+				total += allocated;
+		return total;
+	}
+}
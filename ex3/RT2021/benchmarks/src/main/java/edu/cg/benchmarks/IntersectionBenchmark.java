@@ -0,0 +1,117 @@
+package edu.cg.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cg.algebra.Hit;
+import edu.cg.algebra.Point;
+import edu.cg.algebra.Ray;
+import edu.cg.algebra.Vec;
+import edu.cg.scene.objects.AxisAlignedBox;
+import edu.cg.scene.objects.Plain;
+import edu.cg.scene.objects.Sphere;
+
+/**
+ * The intersection tests of every primitive, with a ray which hits it and a ray which misses it.
+ * The primitives are compiled, as the renderer uses them. A sphere and a box are placed 5 units in front of
+ * the origin, and a plain 1 unit below it. The hitting ray goes from the origin towards them, while the missing
+ * ray goes up and to the front, above all of them.
+ * The closest-hit queries (intersect) are measured along with the any-hit queries shadow rays use (intersects).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class IntersectionBenchmark {
+	private Sphere sphere;
+	private Plain plain;
+	private AxisAlignedBox box;
+
+	private Ray towardsObjects;
+	private Ray towardsPlain;
+	private Ray up;
+
+	@Setup
+	public void setup() {
+		sphere = new Sphere(new Point(0, 0, -5), 1).compile();
+		plain = new Plain(new Vec(0, 1, 0), new Point(0, -1, 0)).compile();
+		box = new AxisAlignedBox(new Point(-1, -1, -6), new Point(1, 1, -4)).compile();
+
+		Point origin = new Point(0, 0, 0);
+		towardsObjects = new Ray(origin, new Vec(0, 0, -1));
+		towardsPlain = new Ray(origin, new Vec(0, -1, -1));
+		up = new Ray(origin, new Vec(0, 1, -1));
+	}
+
+	@Benchmark
+	public Hit sphereHit() {
+		return sphere.intersect(towardsObjects);
+	}
+
+	@Benchmark
+	public Hit sphereMiss() {
+		return sphere.intersect(up);
+	}
+
+	@Benchmark
+	public boolean sphereOccludes() {
+		return sphere.intersects(towardsObjects, Double.POSITIVE_INFINITY);
+	}
+
+	@Benchmark
+	public boolean sphereDoesNotOcclude() {
+		return sphere.intersects(up, Double.POSITIVE_INFINITY);
+	}
+
+	@Benchmark
+	public Hit plainHit() {
+		return plain.intersect(towardsPlain);
+	}
+
+	@Benchmark
+	public Hit plainMiss() {
+		return plain.intersect(up);
+	}
+
+	@Benchmark
+	public boolean plainOccludes() {
+		return plain.intersects(towardsPlain, Double.POSITIVE_INFINITY);
+	}
+
+	@Benchmark
+	public boolean plainDoesNotOcclude() {
+		return plain.intersects(up, Double.POSITIVE_INFINITY);
+	}
+
+	@Benchmark
+	public Hit boxHit() {
+		return box.intersect(towardsObjects);
+	}
+
+	@Benchmark
+	public Hit boxMiss() {
+		return box.intersect(up);
+	}
+
+	@Benchmark
+	public boolean boxOccludes() {
+		return box.intersects(towardsObjects, Double.POSITIVE_INFINITY);
+	}
+
+	@Benchmark
+	public boolean boxDoesNotOcclude() {
+		return box.intersects(up, Double.POSITIVE_INFINITY);
+	}
+}
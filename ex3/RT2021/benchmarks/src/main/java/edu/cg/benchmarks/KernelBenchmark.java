@@ -0,0 +1,96 @@
+package edu.cg.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cg.algebra.Point;
+import edu.cg.algebra.Vec;
+import edu.cg.scene.acceleration.PlaneBuffer;
+import edu.cg.scene.acceleration.SphereBuffer;
+import edu.cg.scene.objects.Plain;
+import edu.cg.scene.objects.Sphere;
+
+/**
+ * The batched intersection kernels of SphereBuffer and PlaneBuffer over 64 random spheres and plains, with the
+ * scalar kernels and with the Vector API ones. The JVM picks the kernels when it starts, so the vector
+ * benchmarks run in forks started with --add-modules jdk.incubator.vector, and the others in forks without it.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@State(Scope.Thread)
+public class KernelBenchmark {
+	private static final int SIZE = 64;
+
+	private SphereBuffer spheres;
+	private PlaneBuffer plains;
+	private final double[] distances = new double[SIZE];
+	// A ray from the origin into the spheres, most of which it misses.
+	private final double ox = 0, oy = 0, oz = 0;
+	private final double dx = 0, dy = 0, dz = -1;
+
+	@Setup
+	public void setup() {
+		Random random = new Random(1);
+		spheres = new SphereBuffer(SIZE);
+		plains = new PlaneBuffer(SIZE);
+		for (int i = 0; i < SIZE; ++i) {
+			Point center = new Point(random.nextGaussian() * 3, random.nextGaussian() * 3, -5 - 10 * random.nextDouble());
+			spheres.set(i, new Sphere(center, 0.5 + random.nextDouble()).compile());
+			Vec normal = new Vec(random.nextGaussian(), random.nextGaussian(), random.nextGaussian());
+			plains.set(i, new Plain(normal, center).compile());
+		}
+	}
+
+	@Benchmark
+	@Fork(1)
+	public double[] spheresScalar() {
+		spheres.intersect(0, SIZE, ox, oy, oz, dx, dy, dz, distances);
+		return distances;
+	}
+
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+	public double[] spheresVector() {
+		spheres.intersect(0, SIZE, ox, oy, oz, dx, dy, dz, distances);
+		return distances;
+	}
+
+	@Benchmark
+	@Fork(1)
+	public boolean anySphereScalar() {
+		return spheres.anyHit(0, SIZE, ox, oy, oz, dx, dy, dz, 1);
+	}
+
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+	public boolean anySphereVector() {
+		return spheres.anyHit(0, SIZE, ox, oy, oz, dx, dy, dz, 1);
+	}
+
+	@Benchmark
+	@Fork(1)
+	public double[] plainsScalar() {
+		plains.intersect(0, SIZE, ox, oy, oz, dx, dy, dz, distances);
+		return distances;
+	}
+
+	@Benchmark
+	@Fork(value = 1, jvmArgsAppend = { "--add-modules", "jdk.incubator.vector" })
+	public double[] plainsVector() {
+		plains.intersect(0, SIZE, ox, oy, oz, dx, dy, dz, distances);
+		return distances;
+	}
+}
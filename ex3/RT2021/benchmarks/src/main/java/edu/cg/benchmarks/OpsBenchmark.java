@@ -0,0 +1,81 @@
+package edu.cg.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cg.algebra.Ops;
+import edu.cg.algebra.Vec;
+
+/**
+ * The vector functions of Ops the shading code uses. The ones which return a new vector are measured along with
+ * the in-place versions which write into a destination vector, so the cost of allocating shows in the GC profile.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class OpsBenchmark {
+	private Vec u;
+	private Vec v;
+	private Vec normal;
+	private final Vec dest = new Vec();
+
+	@Setup
+	public void setup() {
+		u = new Vec(0.3, -0.8, -0.5).normalize();
+		v = new Vec(-1.5, 2, 0.25);
+		normal = new Vec(0.1, 1, 0.2).normalize();
+	}
+
+	@Benchmark
+	public double dot() {
+		return Ops.dot(u, v);
+	}
+
+	@Benchmark
+	public Vec cross() {
+		return Ops.cross(u, v);
+	}
+
+	@Benchmark
+	public Vec normalize() {
+		return Ops.normalize(v);
+	}
+
+	@Benchmark
+	public Vec normalizeInPlace() {
+		return Ops.normalize(v, dest);
+	}
+
+	@Benchmark
+	public Vec reflect() {
+		return Ops.reflect(u, normal);
+	}
+
+	@Benchmark
+	public Vec reflectInPlace() {
+		return Ops.reflect(u, normal, dest);
+	}
+
+	@Benchmark
+	public Vec refract() {
+		return Ops.refract(u, normal, 1, 1.5);
+	}
+
+	@Benchmark
+	public Vec refractInPlace() {
+		return Ops.refract(u, normal, 1, 1.5, dest);
+	}
+}
@@ -0,0 +1,61 @@
+package edu.cg.benchmarks;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.cg.Scenes;
+import edu.cg.scene.Scene;
+
+/**
+ * Full renders of the built-in scenes (Scenes.scene1() to scene9()) at fixed resolutions, as the application
+ * renders them: compiling the scene, tracing every pixel and shading it (Scene.calcColor).
+ * All the renders share a worker pool, so creating threads is not measured.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 3)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+@State(Scope.Benchmark)
+public class RenderBenchmark {
+	@Param({ "1", "2", "3", "4", "5", "6", "7", "8", "9" })
+	public int scene;
+
+	// The width and height of the image.
+	@Param({ "200", "400" })
+	public int size;
+
+	private Scene toRender;
+	private ForkJoinPool pool;
+
+	@Setup
+	public void setup() throws ReflectiveOperationException {
+		pool = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+		toRender = (Scene) Scenes.class.getMethod("scene" + scene).invoke(null);
+		toRender.initWorkerPool(pool);
+	}
+
+	@TearDown
+	public void tearDown() {
+		pool.shutdown();
+	}
+
+	@Benchmark
+	public BufferedImage render() throws Exception {
+		return toRender.render(size, size, 4.0, s -> { });
+	}
+}
@@ -0,0 +1,283 @@
+package edu.cg.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+
+import com.google.gson.GsonBuilder;
+
+import edu.cg.ScalingScenes.Generator;
+import edu.cg.ScalingScenes.MaterialMix;
+import edu.cg.scene.Scene;
+import edu.cg.scene.rendering.RenderStats;
+
+/**
+ * Measures how the renderer scales with the number of threads, on generated scenes (see ScalingScenes) of
+ * growing sizes. Every scene is rendered with every number of threads, after a warm-up render, and the fastest
+ * of a few renders is reported: its rays per second, its speedup over the fewest threads measured, the parallel
+ * efficiency (the speedup per thread) and the peak heap usage.
+ * Speedups are of the tracing phase, which is the parallel one. Compiling the scene (building its BVH) takes
+ * a single thread and is reported on its own.
+ * The report is written as JSON or CSV, by the extension of its file, so runs can be compared over time.
+ *
+ * Usage: java -cp target/benchmarks.jar edu.cg.benchmarks.ScalingBenchmark [options]
+ */
+public class ScalingBenchmark {
+	private static final String USAGE = String.join(System.lineSeparator(),
+			"Usage: ScalingBenchmark [options]",
+			"Options:",
+			"  --scenes <names>        The generators to run: sphere-field, box-grid, mirror-corridor,",
+			"                          glass-stack (default: all of them).",
+			"  --objects <counts>      The numbers of objects of the scenes (default 1000,10000,100000).",
+			"  --lights <n>            The number of light sources (default 2).",
+			"  --mix <mix>             The material mix: matte, mixed, shiny, glass, or mirrors/glass",
+			"                          fractions such as 0.2/0.1 (default: the generator's own).",
+			"  --threads <counts>      The numbers of threads (default: 1, 2, 4, ... up to the processors).",
+			"  --width <pixels>        The width of the images (default 320).",
+			"  --height <pixels>       The height of the images (default 240).",
+			"  --rounds <n>            Measured renders per scene and number of threads (default 3).",
+			"  --seed <n>              The seed of the generated scenes (default 1).",
+			"  --out <file>            The report, JSON if the name ends with .json, CSV otherwise",
+			"                          (default scaling.csv).");
+
+	private List<Generator> generators = new ArrayList<>(List.of(Generator.values()));
+	private List<Integer> objectCounts = List.of(1000, 10000, 100000);
+	private int lights = 2;
+	private MaterialMix mix = null;
+	private List<Integer> threadCounts = defaultThreadCounts();
+	private int width = 320;
+	private int height = 240;
+	private int rounds = 3;
+	private long seed = 1;
+	private File output = new File("scaling.csv");
+
+	/**
+	 * A line of the report: the fastest render of a scene with a number of threads.
+	 */
+	static class Result {
+		String scene;
+		String generator;
+		int objects;
+		int lights;
+		String mix;
+		int threads;
+		int width;
+		int height;
+		double compileMs;
+		double traceMs;
+		long rays;
+		double raysPerSecond;
+		double speedup;
+		double efficiency;
+		double peakHeapMB;
+	}
+
+	static class Report {
+		String date = Instant.now().toString();
+		String javaVersion = System.getProperty("java.version");
+		String vm = System.getProperty("java.vm.name");
+		String os = System.getProperty("os.name") + " " + System.getProperty("os.arch");
+		int processors = Runtime.getRuntime().availableProcessors();
+		long maxHeapMB = Runtime.getRuntime().maxMemory() >> 20;
+		long seed;
+		List<Result> results = new ArrayList<>();
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		ScalingBenchmark benchmark = new ScalingBenchmark();
+		try {
+			benchmark.parseArguments(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		try {
+			benchmark.run();
+		} catch (Exception e) {
+			System.err.println("The benchmark failed: " + e);
+			System.exit(1);
+		}
+	}
+
+	private static List<Integer> defaultThreadCounts() {
+		int processors = Runtime.getRuntime().availableProcessors();
+		List<Integer> counts = new ArrayList<>();
+		for (int n = 1; n < processors; n *= 2)
+			counts.add(n);
+		counts.add(processors);
+		return counts;
+	}
+
+	private void parseArguments(String[] args) {
+		for (int i = 0; i < args.length; ++i) {
+			String arg = args[i];
+			if (i + 1 == args.length)
+				throw new IllegalArgumentException("Missing the value of " + arg);
+			String value = args[++i];
+			switch (arg) {
+			case "--scenes":
+				generators = new ArrayList<>();
+				for (String name : value.split(","))
+					generators.add(Generator.byName(name));
+				break;
+			case "--objects":
+				objectCounts = positives(arg, value);
+				break;
+			case "--lights":
+				lights = positives(arg, value).get(0);
+				break;
+			case "--mix":
+				mix = MaterialMix.parse(value);
+				break;
+			case "--threads":
+				threadCounts = positives(arg, value);
+				break;
+			case "--width":
+				width = positives(arg, value).get(0);
+				break;
+			case "--height":
+				height = positives(arg, value).get(0);
+				break;
+			case "--rounds":
+				rounds = positives(arg, value).get(0);
+				break;
+			case "--seed":
+				seed = Long.parseLong(value);
+				break;
+			case "--out":
+				output = new File(value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		}
+	}
+
+	// A comma separated list of positive integers.
+	private static List<Integer> positives(String option, String value) {
+		List<Integer> numbers = new ArrayList<>();
+		for (String number : value.split(",")) {
+			int n;
+			try {
+				n = Integer.parseInt(number.trim());
+			} catch (NumberFormatException e) {
+				n = 0;
+			}
+			if (n <= 0)
+				throw new IllegalArgumentException(option + " takes positive integers, got " + value);
+			numbers.add(n);
+		}
+		return numbers;
+	}
+
+	private void run() throws Exception {
+		Report report = new Report();
+		report.seed = seed;
+		System.out.println("scene, threads, compile ms, trace ms, Mrays/s, speedup, efficiency, peak heap MB");
+		for (Generator generator : generators) {
+			MaterialMix sceneMix = mix != null ? mix : generator.defaultMix();
+			for (int objects : objectCounts) {
+				Scene scene = generator.generate(objects, lights, sceneMix, seed);
+				Result base = null;
+				for (int threads : threadCounts) {
+					Result result = measure(scene, threads);
+					result.generator = generator.toString();
+					result.objects = objects;
+					result.lights = lights;
+					result.mix = sceneMix.toString();
+					if (base == null)
+						base = result;
+					// The fewest threads measured are assumed to scale perfectly, as a single thread does.
+					result.speedup = base.traceMs * base.threads / result.traceMs;
+					result.efficiency = result.speedup / threads;
+					report.results.add(result);
+					System.out.println(String.format("%s, %d, %.1f, %.1f, %.2f, %.2f, %.2f, %.1f", result.scene,
+							threads, result.compileMs, result.traceMs, result.raysPerSecond / 1e6, result.speedup,
+							result.efficiency, result.peakHeapMB));
+				}
+			}
+		}
+		write(report);
+		System.out.println("Wrote " + output);
+	}
+
+	// Renders the scene with the given number of threads, once to warm up and then rounds times.
+	private Result measure(Scene scene, int threads) throws Exception {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		Result fastest = null;
+		try {
+			scene.initWorkerPool(pool);
+			scene.render(width, height, 4.0, s -> { });
+			for (int round = 0; round < rounds; ++round) {
+				resetPeakHeap();
+				scene.render(width, height, 4.0, s -> { });
+				RenderStats stats = scene.getRenderStats();
+				Result result = new Result();
+				result.scene = stats.getScene();
+				result.threads = threads;
+				result.width = width;
+				result.height = height;
+				result.compileMs = stats.getPhaseNanos(RenderStats.Phase.COMPILE) / 1e6;
+				result.traceMs = stats.getPhaseNanos(RenderStats.Phase.TRACE) / 1e6;
+				result.rays = stats.getRays();
+				result.raysPerSecond = result.rays / (result.traceMs / 1e3);
+				result.peakHeapMB = peakHeap() / (double) (1 << 20);
+				if (fastest == null || result.traceMs < fastest.traceMs)
+					fastest = result;
+			}
+		} finally {
+			scene.initWorkerPool(null);
+			pool.shutdown();
+		}
+		return fastest;
+	}
+
+	private static void resetPeakHeap() {
+		System.gc();
+		for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (memoryPool.getType() == MemoryType.HEAP)
+				memoryPool.resetPeakUsage();
+		}
+	}
+
+	// The sum of the peaks of the heap pools, which is at least the peak of the whole heap.
+	private static long peakHeap() {
+		long peak = 0;
+		for (MemoryPoolMXBean memoryPool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (memoryPool.getType() == MemoryType.HEAP)
+				peak += memoryPool.getPeakUsage().getUsed();
+		}
+		return peak;
+	}
+
+	private void write(Report report) throws IOException {
+		try (Writer writer = Files.newBufferedWriter(output.toPath(), StandardCharsets.UTF_8)) {
+			if (output.getName().endsWith(".json")) {
+				new GsonBuilder().setPrettyPrinting().create().toJson(report, writer);
+				return;
+			}
+			PrintWriter csv = new PrintWriter(writer);
+			csv.println("scene,generator,objects,lights,mix,threads,width,height,compile_ms,trace_ms,rays," +
+					"rays_per_second,speedup,efficiency,peak_heap_mb");
+			for (Result r : report.results) {
+				csv.println(String.format(Locale.ROOT, "%s,%s,%d,%d,%s,%d,%d,%d,%.3f,%.3f,%d,%.0f,%.4f,%.4f,%.1f", r.scene,
+						r.generator, r.objects, r.lights, r.mix, r.threads, r.width, r.height, r.compileMs,
+						r.traceMs, r.rays, r.raysPerSecond, r.speedup, r.efficiency, r.peakHeapMB));
+			}
+			csv.flush();
+		}
+	}
+}
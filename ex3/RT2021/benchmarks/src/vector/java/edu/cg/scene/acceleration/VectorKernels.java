@@ -0,0 +1,132 @@
+package edu.cg.scene.acceleration;
+
+import edu.cg.algebra.Ops;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * The intersection kernels with the Vector API: every instruction tests as many primitives as the preferred
+ * vector of doubles holds (4 with AVX2, 8 with AVX-512), and the primitives left over are tested by the scalar
+ * kernels. Every lane computes the scalar expressions in the same order, and the vector operations round
+ * exactly like the scalar ones, so the distances are exactly those of ScalarKernels.
+ *
+ * This class is compiled only by the benchmarks module, with --add-modules jdk.incubator.vector, and is
+ * loaded by IntersectionKernels when the JVM is started with the same option.
+ */
+public final class VectorKernels implements IntersectionKernels {
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+	@Override
+	public void intersectSpheres(double[] centerX, double[] centerY, double[] centerZ, double[] radiusSqr, int from,
+			int to, double ox, double oy, double oz, double dx, double dy, double dz, double[] tOut) {
+		double a = dx * dx + dy * dy + dz * dz;
+		double twoA = 2 * a;
+		double fourA = 4 * a;
+		int i = from;
+		for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+			DoubleVector ocX = DoubleVector.broadcast(SPECIES, ox).sub(DoubleVector.fromArray(SPECIES, centerX, i));
+			DoubleVector ocY = DoubleVector.broadcast(SPECIES, oy).sub(DoubleVector.fromArray(SPECIES, centerY, i));
+			DoubleVector ocZ = DoubleVector.broadcast(SPECIES, oz).sub(DoubleVector.fromArray(SPECIES, centerZ, i));
+			DoubleVector b = ocX.mul(dx).add(ocY.mul(dy)).add(ocZ.mul(dz)).mul(2);
+			DoubleVector c = ocX.mul(ocX).add(ocY.mul(ocY)).add(ocZ.mul(ocZ))
+					.sub(DoubleVector.fromArray(SPECIES, radiusSqr, i));
+			DoubleVector solutions = b.mul(b).sub(c.mul(fourA));
+			DoubleVector sqrt = solutions.lanewise(VectorOperators.SQRT);
+			DoubleVector minusB = b.neg();
+			DoubleVector firstSolution = minusB.sub(sqrt).div(twoA);
+			DoubleVector secondSolution = minusB.add(sqrt).div(twoA);
+
+			DoubleVector infinity = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+			// The distance if the solutions are equal, and if they are not.
+			DoubleVector tangent = firstSolution.blend(infinity, firstSolution.lt(Ops.epsilon));
+			DoubleVector secant = infinity.blend(
+					firstSolution.blend(secondSolution, firstSolution.compare(VectorOperators.LE, Ops.epsilon)),
+					secondSolution.compare(VectorOperators.GT, Ops.epsilon));
+			DoubleVector t = secant.blend(tangent, firstSolution.eq(secondSolution));
+			infinity.blend(t, solutions.compare(VectorOperators.GT, 0)).intoArray(tOut, i - from);
+		}
+		for (; i < to; ++i)
+			tOut[i - from] = ScalarKernels.intersectSphere(centerX, centerY, centerZ, radiusSqr, i, ox, oy, oz, dx, dy,
+					dz);
+	}
+
+	@Override
+	public boolean anySphereHit(double[] centerX, double[] centerY, double[] centerZ, double[] radiusSqr, int from,
+			int to, double ox, double oy, double oz, double dx, double dy, double dz, double tMax) {
+		double a = dx * dx + dy * dy + dz * dz;
+		double twoA = 2 * a;
+		double fourA = 4 * a;
+		int i = from;
+		for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+			DoubleVector ocX = DoubleVector.broadcast(SPECIES, ox).sub(DoubleVector.fromArray(SPECIES, centerX, i));
+			DoubleVector ocY = DoubleVector.broadcast(SPECIES, oy).sub(DoubleVector.fromArray(SPECIES, centerY, i));
+			DoubleVector ocZ = DoubleVector.broadcast(SPECIES, oz).sub(DoubleVector.fromArray(SPECIES, centerZ, i));
+			DoubleVector b = ocX.mul(dx).add(ocY.mul(dy)).add(ocZ.mul(dz)).mul(2);
+			DoubleVector c = ocX.mul(ocX).add(ocY.mul(ocY)).add(ocZ.mul(ocZ))
+					.sub(DoubleVector.fromArray(SPECIES, radiusSqr, i));
+			DoubleVector discriminant = b.mul(b).sub(c.mul(fourA));
+			VectorMask<Double> crossing = discriminant.compare(VectorOperators.GT, 0);
+			if (!crossing.anyTrue())
+				continue;
+			DoubleVector sqrt = discriminant.lanewise(VectorOperators.SQRT);
+			DoubleVector minusB = b.neg();
+			DoubleVector firstSolution = minusB.sub(sqrt).div(twoA);
+			DoubleVector secondSolution = minusB.add(sqrt).div(twoA);
+			VectorMask<Double> firstInFront = firstSolution.compare(VectorOperators.GT, Ops.epsilon);
+			VectorMask<Double> firstHit = firstInFront.and(firstSolution.lt(tMax));
+			VectorMask<Double> secondHit = firstInFront.not()
+					.and(secondSolution.compare(VectorOperators.GT, Ops.epsilon)).and(secondSolution.lt(tMax));
+			if (crossing.and(firstHit.or(secondHit)).anyTrue())
+				return true;
+		}
+		for (; i < to; ++i)
+			if (ScalarKernels.hitsSphere(centerX, centerY, centerZ, radiusSqr, i, ox, oy, oz, dx, dy, dz, tMax))
+				return true;
+		return false;
+	}
+
+	@Override
+	public void intersectPlains(double[] a, double[] b, double[] c, double[] d, int from, int to, double ox,
+			double oy, double oz, double dx, double dy, double dz, double[] tOut) {
+		int i = from;
+		for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+			planeDistances(a, b, c, d, i, ox, oy, oz, dx, dy, dz).intoArray(tOut, i - from);
+		}
+		for (; i < to; ++i)
+			tOut[i - from] = ScalarKernels.intersectPlain(a, b, c, d, i, ox, oy, oz, dx, dy, dz);
+	}
+
+	@Override
+	public boolean anyPlainHit(double[] a, double[] b, double[] c, double[] d, int from, int to, double ox,
+			double oy, double oz, double dx, double dy, double dz, double tMax) {
+		int i = from;
+		for (int bound = from + SPECIES.loopBound(to - from); i < bound; i += SPECIES.length()) {
+			if (planeDistances(a, b, c, d, i, ox, oy, oz, dx, dy, dz).lt(tMax).anyTrue())
+				return true;
+		}
+		for (; i < to; ++i)
+			if (ScalarKernels.intersectPlain(a, b, c, d, i, ox, oy, oz, dx, dy, dz) < tMax)
+				return true;
+		return false;
+	}
+
+	// The distances to the plains [i, i + SPECIES.length()), infinity for a miss.
+	private static DoubleVector planeDistances(double[] a, double[] b, double[] c, double[] d, int i, double ox,
+			double oy, double oz, double dx, double dy, double dz) {
+		DoubleVector va = DoubleVector.fromArray(SPECIES, a, i);
+		DoubleVector vb = DoubleVector.fromArray(SPECIES, b, i);
+		DoubleVector vc = DoubleVector.fromArray(SPECIES, c, i);
+		DoubleVector numerator = va.mul(ox).add(vb.mul(oy)).add(vc.mul(oz)).add(DoubleVector.fromArray(SPECIES, d, i));
+		DoubleVector denominator = va.mul(dx).add(vb.mul(dy)).add(vc.mul(dz));
+		DoubleVector t = numerator.neg().div(denominator);
+		VectorMask<Double> hit = t.compare(VectorOperators.GT, Ops.epsilon).and(t.lt(Ops.infinity));
+		return DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY).blend(t, hit);
+	}
+
+	@Override
+	public String toString() {
+		return "Vector API (" + SPECIES.length() + " lanes)";
+	}
+}
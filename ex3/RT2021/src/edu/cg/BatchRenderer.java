@@ -0,0 +1,254 @@
+package edu.cg;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import javax.imageio.ImageIO;
+
+import edu.cg.distributed.RenderCoordinator;
+import edu.cg.menu.SceneLoader;
+import edu.cg.scene.Scene;
+import edu.cg.scene.rendering.RenderCache;
+
+/**
+ * Renders scenes to PNG files from the command line, without opening any window.
+ * A scene is either a JSON file (as saved by the scenes creator) or the name of one of the built-in scenes
+ * (scene1, scene2, ...). All the scenes of a run are rendered by the same worker pool, so its threads are
+ * started once and stay warm for the whole batch.
+ *
+ * Usage: BatchRenderer [options] scene...
+ */
+public class BatchRenderer {
+	private static final String USAGE = String.join(System.lineSeparator(),
+			"Usage: BatchRenderer [options] scene...",
+			"A scene is a JSON file or the name of a built-in scene (scene1, scene2, ...).",
+			"Options:",
+			"  --width <pixels>        The width of the images (default 400).",
+			"  --height <pixels>       The height of the images (default 400).",
+			"  --plane-width <width>   The width of the view plane (default 4.0).",
+			"  --threads <n>           The number of rendering threads (default: the number of processors).",
+			"  --aa <n>                The anti aliasing factor (default: the scene's own).",
+			"  --recursion <n>         The max recursion level (default: the scene's own).",
+			"  --out <directory>       Where to write the images (default outputs).",
+			"  --workers <n>           Render on n worker processes, with --threads threads between them.",
+			"  --cache <directory>     Reuse the images of scenes rendered before with the same parameters.",
+			"  --cache-size <MB>       The most the cached images may take (default 256).",
+			"  --listen <port>         Render on worker processes, also accepting remote workers on the port",
+			"                          (started with: RenderWorker host port [threads]).");
+
+	private int width = 400;
+	private int height = 400;
+	private double planeWidth = 4.0;
+	private int nThreads = Runtime.getRuntime().availableProcessors();
+	private Integer antiAliasingFactor = null;
+	private Integer maxRecursionLevel = null;
+	private File outputDir = new File("outputs");
+	private int numWorkers = 0;
+	private Integer listenPort = null;
+	private File cacheDir = null;
+	private long cacheSize = 256;
+	private RenderCache cache = null;
+	private final List<String> scenes = new ArrayList<>();
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		BatchRenderer renderer = new BatchRenderer();
+		try {
+			renderer.parseArguments(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		System.exit(renderer.run() ? 0 : 1);
+	}
+
+	private void parseArguments(String[] args) {
+		for (int i = 0; i < args.length; ++i) {
+			String arg = args[i];
+			if (!arg.startsWith("--")) {
+				scenes.add(arg);
+				continue;
+			}
+			if (i + 1 == args.length)
+				throw new IllegalArgumentException("Missing the value of " + arg);
+			String value = args[++i];
+			switch (arg) {
+			case "--width":
+				width = positive(arg, value);
+				break;
+			case "--height":
+				height = positive(arg, value);
+				break;
+			case "--plane-width":
+				planeWidth = Double.parseDouble(value);
+				break;
+			case "--threads":
+				nThreads = positive(arg, value);
+				break;
+			case "--aa":
+				antiAliasingFactor = positive(arg, value);
+				break;
+			case "--recursion":
+				maxRecursionLevel = positive(arg, value);
+				break;
+			case "--out":
+				outputDir = new File(value);
+				break;
+			case "--workers":
+				numWorkers = positive(arg, value);
+				break;
+			case "--cache":
+				cacheDir = new File(value);
+				break;
+			case "--cache-size":
+				cacheSize = positive(arg, value);
+				break;
+			case "--listen":
+				listenPort = positive(arg, value);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		}
+		if (scenes.isEmpty())
+			throw new IllegalArgumentException("No scenes to render.");
+	}
+
+	private static int positive(String option, String value) {
+		int n;
+		try {
+			n = Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			n = 0;
+		}
+		if (n <= 0)
+			throw new IllegalArgumentException(option + " must be a positive integer, got " + value);
+		return n;
+	}
+
+	/**
+	 * Renders all the scenes. A scene which fails is reported and skipped.
+	 * @return true if all the scenes were rendered.
+	 */
+	private boolean run() {
+		if (!outputDir.exists() && !outputDir.mkdirs()) {
+			System.err.println("Couldn't create the folder " + outputDir);
+			return false;
+		}
+		ForkJoinPool pool = null;
+		RenderCoordinator coordinator = null;
+		int failures = 0;
+		long batchStart = System.nanoTime();
+		try {
+			if (cacheDir != null)
+				cache = new RenderCache(cacheDir, cacheSize << 20);
+			if (numWorkers > 0 || listenPort != null)
+				coordinator = startCoordinator();
+			else
+				pool = new ForkJoinPool(nThreads);
+			for (String source : scenes) {
+				try {
+					render(source, pool, coordinator);
+				} catch (Exception e) {
+					++failures;
+					System.err.println("Couldn't render " + source + ": " + e);
+				}
+			}
+		} catch (IOException e) {
+			System.err.println("Couldn't start: " + e);
+			return false;
+		} finally {
+			if (pool != null)
+				pool.shutdown();
+			closeQuietly(coordinator);
+		}
+		System.out.println(String.format("Rendered %d of %d scenes in %d ms.", scenes.size() - failures,
+				scenes.size(), (System.nanoTime() - batchStart) / 1000000));
+		if (cache != null)
+			System.out.println(cache);
+		return failures == 0;
+	}
+
+	// The workers of all the scenes, started once.
+	private RenderCoordinator startCoordinator() throws IOException {
+		RenderCoordinator coordinator = new RenderCoordinator()
+				.initLocalWorkers(numWorkers)
+				.initThreadsPerWorker(numWorkers > 0 ? Math.max(1, nThreads / numWorkers) : 0)
+				.initLogger(s -> System.out.println("[coordinator] " + s));
+		if (listenPort != null)
+			coordinator.initPort(listenPort).initRemoteWorkers(true);
+		return coordinator.start();
+	}
+
+	private static void closeQuietly(RenderCoordinator coordinator) {
+		if (coordinator == null)
+			return;
+		try {
+			coordinator.close();
+		} catch (IOException e) {
+			System.err.println("Couldn't shut the workers down: " + e);
+		}
+	}
+
+	private void render(String source, ForkJoinPool pool, RenderCoordinator coordinator) throws Exception {
+		Scene scene = load(source);
+		String name = outputName(source);
+		Logger logger = s -> System.out.println("[" + name + "] " + s);
+		if (pool != null)
+			scene.initWorkerPool(pool);
+		scene.initRenderCache(cache);
+		if (antiAliasingFactor != null)
+			scene.initAntiAliasingFactor(antiAliasingFactor);
+		if (maxRecursionLevel != null)
+			scene.initMaxRecursionLevel(maxRecursionLevel);
+
+		long start = System.nanoTime();
+		BufferedImage img = coordinator != null ? renderOnWorkers(scene, coordinator, logger) :
+				scene.render(width, height, planeWidth, logger);
+		File output = new File(outputDir, name + ".png");
+		ImageIO.write(img, "png", output);
+		logger.log("Wrote " + output + " (" + width + "x" + height + ") in " +
+				(System.nanoTime() - start) / 1000000 + " ms.");
+	}
+
+	// Scene.render looks the scene up in the cache by itself, the coordinator doesn't.
+	private BufferedImage renderOnWorkers(Scene scene, RenderCoordinator coordinator, Logger logger)
+			throws Exception {
+		String key = cache == null ? null : cache.key(scene, width, height, planeWidth);
+		BufferedImage img = key == null ? null : cache.get(key);
+		if (img != null) {
+			logger.log("Found it in the render cache.");
+			return img;
+		}
+		img = coordinator.render(scene, width, height, planeWidth);
+		if (key != null)
+			cache.put(key, img);
+		return img;
+	}
+
+	private static Scene load(String source) throws Exception {
+		File file = new File(source);
+		if (file.isFile())
+			return new SceneLoader().initShareMaterials(true).load(file.toPath());
+		if (source.matches("scene\\d+")) {
+			try {
+				return (Scene) Scenes.class.getMethod(source).invoke(null);
+			} catch (NoSuchMethodException e) {
+				throw new IllegalArgumentException("There is no built-in scene " + source);
+			}
+		}
+		throw new IllegalArgumentException("No such file or built-in scene");
+	}
+
+	// The name of a JSON file without its extension, or the name of a built-in scene.
+	private static String outputName(String source) {
+		String name = new File(source).getName();
+		int dot = name.lastIndexOf('.');
+		return dot > 0 ? name.substring(0, dot) : name;
+	}
+}
@@ -280,4 +280,16 @@ public class Materials {
         }
     }
 
+    /**
+     * Picks a material with the given random generator, so the same seed always gives the same materials:
+     * a mirror with probability mirrors, a glass with probability glass, and a general material otherwise.
+     * Like getRandomMaterial, the picked materials are shared.
+     */
+    public static Material getRandomMaterial(Random random, double mirrors, double glass){
+        double type = random.nextDouble();
+        Material[] materials = type < mirrors ? MIRROR_MATERIALS :
+                type < mirrors + glass ? GLASS_MATERIALS : GENERAL_MATERIALS;
+        return materials[random.nextInt(materials.length)];
+    }
+
 }
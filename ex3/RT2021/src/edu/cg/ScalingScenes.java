@@ -0,0 +1,253 @@
+package edu.cg;
+
+import java.util.Random;
+
+import edu.cg.algebra.Point;
+import edu.cg.algebra.Vec;
+import edu.cg.scene.Scene;
+import edu.cg.scene.lightSources.PointLight;
+import edu.cg.scene.objects.*;
+
+/**
+ * Generated scenes of any size, to measure how the renderer scales with the number of surfaces and threads
+ * (see ScalingBenchmark, in the benchmarks module). Every generator takes the number of objects, the number of light
+ * sources, the mix of materials and a seed, and the same arguments always give the same scene.
+ * The objects of a generator fill the same volume whatever their number, so more objects are smaller and denser.
+ */
+public class ScalingScenes {
+	/**
+	 * The kinds of generated scenes, each with the material mix it is usually rendered with.
+	 */
+	public enum Generator {
+		// Spheres of random sizes scattered over a floor.
+		SPHERE_FIELD("sphere-field", MaterialMix.MIXED),
+		// A grid of boxes of random heights, like the blocks of a city.
+		BOX_GRID("box-grid", MaterialMix.MATTE),
+		// Spheres and boxes between two parallel mirrors, where rays bounce up to the recursion limit.
+		MIRROR_CORRIDOR("mirror-corridor", MaterialMix.MIXED),
+		// Towers of glass slabs and balls in front of a wall.
+		GLASS_STACK("glass-stack", MaterialMix.GLASS);
+
+		private final String name;
+		private final MaterialMix defaultMix;
+
+		Generator(String name, MaterialMix defaultMix) {
+			this.name = name;
+			this.defaultMix = defaultMix;
+		}
+
+		public MaterialMix defaultMix() {
+			return defaultMix;
+		}
+
+		public Scene generate(int objects, int lights, MaterialMix mix, long seed) {
+			switch (this) {
+			case SPHERE_FIELD:
+				return sphereField(objects, lights, mix, seed);
+			case BOX_GRID:
+				return boxGrid(objects, lights, mix, seed);
+			case MIRROR_CORRIDOR:
+				return mirrorCorridor(objects, lights, mix, seed);
+			default:
+				return glassStack(objects, lights, mix, seed);
+			}
+		}
+
+		public static Generator byName(String name) {
+			for (Generator generator : values()) {
+				if (generator.name.equals(name))
+					return generator;
+			}
+			throw new IllegalArgumentException("Unknown scene generator " + name);
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	/**
+	 * The fractions of the objects which get mirror and glass materials. The other objects get general materials
+	 * (see Materials).
+	 */
+	public static final class MaterialMix {
+		public static final MaterialMix MATTE = new MaterialMix("matte", 0, 0);
+		public static final MaterialMix MIXED = new MaterialMix("mixed", 0.2, 0.1);
+		public static final MaterialMix SHINY = new MaterialMix("shiny", 0.5, 0.2);
+		public static final MaterialMix GLASS = new MaterialMix("glass", 0.1, 0.7);
+		private static final MaterialMix[] PRESETS = { MATTE, MIXED, SHINY, GLASS };
+
+		private final String name;
+		public final double mirrors;
+		public final double glass;
+
+		public MaterialMix(double mirrors, double glass) {
+			this(mirrors + "/" + glass, mirrors, glass);
+		}
+
+		private MaterialMix(String name, double mirrors, double glass) {
+			if (mirrors < 0 || glass < 0 || mirrors + glass > 1)
+				throw new IllegalArgumentException("Mirror and glass fractions must be in [0, 1], and sum up to 1 at most.");
+			this.name = name;
+			this.mirrors = mirrors;
+			this.glass = glass;
+		}
+
+		/**
+		 * @return the preset of the name (matte, mixed, shiny or glass), or the mix of the fractions given as
+		 * mirrors/glass, e.g., 0.2/0.1.
+		 */
+		public static MaterialMix parse(String mix) {
+			for (MaterialMix preset : PRESETS) {
+				if (preset.name.equals(mix))
+					return preset;
+			}
+			String[] fractions = mix.split("/");
+			if (fractions.length != 2)
+				throw new IllegalArgumentException("Unknown material mix " + mix);
+			return new MaterialMix(Double.parseDouble(fractions[0]), Double.parseDouble(fractions[1]));
+		}
+
+		public Material pick(Random random) {
+			return Materials.getRandomMaterial(random, mirrors, glass);
+		}
+
+		@Override
+		public String toString() {
+			return name;
+		}
+	}
+
+	// The volumes the objects are generated in.
+	private static final double FIELD_WIDTH = 10, FIELD_HEIGHT = 5, FIELD_DEPTH = 10;
+	private static final double GRID_SIZE = 12;
+	private static final double CORRIDOR_WIDTH = 3.2, CORRIDOR_HEIGHT = 2.5, CORRIDOR_DEPTH = 30;
+	private static final double STACKS_SIZE = 8, STACK_HEIGHT = 4;
+	// The total intensity of the light sources of a scene, shared between them.
+	private static final double LIGHT_INTENSITY = 3;
+
+	public static Scene sphereField(int objects, int lights, MaterialMix mix, long seed) {
+		Random random = new Random(seed);
+		Scene scene = scene(Generator.SPHERE_FIELD, objects, new Point(0, 2, 4), new Vec(0, -0.25, -1), 3);
+		scene.addSurface(floor());
+		double spacing = Math.cbrt(FIELD_WIDTH * FIELD_HEIGHT * FIELD_DEPTH / objects);
+		for (int i = 0; i < objects; ++i) {
+			double radius = spacing * (0.2 + 0.25 * random.nextDouble());
+			Point center = new Point(
+					FIELD_WIDTH * (random.nextDouble() - 0.5),
+					-1 + radius + (FIELD_HEIGHT - radius) * random.nextDouble(),
+					-4 - FIELD_DEPTH * random.nextDouble());
+			scene.addSurface(new Surface(new Sphere(center, radius), mix.pick(random)));
+		}
+		addLights(scene, lights, random, new Point(0, 6, -9), 6);
+		return scene;
+	}
+
+	public static Scene boxGrid(int objects, int lights, MaterialMix mix, long seed) {
+		Random random = new Random(seed);
+		Scene scene = scene(Generator.BOX_GRID, objects, new Point(0, 5, 4), new Vec(0, -0.5, -1), 2);
+		scene.addSurface(floor());
+		int perRow = (int) Math.ceil(Math.sqrt(objects));
+		double cell = GRID_SIZE / perRow;
+		double gap = 0.1 * cell;
+		for (int i = 0; i < objects; ++i) {
+			double x = -GRID_SIZE / 2 + (i % perRow) * cell;
+			double z = -4 - GRID_SIZE + (i / perRow) * cell;
+			double height = cell * (0.5 + 2.5 * random.nextDouble());
+			Shape box = new AxisAlignedBox(new Point(x + gap, -1, z + gap),
+					new Point(x + cell - gap, -1 + height, z + cell - gap));
+			scene.addSurface(new Surface(box, mix.pick(random)));
+		}
+		addLights(scene, lights, random, new Point(0, 8, -10), 8);
+		return scene;
+	}
+
+	public static Scene mirrorCorridor(int objects, int lights, MaterialMix mix, long seed) {
+		Random random = new Random(seed);
+		Scene scene = scene(Generator.MIRROR_CORRIDOR, objects, new Point(0, 0.5, 4), new Vec(0, -0.1, -1), 6);
+		scene.addSurface(floor());
+		double halfWidth = CORRIDOR_WIDTH / 2 + 0.4;
+		scene.addSurface(new Surface(new Plain(1, 0, 0, halfWidth), Materials.getMirrorMaterial()));
+		scene.addSurface(new Surface(new Plain(1, 0, 0, -halfWidth), Materials.getMirrorMaterial()));
+		double spacing = Math.cbrt(CORRIDOR_WIDTH * CORRIDOR_HEIGHT * CORRIDOR_DEPTH / objects);
+		for (int i = 0; i < objects; ++i) {
+			double size = spacing * (0.2 + 0.25 * random.nextDouble());
+			Point center = new Point(
+					CORRIDOR_WIDTH * (random.nextDouble() - 0.5),
+					-1 + size + (CORRIDOR_HEIGHT - size) * random.nextDouble(),
+					-4 - CORRIDOR_DEPTH * random.nextDouble());
+			Shape shape = i % 2 == 0 ? new Sphere(center, size) : box(center, 0.8 * size, 0.8 * size);
+			scene.addSurface(new Surface(shape, mix.pick(random)));
+		}
+		// The lights hang along the corridor.
+		for (int i = 0; i < lights; ++i) {
+			double z = -4 - CORRIDOR_DEPTH * (i + random.nextDouble()) / lights;
+			scene.addLightSource(new PointLight()
+					.initPosition(new Point(0, CORRIDOR_HEIGHT - 0.5, z))
+					.initIntensity(new Vec(LIGHT_INTENSITY / lights)));
+		}
+		return scene;
+	}
+
+	public static Scene glassStack(int objects, int lights, MaterialMix mix, long seed) {
+		Random random = new Random(seed);
+		Scene scene = scene(Generator.GLASS_STACK, objects, new Point(0, 2, 4), new Vec(0, -0.2, -1), 6);
+		scene.addSurface(floor());
+		scene.addSurface(new Surface(new Plain(0, 0, 1, 20), Materials.getGreenPlasticMaterial()));
+		// The objects are stacked in towers of slabs and balls, one on top of the other.
+		int perStack = Math.max(1, (int) Math.round(Math.cbrt(objects)));
+		int stacks = (objects + perStack - 1) / perStack;
+		int perRow = (int) Math.ceil(Math.sqrt(stacks));
+		double cell = STACKS_SIZE / perRow;
+		double layer = STACK_HEIGHT / perStack;
+		for (int i = 0; i < objects; ++i) {
+			int stack = i / perStack;
+			int level = i % perStack;
+			Point center = new Point(
+					-STACKS_SIZE / 2 + (stack % perRow + 0.5) * cell,
+					-1 + (level + 0.5) * layer,
+					-6 - STACKS_SIZE + (stack / perRow + 0.5) * cell);
+			double jitter = 0.8 + 0.2 * random.nextDouble();
+			Shape shape = level % 2 == 0 ? box(center, 0.4 * cell * jitter, 0.4 * layer) :
+					new Sphere(center, Math.min(0.4 * cell, 0.5 * layer) * jitter);
+			scene.addSurface(new Surface(shape, mix.pick(random)));
+		}
+		addLights(scene, lights, random, new Point(0, 7, -6), 5);
+		return scene;
+	}
+
+	private static Scene scene(Generator generator, int objects, Point eye, Vec towards, int maxRecursionLevel) {
+		if (objects <= 0)
+			throw new IllegalArgumentException("A generated scene needs at least one object.");
+		return new Scene()
+				.initName(generator + "-" + objects)
+				.initCamera(eye, towards, new Vec(0, 1, 0), 4.0)
+				.initAmbient(new Vec(0.1, 0.1, 0.1))
+				.initRenderReflections(true)
+				.initRenderRefractions(true)
+				.initMaxRecursionLevel(maxRecursionLevel)
+				.initAntiAliasingFactor(1);
+	}
+
+	private static Surface floor() {
+		return new Surface(new Plain(0, 1, 0, 1), Materials.getWhiteRubberMaterial());
+	}
+
+	private static Shape box(Point center, double halfWidth, double halfHeight) {
+		return new AxisAlignedBox(new Point(center.x - halfWidth, center.y - halfHeight, center.z - halfWidth),
+				new Point(center.x + halfWidth, center.y + halfHeight, center.z + halfWidth));
+	}
+
+	// Point lights on a circle around the center.
+	private static void addLights(Scene scene, int lights, Random random, Point center, double radius) {
+		for (int i = 0; i < lights; ++i) {
+			double angle = 2 * Math.PI * (i + random.nextDouble()) / lights;
+			Point position = new Point(center.x + radius * Math.cos(angle), center.y,
+					center.z + radius * Math.sin(angle));
+			scene.addLightSource(new PointLight()
+					.initPosition(position)
+					.initIntensity(new Vec(LIGHT_INTENSITY / lights)));
+		}
+	}
+}
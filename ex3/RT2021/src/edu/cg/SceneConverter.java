@@ -0,0 +1,56 @@
+package edu.cg;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import edu.cg.menu.BinarySceneFormat;
+import edu.cg.menu.GsonMaker;
+import edu.cg.menu.SceneLoader;
+import edu.cg.scene.Scene;
+
+/**
+ * Converts scenes between JSON and the binary scene format (see BinarySceneFormat), from the command line.
+ * The input is either format, and the output is binary if its name ends with .rtscene and JSON otherwise.
+ *
+ * Usage: SceneConverter input output
+ */
+public class SceneConverter {
+	private static final String USAGE = String.join(System.lineSeparator(),
+			"Usage: SceneConverter input output",
+			"The input is a JSON or a binary scene.",
+			"The output is written as a binary scene if its name ends with " + BinarySceneFormat.EXTENSION +
+					", and as JSON otherwise.");
+
+	public static void main(String[] args) {
+		if (args.length != 2) {
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		try {
+			convert(Paths.get(args[0]), Paths.get(args[1]));
+		} catch (Exception e) {
+			System.err.println("Couldn't convert " + args[0] + ": " + e);
+			System.exit(1);
+		}
+	}
+
+	public static void convert(Path input, Path output) throws IOException {
+		SceneLoader loader = new SceneLoader().initShareMaterials(true);
+		Scene scene = loader.load(input);
+		System.out.println(loader);
+		long start = System.nanoTime();
+		if (output.getFileName().toString().endsWith(BinarySceneFormat.EXTENSION)) {
+			BinarySceneFormat.write(scene, output);
+		} else {
+			try (Writer writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+				GsonMaker.getInstance().toJson(scene, Scene.class, writer);
+			}
+		}
+		System.out.println(String.format("Wrote %s (%.1f MB) in %d ms.", output, Files.size(output) / 1e6,
+				(System.nanoTime() - start) / 1000000));
+	}
+}
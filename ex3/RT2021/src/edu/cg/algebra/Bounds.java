@@ -0,0 +1,44 @@
+package edu.cg.algebra;
+
+/**
+ * An immutable axis aligned bounding box, given by its minimal and maximal corners.
+ * Used by the acceleration structures to bound the shapes of the scene.
+ */
+public class Bounds {
+	private final Point min;
+	private final Point max;
+
+	public Bounds(Point min, Point max) {
+		this.min = min;
+		this.max = max;
+	}
+
+	public Point min() {
+		return min;
+	}
+
+	public Point max() {
+		return max;
+	}
+
+	public Bounds union(Bounds other) {
+		return new Bounds(new Point(Math.min(min.x, other.min.x), Math.min(min.y, other.min.y), Math.min(min.z, other.min.z)),
+				new Point(Math.max(max.x, other.max.x), Math.max(max.y, other.max.y), Math.max(max.z, other.max.z)));
+	}
+
+	public Point centroid() {
+		return min.add(max).mult(0.5);
+	}
+
+	public double surfaceArea() {
+		double dx = max.x - min.x;
+		double dy = max.y - min.y;
+		double dz = max.z - min.z;
+		return 2 * (dx * dy + dy * dz + dz * dx);
+	}
+
+	@Override
+	public String toString() {
+		return "[" + min + ", " + max + "]";
+	}
+}
@@ -0,0 +1,43 @@
+package edu.cg.algebra;
+
+/**
+ * A ray whose source and direction can be overwritten, so a single instance can be reused
+ * for many rays (e.g., all the shadow rays a thread shoots) instead of allocating a new ray for each.
+ * A mutable ray must not be shared between threads, nor kept after it is overwritten.
+ */
+public class MutableRay extends Ray {
+	
+	public MutableRay() {
+		super(new Point(), new Vec(0, 0, 1), true);
+	}
+	
+	/**
+	 * Sets the ray to start at source and go in the given direction, which must already be normalized.
+	 */
+	public MutableRay set(Point source, Vec normalizedDirection) {
+		this.source.set(source);
+		this.direction.set(normalizedDirection);
+		invalidateTraversalData();
+		return this;
+	}
+	
+	/**
+	 * Sets the ray to start at p0 and go through p1.
+	 */
+	public MutableRay setThrough(Point p0, Point p1) {
+		this.source.set(p0);
+		p1.sub(p0, this.direction).normalize(this.direction);
+		invalidateTraversalData();
+		return this;
+	}
+	
+	/**
+	 * Sets the ray to start at source and go in the given direction, which is normalized here.
+	 */
+	public MutableRay setAndNormalize(Point source, Vec direction) {
+		this.source.set(source);
+		direction.normalize(this.direction);
+		invalidateTraversalData();
+		return this;
+	}
+}
@@ -13,7 +13,7 @@ public class Ops {
 	}
 	
 	public static Vec mult(double a, Vec v) {
-		return mult(new Vec(a), v);
+		return new Vec(a*v.x, a*v.y, a*v.z);
 	}
 	
 	public static Vec mult(Vec u, Vec v) {
@@ -21,7 +21,7 @@ public class Ops {
 	}
 	
 	public static Point mult(double a, Point p) {
-		return mult(new Point(a), p);
+		return new Point(a*p.x, a*p.y, a*p.z);
 	}
 	
 	public static Point mult(Point p1, Point p2) {
@@ -45,11 +45,12 @@ public class Ops {
 	}
 	
 	public static double dist(Point p1, Point p2) {
-		return length(sub(p1, p2));
+		return Math.sqrt(distSqr(p1, p2));
 	}
 	
 	public static double distSqr(Point p1, Point p2) {
-		return lengthSqr(sub(p1, p2));
+		double dx = p1.x-p2.x, dy = p1.y-p2.y, dz = p1.z-p2.z;
+		return dx*dx + dy*dy + dz*dz;
 	}
 	
 	public static Vec normalize(Vec v) {
@@ -104,4 +105,53 @@ public class Ops {
 		}
 		return refractedVector;
 	}
+	
+	//MARK: in-place operations
+	// The following operations write their result into dest (which may also be one of the arguments)
+	// and return it, so the hot loops of the ray tracer can work without allocating temporaries.
+	
+	public static Vec add(Vec u, Vec v, Vec dest) {
+		return dest.set(u.x+v.x, u.y+v.y, u.z+v.z);
+	}
+	
+	public static Vec mult(double a, Vec v, Vec dest) {
+		return dest.set(a*v.x, a*v.y, a*v.z);
+	}
+	
+	public static Vec mult(Vec u, Vec v, Vec dest) {
+		return dest.set(u.x*v.x, u.y*v.y, u.z*v.z);
+	}
+	
+	public static Vec normalize(Vec v, Vec dest) {
+		return mult(1.0/norm(v), v, dest);
+	}
+	
+	public static Vec neg(Vec v, Vec dest) {
+		return mult(-1, v, dest);
+	}
+	
+	public static Vec sub(Point p1, Point p2, Vec dest) {
+		return dest.set(p1.x-p2.x, p1.y-p2.y, p1.z-p2.z);
+	}
+	
+	public static Point add(Point p, double t, Vec v, Point dest) {
+		//dest = p + tv;
+		return dest.set(p.x + t*v.x, p.y + t*v.y, p.z + t*v.z);
+	}
+	
+	public static Vec reflect(Vec u, Vec normal, Vec dest) {
+		double a = -2*dot(u, normal);
+		return dest.set(u.x + a*normal.x, u.y + a*normal.y, u.z + a*normal.z);
+	}
+	
+	public static Vec refract(Vec u, Vec normal, double n1, double n2, Vec dest) {
+		if (n1 == n2) {
+			return dest.set(u);
+		}
+		double ratio = n1 / n2;
+		double cosineTheta1 = -dot(u, normal);
+		double cosineTheta2 = Math.sqrt(1 - Math.pow(ratio, 2) * (1 - Math.pow(cosineTheta1, 2)));
+		double a = (ratio * cosineTheta1) - cosineTheta2;
+		return dest.set(a*normal.x + ratio*u.x, a*normal.y + ratio*u.y, a*normal.z + ratio*u.z);
+	}
 }
@@ -17,6 +17,17 @@ public class Point {
 		this(0);
 	}
 	
+	public Point set(double x, double y, double z) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		return this;
+	}
+	
+	public Point set(Point other) {
+		return set(other.x, other.y, other.z);
+	}
+	
 	public Point add(double t, Vec v) {
 		return Ops.add(this, t, v);
 	}
@@ -49,6 +60,15 @@ public class Point {
 		return Ops.sub(this, other);
 	}
 	
+	// In-place variants: the result is written into dest and returned.
+	public Point add(double t, Vec v, Point dest) {
+		return Ops.add(this, t, v, dest);
+	}
+	
+	public Vec sub(Point other, Vec dest) {
+		return Ops.sub(this, other, dest);
+	}
+	
 	public Vec toVec() {
 		return sub(new Point());
 	}
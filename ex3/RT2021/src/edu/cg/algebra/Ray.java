@@ -1,16 +1,27 @@
 package edu.cg.algebra;
 
 public class Ray {
-	private final Point source;
-	private final Vec direction;
+	protected final Point source;
+	protected final Vec direction;
+	// Traversal data, computed on first use: the inverse of the direction, and a bit per axis
+	// which is set if the inverse direction on that axis is negative.
+	private Vec inverseDirection = null;
+	private int signs = -1;
 	
 	public Ray(Point source, Vec direction) {
-		this.source = source;
-		this.direction = direction.normalize();
+		this(source, direction.normalize(), true);
 	}
 	
 	public Ray(Point p0, Point p1) {
-		this(p0, p1.sub(p0).normalize());
+		this(p0, p1.sub(p0).normalize(), true);
+	}
+	
+	/**
+	 * Creates a ray with a direction which is already normalized, without normalizing it again.
+	 */
+	protected Ray(Point source, Vec normalizedDirection, boolean isNormalized) {
+		this.source = source;
+		this.direction = normalizedDirection;
 	}
 	
 	public Point source() {
@@ -21,6 +32,39 @@ public class Ray {
 		return direction;
 	}
 	
+	/**
+	 * @return the component-wise inverse of the direction (1/x, 1/y, 1/z). A zero component is inverted to an infinity.
+	 * The returned vector belongs to the ray and must not be modified.
+	 */
+	public Vec inverseDirection() {
+		if (signs < 0)
+			computeTraversalData();
+		return inverseDirection;
+	}
+	
+	/**
+	 * @return 1 if the inverse direction is negative on the given axis (0, 1 or 2 for x, y or z), 0 otherwise.
+	 */
+	public int sign(int axis) {
+		if (signs < 0)
+			computeTraversalData();
+		return (signs >> axis) & 1;
+	}
+	
+	private void computeTraversalData() {
+		if (inverseDirection == null)
+			inverseDirection = new Vec();
+		inverseDirection.set(1.0 / direction.x, 1.0 / direction.y, 1.0 / direction.z);
+		signs = (inverseDirection.x < 0 ? 1 : 0) | (inverseDirection.y < 0 ? 2 : 0) | (inverseDirection.z < 0 ? 4 : 0);
+	}
+	
+	/**
+	 * Must be called whenever the direction changes, so the traversal data is computed again on its next use.
+	 */
+	protected void invalidateTraversalData() {
+		signs = -1;
+	}
+	
 	public Point add(double t) {
 		// returns: p0 + t*direction
 		return source.add(t, direction);
@@ -30,6 +74,10 @@ public class Ray {
 		return add(hit.t());
 	}
 	
+	public Point getHittingPoint(Hit hit, Point dest) {
+		return source.add(hit.t(), direction, dest);
+	}
+	
 	public Ray inverse() {
 		return new Ray(source, direction.neg());
 	}
@@ -0,0 +1,82 @@
+package edu.cg.algebra;
+
+/**
+ * Allocation free slab tests of rays against axis aligned boxes, shared by the boxes of the scene
+ * and the bounding volumes of the acceleration structures.
+ * A box is given by 6 consecutive values of an array: minX, minY, minZ, maxX, maxY, maxZ.
+ * A ray is given by its source, its inverse direction and its sign bits (see Ray.inverseDirection and Ray.sign),
+ * so the tests do no divisions and pick the near and far slab of every axis by the signs instead of comparing.
+ * NaN values (a zero direction component on the plane of a slab) fail the comparisons and are ignored.
+ */
+public final class SlabTest {
+
+	private SlabTest() {
+	}
+
+	/**
+	 * @return the distance at which the ray enters the box, clamped to [0, tMax],
+	 * or infinity if the ray misses the box within [0, tMax].
+	 */
+	public static double entry(double[] box, int offset, double ox, double oy, double oz,
+			double idx, double idy, double idz, int signX, int signY, int signZ, double tMax) {
+		double tNear = 0;
+		double tFar = tMax;
+
+		double t0 = (box[offset + 3 * signX] - ox) * idx;
+		double t1 = (box[offset + 3 - 3 * signX] - ox) * idx;
+		tNear = t0 > tNear ? t0 : tNear;
+		tFar = t1 < tFar ? t1 : tFar;
+
+		t0 = (box[offset + 1 + 3 * signY] - oy) * idy;
+		t1 = (box[offset + 4 - 3 * signY] - oy) * idy;
+		tNear = t0 > tNear ? t0 : tNear;
+		tFar = t1 < tFar ? t1 : tFar;
+
+		t0 = (box[offset + 2 + 3 * signZ] - oz) * idz;
+		t1 = (box[offset + 5 - 3 * signZ] - oz) * idz;
+		tNear = t0 > tNear ? t0 : tNear;
+		tFar = t1 < tFar ? t1 : tFar;
+
+		return tNear <= tFar ? tNear : Double.POSITIVE_INFINITY;
+	}
+
+	public static double entry(double[] box, int offset, Ray ray, double tMax) {
+		Point o = ray.source();
+		Vec inverse = ray.inverseDirection();
+		return entry(box, offset, o.x, o.y, o.z, inverse.x, inverse.y, inverse.z,
+				ray.sign(0), ray.sign(1), ray.sign(2), tMax);
+	}
+
+	/**
+	 * Finds where the ray first crosses the boundary of the box within (tMin, tMax):
+	 * where it enters the box, or where it leaves it if it starts inside the box.
+	 * @return the distance to the crossing, or infinity if there is no crossing within (tMin, tMax).
+	 */
+	public static double firstCrossing(double[] box, int offset, Ray ray, double tMin, double tMax) {
+		Point o = ray.source();
+		Vec inverse = ray.inverseDirection();
+		int signX = ray.sign(0), signY = ray.sign(1), signZ = ray.sign(2);
+		double tNear = Double.NEGATIVE_INFINITY;
+		double tFar = Double.POSITIVE_INFINITY;
+
+		double t0 = (box[offset + 3 * signX] - o.x) * inverse.x;
+		double t1 = (box[offset + 3 - 3 * signX] - o.x) * inverse.x;
+		tNear = t0 > tNear ? t0 : tNear;
+		tFar = t1 < tFar ? t1 : tFar;
+
+		t0 = (box[offset + 1 + 3 * signY] - o.y) * inverse.y;
+		t1 = (box[offset + 4 - 3 * signY] - o.y) * inverse.y;
+		tNear = t0 > tNear ? t0 : tNear;
+		tFar = t1 < tFar ? t1 : tFar;
+
+		t0 = (box[offset + 2 + 3 * signZ] - o.z) * inverse.z;
+		t1 = (box[offset + 5 - 3 * signZ] - o.z) * inverse.z;
+		tNear = t0 > tNear ? t0 : tNear;
+		tFar = t1 < tFar ? t1 : tFar;
+
+		if (tNear > tFar || tFar <= tMin)
+			return Double.POSITIVE_INFINITY;
+		double t = tNear > tMin ? tNear : tFar;
+		return t < tMax ? t : Double.POSITIVE_INFINITY;
+	}
+}
@@ -23,6 +23,17 @@ public class Vec {
 		this(0);
 	}
 	
+	public Vec set(double x, double y, double z) {
+		this.x = x;
+		this.y = y;
+		this.z = z;
+		return this;
+	}
+	
+	public Vec set(Vec other) {
+		return set(other.x, other.y, other.z);
+	}
+	
 	public double norm() {
 		return Ops.norm(this);
 	}
@@ -67,6 +78,27 @@ public class Vec {
 		return Ops.add(this, v);
 	}
 	
+	// In-place variants: the result is written into dest (which may be this vector) and returned.
+	public Vec normalize(Vec dest) {
+		return Ops.normalize(this, dest);
+	}
+	
+	public Vec neg(Vec dest) {
+		return Ops.neg(this, dest);
+	}
+	
+	public Vec mult(double a, Vec dest) {
+		return Ops.mult(a, this, dest);
+	}
+	
+	public Vec mult(Vec v, Vec dest) {
+		return Ops.mult(this, v, dest);
+	}
+	
+	public Vec add(Vec v, Vec dest) {
+		return Ops.add(this, v, dest);
+	}
+	
 	public boolean isFinite() {
 		return Ops.isFinite(this);
 	}
@@ -75,6 +107,17 @@ public class Vec {
 		return new Color(clip(x), clip(y), clip(z));
 	}
 	
+	/**
+	 * @return the color packed as 0xRRGGBB, the same value toColor().getRGB() has in its lower 24 bits.
+	 */
+	public int toRGB() {
+		return (toByte(x) << 16) | (toByte(y) << 8) | toByte(z);
+	}
+
+	private static int toByte(double val) {
+		return (int) (clip(val) * 255 + 0.5);
+	}
+	
 	private static float clip(double val) {
 		return (float)Math.min(1, Math.max(0, val));
 	}
@@ -0,0 +1,27 @@
+package edu.cg.distributed;
+
+/**
+ * The messages between the render coordinator and its workers. Every message starts with its type (an int)
+ * and is written with a DataOutputStream.
+ *
+ * Coordinator to worker:
+ * JOB width height planeWidth sampler samplerSeed jsonLength json - a scene to render (the json is UTF-8).
+ * TILE x0 y0 x1 y1 - a region of the current job's image to render.
+ * END - the current job has no more regions.
+ * SHUTDOWN - the worker should exit.
+ *
+ * Worker to coordinator:
+ * HELLO threads - sent once when the worker connects.
+ * RESULT x0 y0 x1 y1 pixels... - the RGB pixels of a rendered region, row by row.
+ */
+final class Messages {
+	static final int HELLO = 0x52543231;
+	static final int JOB = 1;
+	static final int TILE = 2;
+	static final int END = 3;
+	static final int SHUTDOWN = 4;
+	static final int RESULT = 5;
+
+	private Messages() {
+	}
+}
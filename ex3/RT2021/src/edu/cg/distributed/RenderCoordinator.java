@@ -0,0 +1,476 @@
+package edu.cg.distributed;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import edu.cg.Logger;
+import edu.cg.menu.GsonMaker;
+import edu.cg.scene.Scene;
+
+/**
+ * Renders scenes on several worker processes (see RenderWorker).
+ * The coordinator serializes a scene once, in the same JSON format the scenes are saved in, sends it to every
+ * worker, and then hands out the tiles of the image to the workers as they finish their previous ones.
+ * The tiles of a worker which dies (or stops answering) are handed out again to the others.
+ * The returned tiles are stitched into the final image, which is the same image Scene.render would give.
+ *
+ * Workers are either started by the coordinator on this machine, or started anywhere else with
+ * RenderWorker host port, in which case the coordinator must accept remote workers.
+ * A worker may join at any time, also in the middle of a render, and stays connected between renders.
+ */
+public class RenderCoordinator implements AutoCloseable {
+	private int port = 0;
+	private boolean remoteWorkers = false;
+	private int localWorkers = 0;
+	private int threadsPerWorker = 0;
+	private int tileSize = 64;
+	private int tilesInFlight = 2;
+	private int tileTimeout = 60000;
+
+	private ServerSocket server = null;
+	private Thread acceptor = null;
+	private final List<Process> processes = new ArrayList<>();
+	private final List<Connection> connections = new ArrayList<>();
+	// Guards the connections and the job they serve.
+	private final Object workersLock = new Object();
+	private final Object renderLock = new Object();
+	private Job job = null;
+	private Logger logger = s -> {};
+
+	/**
+	 * Sets the port the coordinator listens on for workers. 0 (the default) picks a free port.
+	 */
+	public RenderCoordinator initPort(int port) {
+		if (port < 0 || port > 0xffff)
+			throw new IllegalArgumentException("Port must be in the range [0, 65535].");
+		this.port = port;
+		return this;
+	}
+
+	/**
+	 * Sets whether workers on other machines may connect. Otherwise the coordinator listens on localhost only.
+	 */
+	public RenderCoordinator initRemoteWorkers(boolean remoteWorkers) {
+		this.remoteWorkers = remoteWorkers;
+		return this;
+	}
+
+	/**
+	 * Sets the number of worker processes the coordinator starts on this machine.
+	 */
+	public RenderCoordinator initLocalWorkers(int localWorkers) {
+		if (localWorkers < 0)
+			throw new IllegalArgumentException("Number of local workers must not be negative.");
+		this.localWorkers = localWorkers;
+		return this;
+	}
+
+	/**
+	 * Sets the number of rendering threads of every local worker. 0 (the default) lets each worker use
+	 * all the processors.
+	 */
+	public RenderCoordinator initThreadsPerWorker(int threadsPerWorker) {
+		if (threadsPerWorker < 0)
+			throw new IllegalArgumentException("Number of threads must not be negative.");
+		this.threadsPerWorker = threadsPerWorker;
+		return this;
+	}
+
+	/**
+	 * Sets the size of the tiles handed out to the workers. Every tile is split further by the worker.
+	 */
+	public RenderCoordinator initTileSize(int tileSize) {
+		if (tileSize <= 0)
+			throw new IllegalArgumentException("Tile size must be positive.");
+		this.tileSize = tileSize;
+		return this;
+	}
+
+	/**
+	 * Sets how many tiles a worker is given before it returns the first of them, so it never waits for
+	 * its next tile.
+	 */
+	public RenderCoordinator initTilesInFlight(int tilesInFlight) {
+		if (tilesInFlight <= 0)
+			throw new IllegalArgumentException("Number of tiles in flight must be positive.");
+		this.tilesInFlight = tilesInFlight;
+		return this;
+	}
+
+	/**
+	 * Sets how long (in milliseconds) a worker may take to return a tile before it is considered dead.
+	 * A render with no workers at all also fails after this long.
+	 */
+	public RenderCoordinator initTileTimeout(int tileTimeout) {
+		if (tileTimeout <= 0)
+			throw new IllegalArgumentException("Tile timeout must be positive.");
+		this.tileTimeout = tileTimeout;
+		return this;
+	}
+
+	public RenderCoordinator initLogger(Logger logger) {
+		this.logger = logger;
+		return this;
+	}
+
+	/**
+	 * Starts listening for workers and starts the local workers.
+	 */
+	public RenderCoordinator start() throws IOException {
+		if (server != null)
+			throw new IllegalStateException("The coordinator has already been started.");
+		server = remoteWorkers ? new ServerSocket(port) : new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+		acceptor = new Thread(this::acceptWorkers, "render-coordinator-acceptor");
+		acceptor.setDaemon(true);
+		acceptor.start();
+		logger.log("Listening for workers on port " + getPort());
+
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		for (int i = 0; i < localWorkers; ++i) {
+			List<String> command = new ArrayList<>();
+			command.add(java);
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(RenderWorker.class.getName());
+			command.add(InetAddress.getLoopbackAddress().getHostAddress());
+			command.add(Integer.toString(getPort()));
+			if (threadsPerWorker > 0)
+				command.add(Integer.toString(threadsPerWorker));
+			processes.add(new ProcessBuilder(command)
+					.redirectOutput(ProcessBuilder.Redirect.DISCARD)
+					.redirectError(ProcessBuilder.Redirect.INHERIT)
+					.start());
+		}
+		return this;
+	}
+
+	public int getPort() {
+		return server.getLocalPort();
+	}
+
+	public int getNumWorkers() {
+		synchronized (workersLock) {
+			return connections.size();
+		}
+	}
+
+	/**
+	 * Renders the scene on the workers, like scene.render(imgWidth, imgHeight, planeWidth, logger).
+	 * Only one scene is rendered at a time.
+	 */
+	public BufferedImage render(Scene scene, int imgWidth, int imgHeight, double planeWidth)
+			throws IOException, InterruptedException {
+		if (server == null)
+			throw new IllegalStateException("The coordinator has not been started.");
+
+		synchronized (renderLock) {
+			BufferedImage img = new BufferedImage(imgWidth, imgHeight, BufferedImage.TYPE_INT_RGB);
+			Job job = new Job(scene, imgWidth, imgHeight, planeWidth,
+					((DataBufferInt) img.getRaster().getDataBuffer()).getData());
+			synchronized (workersLock) {
+				logger.log("Distributing " + job.numTiles + " tiles of " + scene.getName() + " to " +
+						connections.size() + " workers");
+				this.job = job;
+				for (Connection connection : connections)
+					connection.serve(job);
+			}
+			try {
+				job.awaitCompletion();
+			} finally {
+				synchronized (workersLock) {
+					this.job = null;
+				}
+			}
+			logger.log("Distributed render of " + scene.getName() + " has been completed.");
+			return img;
+		}
+	}
+
+	/**
+	 * Shuts the workers down and stops listening.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (server == null || server.isClosed())
+			return;
+		server.close();
+		List<Connection> workers;
+		synchronized (workersLock) {
+			workers = new ArrayList<>(connections);
+			connections.clear();
+		}
+		for (Connection connection : workers)
+			connection.shutdown();
+		for (Process process : processes) {
+			try {
+				if (!process.waitFor(5, TimeUnit.SECONDS))
+					process.destroyForcibly();
+			} catch (InterruptedException e) {
+				process.destroyForcibly();
+				Thread.currentThread().interrupt();
+			}
+		}
+		processes.clear();
+	}
+
+	private void acceptWorkers() {
+		while (!server.isClosed()) {
+			Socket socket;
+			try {
+				socket = server.accept();
+			} catch (IOException e) {
+				// The server has been closed.
+				return;
+			}
+			try {
+				Connection connection = new Connection(socket);
+				synchronized (workersLock) {
+					connections.add(connection);
+					logger.log("Worker " + connection + " joined with " + connection.threads + " threads");
+					// A worker which joins in the middle of a render helps with the rest of it.
+					if (job != null)
+						connection.serve(job);
+				}
+			} catch (IOException e) {
+				logger.log("Rejected a worker from " + socket.getRemoteSocketAddress() + ": " + e.getMessage());
+				closeQuietly(socket);
+			}
+		}
+	}
+
+	private void lost(Connection connection, Exception e) {
+		synchronized (workersLock) {
+			if (connections.remove(connection))
+				logger.log("Lost worker " + connection + ": " + e);
+		}
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// Nothing to do.
+		}
+	}
+
+	/**
+	 * The tiles of a single render. Guarded by its own lock.
+	 */
+	private final class Job {
+		final byte[] message;
+		final int imgWidth;
+		final int[] pixels;
+		final int numTiles;
+		final Deque<int[]> pending = new ArrayDeque<>();
+		final boolean[] completed;
+		int remaining;
+		int workers = 0;
+		long noWorkersSince = System.nanoTime();
+
+		Job(Scene scene, int imgWidth, int imgHeight, double planeWidth, int[] pixels) throws IOException {
+			this.imgWidth = imgWidth;
+			this.pixels = pixels;
+
+			// The rendering settings which change the pixels, and are not part of the JSON, go along with it.
+			byte[] json = GsonMaker.getInstance().toJson(scene, Scene.class).getBytes(StandardCharsets.UTF_8);
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream(json.length + 40);
+			DataOutputStream out = new DataOutputStream(bytes);
+			out.writeInt(Messages.JOB);
+			out.writeInt(imgWidth);
+			out.writeInt(imgHeight);
+			out.writeDouble(planeWidth);
+			out.writeInt(scene.getSampler().ordinal());
+			out.writeLong(scene.getSamplerSeed());
+			out.writeInt(json.length);
+			out.write(json);
+			message = bytes.toByteArray();
+
+			// Each tile is {x0, y0, x1, y1, index}.
+			for (int y = 0; y < imgHeight; y += tileSize)
+				for (int x = 0; x < imgWidth; x += tileSize)
+					pending.add(new int[] { x, y, Math.min(x + tileSize, imgWidth), Math.min(y + tileSize, imgHeight),
+							pending.size() });
+			numTiles = pending.size();
+			completed = new boolean[numTiles];
+			remaining = numTiles;
+		}
+
+		/**
+		 * @return the next tile to hand out, or null if there is none. When blocking, waits until a tile is
+		 * handed back by a lost worker or until all the tiles are done.
+		 */
+		synchronized int[] take(boolean block) throws InterruptedException {
+			while (block && pending.isEmpty() && remaining > 0)
+				wait();
+			return pending.poll();
+		}
+
+		synchronized void complete(int[] tile, int[] tilePixels) {
+			if (completed[tile[4]])
+				return;
+			completed[tile[4]] = true;
+			int width = tile[2] - tile[0];
+			for (int y = tile[1]; y < tile[3]; ++y)
+				System.arraycopy(tilePixels, (y - tile[1]) * width, pixels, y * imgWidth + tile[0], width);
+			if (--remaining == 0)
+				notifyAll();
+		}
+
+		synchronized void joined() {
+			++workers;
+		}
+
+		/**
+		 * Hands the tiles of a lost worker out again, ahead of the others.
+		 */
+		synchronized void left(Deque<int[]> inFlight) {
+			for (Iterator<int[]> it = inFlight.descendingIterator(); it.hasNext();) {
+				int[] tile = it.next();
+				if (!completed[tile[4]])
+					pending.addFirst(tile);
+			}
+			if (--workers == 0)
+				noWorkersSince = System.nanoTime();
+			notifyAll();
+		}
+
+		synchronized void awaitCompletion() throws InterruptedException, IOException {
+			while (remaining > 0) {
+				if (workers == 0 && System.nanoTime() - noWorkersSince > tileTimeout * 1000000L)
+					throw new IOException("No workers have been rendering for " + tileTimeout + " ms, " +
+							remaining + " of " + numTiles + " tiles are left.");
+				wait(100);
+			}
+		}
+	}
+
+	/**
+	 * A connected worker. It serves one job at a time on a thread of its own, which holds the lock of the
+	 * connection for the whole job.
+	 */
+	private final class Connection {
+		final Socket socket;
+		final DataInputStream in;
+		final DataOutputStream out;
+		final int threads;
+		private final ReentrantLock lock = new ReentrantLock();
+
+		Connection(Socket socket) throws IOException {
+			this.socket = socket;
+			socket.setTcpNoDelay(true);
+			socket.setSoTimeout(tileTimeout);
+			in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+			if (in.readInt() != Messages.HELLO)
+				throw new IOException("Not a render worker");
+			threads = in.readInt();
+		}
+
+		void serve(Job job) {
+			job.joined();
+			Thread thread = new Thread(() -> renderTiles(job), "render-coordinator-" + this);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		private void renderTiles(Job job) {
+			Deque<int[]> inFlight = new ArrayDeque<>();
+			// A worker finishes a job before it is given the next one.
+			lock.lock();
+			try {
+				try {
+					out.write(job.message);
+					while (true) {
+						for (int[] tile; inFlight.size() < tilesInFlight &&
+								(tile = job.take(inFlight.isEmpty())) != null;) {
+							out.writeInt(Messages.TILE);
+							for (int i = 0; i < 4; ++i)
+								out.writeInt(tile[i]);
+							inFlight.add(tile);
+						}
+						if (inFlight.isEmpty()) {
+							out.writeInt(Messages.END);
+							out.flush();
+							break;
+						}
+						out.flush();
+						receive(job, inFlight);
+					}
+					job.left(inFlight);
+				} catch (IOException | RuntimeException e) {
+					job.left(inFlight);
+					lost(this, e);
+					closeQuietly(socket);
+				} catch (InterruptedException e) {
+					// The worker is in the middle of the job and cannot be given another one, so it is dropped.
+					job.left(inFlight);
+					lost(this, e);
+					closeQuietly(socket);
+					Thread.currentThread().interrupt();
+				}
+			} finally {
+				lock.unlock();
+			}
+		}
+
+		private void receive(Job job, Deque<int[]> inFlight) throws IOException {
+			if (in.readInt() != Messages.RESULT)
+				throw new IOException("Expected a result");
+			int x0 = in.readInt(), y0 = in.readInt(), x1 = in.readInt(), y1 = in.readInt();
+			int[] tile = null;
+			for (int[] t : inFlight)
+				if (t[0] == x0 && t[1] == y0 && t[2] == x1 && t[3] == y1)
+					tile = t;
+			if (tile == null)
+				throw new IOException("Got a tile which was not handed out");
+			int[] tilePixels = new int[(x1 - x0) * (y1 - y0)];
+			for (int i = 0; i < tilePixels.length; ++i)
+				tilePixels[i] = in.readInt();
+			// The tile stays in flight until all of its pixels have arrived.
+			inFlight.remove(tile);
+			job.complete(tile, tilePixels);
+		}
+
+		/**
+		 * Tells an idle worker to exit, and closes the connection. A connection which is serving a job is closed
+		 * at once, without waiting for the job, so the read its thread is blocked in fails even if the worker
+		 * stalled, and the worker exits once it sees the connection closed.
+		 */
+		void shutdown() {
+			if (lock.tryLock()) {
+				try {
+					out.writeInt(Messages.SHUTDOWN);
+					out.flush();
+				} catch (IOException e) {
+					// The worker is gone already.
+				} finally {
+					lock.unlock();
+				}
+			}
+			closeQuietly(socket);
+		}
+
+		@Override
+		public String toString() {
+			return socket.getRemoteSocketAddress().toString();
+		}
+	}
+}
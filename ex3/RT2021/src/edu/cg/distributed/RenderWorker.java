@@ -0,0 +1,113 @@
+package edu.cg.distributed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ForkJoinPool;
+
+import edu.cg.Logger;
+import edu.cg.menu.GsonMaker;
+import edu.cg.scene.Scene;
+import edu.cg.scene.rendering.RegionQueue;
+import edu.cg.scene.sampling.Sampler;
+
+/**
+ * A worker process of a distributed render. It connects to a RenderCoordinator and renders the regions
+ * of the coordinator's jobs until the coordinator shuts it down or goes away.
+ * The scene of a job is built once, and all the regions the worker gets for it share its BVH.
+ *
+ * Usage: RenderWorker host port [threads]
+ */
+public class RenderWorker {
+	private final DataInputStream in;
+	private final DataOutputStream out;
+	private final ForkJoinPool pool;
+	private final Logger logger;
+
+	RenderWorker(Socket socket, int nThreads, Logger logger) throws IOException {
+		socket.setTcpNoDelay(true);
+		in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+		out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		pool = new ForkJoinPool(nThreads);
+		this.logger = logger;
+		out.writeInt(Messages.HELLO);
+		out.writeInt(nThreads);
+		out.flush();
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		if (args.length < 2 || args.length > 3) {
+			System.err.println("Usage: RenderWorker host port [threads]");
+			System.exit(2);
+		}
+		int nThreads = args.length == 3 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		Logger logger = s -> System.out.println("[worker] " + s);
+		try (Socket socket = new Socket(args[0], Integer.parseInt(args[1]))) {
+			new RenderWorker(socket, nThreads, logger).run();
+		} catch (IOException e) {
+			System.err.println("Lost the coordinator: " + e);
+			System.exit(1);
+		}
+		System.exit(0);
+	}
+
+	/**
+	 * Renders jobs until the coordinator shuts the worker down.
+	 */
+	void run() throws IOException {
+		try {
+			while (true) {
+				int type = in.readInt();
+				if (type == Messages.SHUTDOWN)
+					return;
+				if (type != Messages.JOB)
+					throw new IOException("Expected a job, got message " + type);
+				renderJob();
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private void renderJob() throws IOException {
+		int width = in.readInt();
+		int height = in.readInt();
+		double planeWidth = in.readDouble();
+		Sampler.Type sampler = Sampler.Type.values()[in.readInt()];
+		long samplerSeed = in.readLong();
+		byte[] json = new byte[in.readInt()];
+		in.readFully(json);
+
+		Scene scene = GsonMaker.getInstance().fromJson(new String(json, StandardCharsets.UTF_8), Scene.class);
+		scene.initWorkerPool(pool)
+		.initSampler(sampler)
+		.initSamplerSeed(samplerSeed);
+		scene.render(width, height, planeWidth, logger, new RegionQueue() {
+			@Override
+			public int[] next() throws IOException {
+				int type = in.readInt();
+				if (type == Messages.END)
+					return null;
+				if (type != Messages.TILE)
+					throw new IOException("Expected a tile, got message " + type);
+				return new int[] { in.readInt(), in.readInt(), in.readInt(), in.readInt() };
+			}
+
+			@Override
+			public void done(int[] region, int[] pixels) throws IOException {
+				out.writeInt(Messages.RESULT);
+				for (int v : region)
+					out.writeInt(v);
+				for (int pixel : pixels)
+					out.writeInt(pixel);
+				out.flush();
+			}
+		});
+	}
+}
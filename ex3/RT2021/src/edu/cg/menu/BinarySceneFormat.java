@@ -0,0 +1,307 @@
+package edu.cg.menu;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.gson.ExclusionStrategy;
+import com.google.gson.FieldAttributes;
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+
+import edu.cg.algebra.Point;
+import edu.cg.scene.Scene;
+import edu.cg.scene.objects.AxisAlignedBox;
+import edu.cg.scene.objects.Material;
+import edu.cg.scene.objects.MaterialKey;
+import edu.cg.scene.objects.Plain;
+import edu.cg.scene.objects.Shape;
+import edu.cg.scene.objects.Sphere;
+import edu.cg.scene.objects.Surface;
+
+/**
+ * A compact binary format of scenes, for scenes of millions of surfaces whose JSON is large and slow to read.
+ * Everything but the shapes of the surfaces (the settings of the scene, the camera, the light sources and the
+ * table of the materials) is kept as JSON in a small header. The shapes follow in flat arrays of doubles, one
+ * per kind of shape, which are read through memory mappings of the file (FileChannel.map) without any parsing.
+ * All the numbers are little-endian, and every array starts on an 8 byte boundary.
+ *
+ * Version 1:
+ *   "EX3SCENE", int version, int header length, long surfaces, long spheres, long boxes, long plains
+ *   header: UTF-8 JSON {"scene": the scene without its surfaces, "materials": the distinct materials}
+ *   byte[surfaces]: the kind of every surface's shape (SPHERE, BOX or PLAIN), in the order of the scene
+ *   int[surfaces]: the index of every surface's material in the materials of the header
+ *   double[4 * spheres]: the center x, y, z and the radius of every sphere
+ *   double[6 * boxes]: the corners a and b of every box
+ *   double[4 * plains]: the coefficients a, b, c, d of every plain
+ * Every array is mapped on its own, so an array may take up to 2 GB (e.g., 67 million spheres).
+ * Surfaces with equal materials share one entry of the materials, and get copies of it when they are read,
+ * unless they are read to share it (see read).
+ */
+public final class BinarySceneFormat {
+	public static final String EXTENSION = ".rtscene";
+	public static final int VERSION = 1;
+
+	private static final byte[] MAGIC = "EX3SCENE".getBytes(StandardCharsets.US_ASCII);
+	private static final int FIXED_HEADER_SIZE = 48;
+	private static final byte SPHERE = 0, BOX = 1, PLAIN = 2;
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	// Writes the scene without its surfaces, which go into the arrays.
+	private static final Gson HEADER_GSON = GsonMaker.getInstance().newBuilder()
+			.addSerializationExclusionStrategy(new ExclusionStrategy() {
+				@Override
+				public boolean shouldSkipField(FieldAttributes field) {
+					return field.getDeclaringClass() == Scene.class && field.getName().equals("surfaces");
+				}
+
+				@Override
+				public boolean shouldSkipClass(Class<?> klass) {
+					return false;
+				}
+			}).create();
+
+	private BinarySceneFormat() {
+	}
+
+	/**
+	 * @return whether the file starts as a binary scene does.
+	 */
+	public static boolean isBinary(Path file) throws IOException {
+		try (InputStream in = Files.newInputStream(file)) {
+			return Arrays.equals(in.readNBytes(MAGIC.length), MAGIC);
+		}
+	}
+
+	/**
+	 * Writes the scene in the binary format.
+	 * @throws IllegalArgumentException if the scene has surfaces of shapes other than spheres, boxes and plains.
+	 */
+	public static void write(Scene scene, Path file) throws IOException {
+		List<Surface> surfaces = scene.getSurfaces();
+		// The index of every material, by identity and then by value.
+		Map<Material, Integer> materialIndices = new IdentityHashMap<>();
+		Map<MaterialKey, Integer> distinct = new HashMap<>();
+		List<Material> materials = new ArrayList<>();
+		long[] counts = new long[3];
+		for (Surface surface : surfaces) {
+			++counts[kind(surface.shape())];
+			materialIndices.computeIfAbsent(surface.material(), material -> {
+				MaterialKey key = material != null ? new MaterialKey(material) : null;
+				Integer index = distinct.get(key);
+				if (index == null) {
+					materials.add(material);
+					index = materials.size() - 1;
+					distinct.put(key, index);
+				}
+				return index;
+			});
+		}
+		JsonObject header = new JsonObject();
+		header.add("scene", HEADER_GSON.toJsonTree(scene));
+		header.add("materials", HEADER_GSON.toJsonTree(materials));
+		byte[] headerBytes = header.toString().getBytes(StandardCharsets.UTF_8);
+
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+				StandardOpenOption.TRUNCATE_EXISTING)) {
+			Output out = new Output(channel);
+			out.buffer.put(MAGIC);
+			out.buffer.putInt(VERSION).putInt(headerBytes.length).putLong(surfaces.size());
+			out.buffer.putLong(counts[SPHERE]).putLong(counts[BOX]).putLong(counts[PLAIN]);
+			for (int i = 0; i < headerBytes.length; i += BUFFER_SIZE) {
+				out.ensure(BUFFER_SIZE);
+				out.buffer.put(headerBytes, i, Math.min(BUFFER_SIZE, headerBytes.length - i));
+			}
+			out.align();
+			for (Surface surface : surfaces) {
+				out.ensure(1);
+				out.buffer.put((byte) kind(surface.shape()));
+			}
+			out.align();
+			for (Surface surface : surfaces) {
+				out.ensure(4);
+				out.buffer.putInt(materialIndices.get(surface.material()));
+			}
+			out.align();
+			for (Surface surface : surfaces) {
+				if (surface.shape() instanceof Sphere) {
+					Sphere sphere = (Sphere) surface.shape();
+					out.putDoubles(sphere.center().x, sphere.center().y, sphere.center().z, sphere.radius());
+				}
+			}
+			for (Surface surface : surfaces) {
+				if (surface.shape() instanceof AxisAlignedBox) {
+					AxisAlignedBox box = (AxisAlignedBox) surface.shape();
+					out.putDoubles(box.a().x, box.a().y, box.a().z, box.b().x, box.b().y, box.b().z);
+				}
+			}
+			for (Surface surface : surfaces) {
+				if (surface.shape() instanceof Plain)
+					out.putDoubles(((Plain) surface.shape()).coefficients());
+			}
+			out.flush();
+		}
+	}
+
+	/**
+	 * Reads a scene written by write.
+	 * @param shareMaterials - whether surfaces with equal materials share a single Material, which saves memory
+	 * in large scenes but lets an edit of one surface's material change the others. Otherwise every surface gets
+	 * a Material of its own, as it does when the scene is read from JSON.
+	 * @throws IOException if the file is not a binary scene of a known version, or is truncated.
+	 */
+	public static Scene read(Path file, boolean shareMaterials) throws IOException {
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() < FIXED_HEADER_SIZE)
+				throw new IOException(file + " is not a binary scene.");
+			ByteBuffer fixed = map(channel, 0, FIXED_HEADER_SIZE);
+			byte[] magic = new byte[MAGIC.length];
+			fixed.get(magic);
+			if (!Arrays.equals(magic, MAGIC))
+				throw new IOException(file + " is not a binary scene.");
+			int version = fixed.getInt();
+			if (version != VERSION)
+				throw new IOException(file + " is a binary scene of version " + version + ", only version " + VERSION +
+						" is supported.");
+			int headerLength = fixed.getInt();
+			long numSurfaces = fixed.getLong();
+			long numSpheres = fixed.getLong();
+			long numBoxes = fixed.getLong();
+			long numPlains = fixed.getLong();
+			if (headerLength < 0 || numSurfaces < 0 || numSurfaces > Integer.MAX_VALUE ||
+					numSpheres < 0 || numBoxes < 0 || numPlains < 0 || numSpheres + numBoxes + numPlains != numSurfaces)
+				throw new IOException(file + " has a corrupt header.");
+
+			long offset = FIXED_HEADER_SIZE;
+			ByteBuffer headerBuffer = map(channel, offset, headerLength);
+			byte[] headerBytes = new byte[headerLength];
+			headerBuffer.get(headerBytes);
+			offset = align(offset + headerLength);
+			ByteBuffer kinds = map(channel, offset, numSurfaces);
+			offset = align(offset + numSurfaces);
+			IntBuffer materialIndices = map(channel, offset, 4 * numSurfaces).asIntBuffer();
+			offset = align(offset + 4 * numSurfaces);
+			DoubleBuffer spheres = map(channel, offset, 32 * numSpheres).asDoubleBuffer();
+			offset += 32 * numSpheres;
+			DoubleBuffer boxes = map(channel, offset, 48 * numBoxes).asDoubleBuffer();
+			offset += 48 * numBoxes;
+			DoubleBuffer plains = map(channel, offset, 32 * numPlains).asDoubleBuffer();
+
+			Scene scene;
+			Material[] materials;
+			try {
+				JsonObject header = JsonParser.parseString(new String(headerBytes, StandardCharsets.UTF_8)).getAsJsonObject();
+				Gson gson = GsonMaker.getInstance();
+				scene = gson.fromJson(header.get("scene"), Scene.class);
+				materials = gson.fromJson(header.get("materials"), Material[].class);
+			} catch (JsonParseException | IllegalStateException e) {
+				throw new IOException(file + " has a corrupt header: " + e.getMessage(), e);
+			}
+			for (long i = 0; i < numSurfaces; ++i) {
+				Shape shape;
+				switch (kinds.get()) {
+				case SPHERE:
+					shape = new Sphere(new Point(spheres.get(), spheres.get(), spheres.get()), spheres.get());
+					break;
+				case BOX:
+					shape = new AxisAlignedBox(new Point(boxes.get(), boxes.get(), boxes.get()),
+							new Point(boxes.get(), boxes.get(), boxes.get()));
+					break;
+				case PLAIN:
+					shape = new Plain(plains.get(), plains.get(), plains.get(), plains.get());
+					break;
+				default:
+					throw new IOException(file + " has a surface of an unknown kind of shape.");
+				}
+				int material = materialIndices.get();
+				if (material < 0 || material >= materials.length)
+					throw new IOException(file + " has a surface of an unknown material.");
+				Material surfaceMaterial = materials[material];
+				if (!shareMaterials && surfaceMaterial != null)
+					surfaceMaterial = surfaceMaterial.copy();
+				scene.addSurface(new Surface(shape, surfaceMaterial));
+			}
+			return scene;
+		} catch (BufferUnderflowException e) {
+			throw new IOException(file + " has fewer shapes of a kind than its surfaces.", e);
+		}
+	}
+
+	private static int kind(Shape shape) {
+		if (shape instanceof Sphere)
+			return SPHERE;
+		if (shape instanceof AxisAlignedBox)
+			return BOX;
+		if (shape instanceof Plain)
+			return PLAIN;
+		throw new IllegalArgumentException("The binary scene format has no " + shape.getClass().getSimpleName() + " shapes.");
+	}
+
+	private static ByteBuffer map(FileChannel channel, long offset, long size) throws IOException {
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("An array of the scene takes more than 2 GB.");
+		if (offset + size > channel.size())
+			throw new IOException("The scene file is truncated.");
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static long align(long offset) {
+		return (offset + 7) & ~7L;
+	}
+
+	/**
+	 * Writes through a buffer, keeping track of the offset in the file.
+	 */
+	private static class Output {
+		final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		private final FileChannel channel;
+		private long flushed = 0;
+
+		Output(FileChannel channel) {
+			this.channel = channel;
+		}
+
+		void ensure(int bytes) throws IOException {
+			if (buffer.remaining() < bytes)
+				flush();
+		}
+
+		void putDoubles(double... values) throws IOException {
+			ensure(8 * values.length);
+			for (double value : values)
+				buffer.putDouble(value);
+		}
+
+		// Pads with zeros up to the next 8 byte boundary.
+		void align() throws IOException {
+			long offset = flushed + buffer.position();
+			ensure(8);
+			for (long i = offset; i < BinarySceneFormat.align(offset); ++i)
+				buffer.put((byte) 0);
+		}
+
+		void flush() throws IOException {
+			buffer.flip();
+			while (buffer.hasRemaining())
+				flushed += channel.write(buffer);
+			buffer.clear();
+		}
+	}
+}
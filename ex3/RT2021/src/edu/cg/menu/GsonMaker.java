@@ -1,5 +1,7 @@
 package edu.cg.menu;
 import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
@@ -17,8 +19,10 @@ import edu.cg.scene.objects.Shape;
 
 public class GsonMaker<T>  implements JsonSerializer<T>, JsonDeserializer<T> {
 
-	private static final String CLASSNAME = "CLASSNAME";
-	private static final String DATA = "DATA";
+	static final String CLASSNAME = "CLASSNAME";
+	static final String DATA = "DATA";
+	// The classes of the polymorphic elements by name, each looked up only once.
+	private static final Map<String, Class<?>> CLASSES = new ConcurrentHashMap<>();
 
 	public T deserialize(JsonElement jsonElement, Type type,
 			JsonDeserializationContext jsonDeserializationContext) throws JsonParseException {
@@ -40,12 +44,24 @@ public class GsonMaker<T>  implements JsonSerializer<T>, JsonDeserializer<T> {
 	/****** Helper method to get the className of the object to be deserialized *****/
 	@SuppressWarnings("unchecked")
 	public Class<T> getObjectClass(String className) {
+		return (Class<T>) classOf(className);
+	}
+	
+	/**
+	 * @return the class of the name, looked up once and then taken from the cache.
+	 */
+	static Class<?> classOf(String className) {
+		Class<?> klass = CLASSES.get(className);
+		if (klass != null)
+			return klass;
 		try {
-			return (Class<T>) Class.forName(className);
+			// Not initialized before it is known to be wanted, e.g., by SceneLoader, which checks the class first.
+			klass = Class.forName(className, false, GsonMaker.class.getClassLoader());
 		} catch (ClassNotFoundException e) {
-			//e.printStackTrace();
 			throw new JsonParseException(e.getMessage());
 		}
+		CLASSES.put(className, klass);
+		return klass;
 	}
 	
 	
@@ -2,11 +2,15 @@ package edu.cg.menu;
 
 /*
  * This class displays an image in a new window and allows to save it as a PNG file.
+ * The image can be updated while it is rendered, e.g., by a progressive render which may be stopped early.
  */
 
 import java.awt.BorderLayout;
 import java.awt.Dimension;
+import java.awt.FlowLayout;
 import java.awt.Graphics;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
@@ -23,15 +27,26 @@ import javax.swing.border.EmptyBorder;
 public class ImageWindow extends JFrame {
 	private MenuWindow menuWindow;
 	private BufferedImage img;
+	private final String title;
+	private JButton btnStop = null;
 
 	/**
 	 * Create the window.
 	 */
 	public ImageWindow(BufferedImage img, String title, MenuWindow menuWindow) {
+		this(img, title, menuWindow, null);
+	}
+
+	/**
+	 * Create the window of an image which is still being rendered. The Stop button, or closing the window,
+	 * runs stopAction (unless it is null) to stop the render.
+	 */
+	public ImageWindow(BufferedImage img, String title, MenuWindow menuWindow, Runnable stopAction) {
 		super();
 		
 		this.img = img;
 		this.menuWindow = menuWindow;
+		this.title = title;
 		
 		setTitle(title);
 		JPanel contentPane = new JPanel();
@@ -47,7 +62,25 @@ public class ImageWindow extends JFrame {
 			if (ret == JFileChooser.APPROVE_OPTION)
 				save(fileChooser.getSelectedFile());
 		});
-		contentPane.add(btnSaveAs, BorderLayout.NORTH);
+		if (stopAction == null) {
+			contentPane.add(btnSaveAs, BorderLayout.NORTH);
+		} else {
+			btnStop = new JButton("Stop");
+			btnStop.addActionListener(e -> {
+				btnStop.setEnabled(false);
+				stopAction.run();
+			});
+			addWindowListener(new WindowAdapter() {
+				@Override
+				public void windowClosing(WindowEvent e) {
+					stopAction.run();
+				}
+			});
+			JPanel panelButtons = new JPanel(new FlowLayout(FlowLayout.CENTER, 5, 0));
+			panelButtons.add(btnSaveAs);
+			panelButtons.add(btnStop);
+			contentPane.add(panelButtons, BorderLayout.NORTH);
+		}
 		
 		JPanel panelImage = new ImagePanel();
 		contentPane.add(panelImage, BorderLayout.CENTER);
@@ -66,6 +99,23 @@ public class ImageWindow extends JFrame {
 		}
 	}
 	
+	/**
+	 * Shows a newer image of the render, with its status in the title. Must be called on the event dispatch thread.
+	 */
+	public void update(BufferedImage img, String status) {
+		this.img = img;
+		setTitle(title + " - " + status);
+		repaint();
+	}
+	
+	/**
+	 * Tells the window the render of its image is over, so it can no longer be stopped.
+	 */
+	public void renderingDone() {
+		if (btnStop != null)
+			btnStop.setEnabled(false);
+	}
+	
 	private void save(File file) {
 		try {
 			ImageIO.write(img, "png", file);
@@ -3,16 +3,22 @@ package edu.cg.menu;
 import java.awt.BorderLayout;
 import java.awt.GridLayout;
 import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.swing.JButton;
 import javax.swing.JFrame;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 import javax.swing.border.EmptyBorder;
 
 import edu.cg.Logger;
 import edu.cg.menu.components.ScenesCreator;
 import edu.cg.menu.components.ScenesPicker;
+import edu.cg.scene.RenderBudget;
+import edu.cg.scene.RenderHandle;
+import edu.cg.scene.RenderResult;
 import edu.cg.scene.Scene;
 import edu.cg.menu.components.LogField;
 import edu.cg.menu.components.RenderingParametersSelector;
@@ -58,13 +64,13 @@ public class MenuWindow extends JFrame implements Logger {
 				int width = renderingParametersSelector.width();
 				int height = renderingParametersSelector.height();
 				double viewAngle = renderingParametersSelector.viewAngle();
-				BufferedImage img = scene.render(width, height, viewAngle, MenuWindow.this);
-				present(img);
+				if (renderingParametersSelector.progressive()) {
+					renderProgressive(width, height, viewAngle);
+					return;
+				}
+				render(width, height, viewAngle);
 			} catch (Exception ex) {
-				String msg = "Couldn't render " + scene.getName() + System.lineSeparator() + "Exception message: "
-						+ ex.getMessage();
-				log(msg);
-				JOptionPane.showMessageDialog(MenuWindow.this, msg, "Error", JOptionPane.ERROR_MESSAGE);
+				renderingFailed(scene, ex);
 			}
 		});
 
@@ -99,6 +105,75 @@ public class MenuWindow extends JFrame implements Logger {
 		new ImageWindow(img, scene.getName(), this).setVisible(true);
 	}
 
+	/**
+	 * Renders the scene on a background thread, so the event dispatch thread is never blocked. The image window
+	 * opens at once, and shows the image once the render is over. Its Stop button, or closing it, cancels the render.
+	 */
+	private void render(int width, int height, double viewAngle) {
+		Scene scene = this.scene;
+		// The render logs from its own thread, so the messages are passed on to the event dispatch thread.
+		Logger logger = s -> SwingUtilities.invokeLater(() -> log(s));
+		RenderHandle handle = scene.submitRender(width, height, viewAngle, logger, new RenderBudget());
+		ImageWindow window = new ImageWindow(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB),
+				scene.getName(), this, handle::cancel);
+		window.setVisible(true);
+		btnRender.setEnabled(false);
+		Thread waitingThread = new Thread(() -> {
+			try {
+				RenderResult result = handle.get();
+				SwingUtilities.invokeLater(() -> window.update(result.image, result.toString()));
+			} catch (InterruptedException | ExecutionException ex) {
+				Exception cause = ex.getCause() instanceof Exception ? (Exception) ex.getCause() : ex;
+				SwingUtilities.invokeLater(() -> renderingFailed(scene, cause));
+			} finally {
+				SwingUtilities.invokeLater(() -> {
+					window.renderingDone();
+					btnRender.setEnabled(true);
+				});
+			}
+		}, "Waiting for the render of " + scene.getName());
+		waitingThread.setDaemon(true);
+		waitingThread.start();
+	}
+
+	/**
+	 * Renders the scene progressively on a background thread, showing every pass in a new image window
+	 * until the render is done or stopped from the window.
+	 */
+	private void renderProgressive(int width, int height, double viewAngle) {
+		Scene scene = this.scene;
+		AtomicBoolean stop = new AtomicBoolean();
+		ImageWindow window = new ImageWindow(new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB),
+				scene.getName(), this, () -> stop.set(true));
+		window.setVisible(true);
+		btnRender.setEnabled(false);
+		// The render logs from its own thread, so the messages are passed on to the event dispatch thread.
+		Logger logger = s -> SwingUtilities.invokeLater(() -> log(s));
+		Thread renderThread = new Thread(() -> {
+			try {
+				scene.renderProgressive(width, height, viewAngle, logger, (frame, pass, passes) ->
+						SwingUtilities.invokeLater(() -> window.update(frame, "pass " + (pass + 1) + " of " + passes)),
+						stop);
+			} catch (Exception ex) {
+				SwingUtilities.invokeLater(() -> renderingFailed(scene, ex));
+			} finally {
+				SwingUtilities.invokeLater(() -> {
+					window.renderingDone();
+					btnRender.setEnabled(true);
+				});
+			}
+		}, "Progressive render of " + scene.getName());
+		renderThread.setDaemon(true);
+		renderThread.start();
+	}
+
+	private void renderingFailed(Scene scene, Exception ex) {
+		String msg = "Couldn't render " + scene.getName() + System.lineSeparator() + "Exception message: "
+				+ ex.getMessage();
+		log(msg);
+		JOptionPane.showMessageDialog(this, msg, "Error", JOptionPane.ERROR_MESSAGE);
+	}
+
 	// MARK: Logger
 	@Override
 	public void log(String s) {
@@ -0,0 +1,262 @@
+package edu.cg.menu;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonReader;
+
+import edu.cg.scene.Scene;
+import edu.cg.scene.acceleration.BVHCache;
+import edu.cg.scene.lightSources.Light;
+import edu.cg.scene.objects.Material;
+import edu.cg.scene.objects.MaterialKey;
+import edu.cg.scene.objects.Shape;
+import edu.cg.scene.objects.Surface;
+
+/**
+ * Loads scenes saved in the GsonMaker format by streaming through the JSON, so a scene of hundreds of
+ * thousands of surfaces is never held in memory as text or as a JSON tree. Every surface is read straight
+ * from the stream and added to the scene.
+ * Every surface gets a Material of its own, as in the JSON, unless the loader is set to share materials
+ * (see initShareMaterials), which is meant for scenes which are rendered but not edited.
+ * The classes of the shapes and light sources are resolved once per class name, and the reading of each
+ * class is cached, so the elements are read without any reflective lookups.
+ * Only subclasses of Shape and Light are accepted as shapes and light sources.
+ * A loader may load several scenes, one at a time. After every load it tells how fast it was (see toString).
+ * Scenes loaded from files keep their BVH in a file next to theirs (see BVHCache), so it is built only once.
+ */
+public class SceneLoader {
+	private static final int BUFFER_SIZE = 1 << 16;
+	// The readers of the shape and light source classes by class name.
+	private static final Map<String, TypeAdapter<?>> ADAPTERS = new ConcurrentHashMap<>();
+
+	private final Gson gson = GsonMaker.getInstance();
+	private boolean shareMaterials = false;
+	// The first of every distinct material of the scene being loaded.
+	private final Map<MaterialKey, Material> materials = new HashMap<>();
+	private long numSurfaces;
+	private long numLights;
+	private int numMaterials;
+	private long bytes;
+	private long loadTime;
+
+	/**
+	 * Sets whether surfaces with equal materials share a single Material (by default they don't).
+	 * Sharing keeps large scenes with few distinct materials compact, but then editing the material of one
+	 * surface changes the material of all the surfaces which share it. The compiled scenes renders use are
+	 * compact either way (see CompiledScene), so only loaders of scenes which are not edited should share.
+	 */
+	public SceneLoader initShareMaterials(boolean shareMaterials) {
+		this.shareMaterials = shareMaterials;
+		return this;
+	}
+
+	/**
+	 * Loads a scene from a file, in JSON or in the binary format (see BinarySceneFormat), whichever it holds.
+	 */
+	public Scene load(Path file) throws IOException {
+		if (!BinarySceneFormat.isBinary(file)) {
+			try (InputStream in = Files.newInputStream(file)) {
+				return load(in).initBvhCacheFile(BVHCache.sidecarOf(file));
+			}
+		}
+		long start = System.nanoTime();
+		Scene scene = BinarySceneFormat.read(file, shareMaterials);
+		numSurfaces = scene.getSurfaces().size();
+		numLights = scene.getLightSources().size();
+		Set<MaterialKey> distinct = new HashSet<>();
+		for (Surface surface : scene.getSurfaces())
+			if (surface.material() != null)
+				distinct.add(new MaterialKey(surface.material()));
+		numMaterials = distinct.size();
+		bytes = Files.size(file);
+		loadTime = System.nanoTime() - start;
+		return scene.initBvhCacheFile(BVHCache.sidecarOf(file));
+	}
+
+	/**
+	 * Loads a scene from the stream, which is left open.
+	 * @throws JsonParseException if the stream does not hold a scene.
+	 */
+	public Scene load(InputStream in) throws IOException {
+		long start = System.nanoTime();
+		CountingInputStream counted = new CountingInputStream(new BufferedInputStream(in, BUFFER_SIZE));
+		JsonReader reader = new JsonReader(new InputStreamReader(counted, StandardCharsets.UTF_8));
+		// Everything but the surfaces and light sources is small, and is read as a tree and then as a scene.
+		JsonObject fields = new JsonObject();
+		List<Surface> surfaces = new ArrayList<>();
+		List<Light> lights = new ArrayList<>();
+		try {
+			reader.beginObject();
+			while (reader.hasNext()) {
+				String name = reader.nextName();
+				if (name.equals("surfaces")) {
+					reader.beginArray();
+					while (reader.hasNext())
+						surfaces.add(readSurface(reader));
+					reader.endArray();
+				} else if (name.equals("lightSources")) {
+					reader.beginArray();
+					while (reader.hasNext())
+						lights.add(readElement(reader, Light.class));
+					reader.endArray();
+				} else {
+					fields.add(name, JsonParser.parseReader(reader));
+				}
+			}
+			reader.endObject();
+		} catch (IllegalStateException e) {
+			throw new JsonParseException(e.getMessage(), e);
+		}
+		Scene scene = gson.fromJson(fields, Scene.class);
+		for (Surface surface : surfaces)
+			scene.addSurface(surface);
+		for (Light light : lights)
+			scene.addLightSource(light);
+		numSurfaces = surfaces.size();
+		numLights = lights.size();
+		numMaterials = materials.size();
+		materials.clear();
+		bytes = counted.count;
+		loadTime = System.nanoTime() - start;
+		return scene;
+	}
+
+	private Surface readSurface(JsonReader reader) throws IOException {
+		Shape shape = null;
+		Material material = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			switch (reader.nextName()) {
+			case "shape":
+				shape = readElement(reader, Shape.class);
+				break;
+			case "material":
+				material = intern(gson.getAdapter(Material.class).read(reader));
+				break;
+			default:
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		return new Surface(shape, material);
+	}
+
+	/**
+	 * Reads an element written by GsonMaker: the name of its class and then its data.
+	 */
+	private <T> T readElement(JsonReader reader, Class<T> base) throws IOException {
+		TypeAdapter<? extends T> adapter = null;
+		JsonElement data = null;
+		T element = null;
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
+			if (name.equals(GsonMaker.CLASSNAME)) {
+				adapter = adapter(reader.nextString(), base);
+			} else if (name.equals(GsonMaker.DATA)) {
+				// The data is streamed when its class is already known, as it is in the files GsonMaker writes.
+				if (adapter != null)
+					element = adapter.read(reader);
+				else
+					data = JsonParser.parseReader(reader);
+			} else {
+				reader.skipValue();
+			}
+		}
+		reader.endObject();
+		if (adapter == null)
+			throw new JsonParseException("An element of type " + base.getSimpleName() + " has no " + GsonMaker.CLASSNAME);
+		return data != null ? adapter.fromJsonTree(data) : element;
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> TypeAdapter<? extends T> adapter(String className, Class<T> base) {
+		Class<?> klass = GsonMaker.classOf(className);
+		if (!base.isAssignableFrom(klass))
+			throw new JsonParseException(className + " is not a " + base.getSimpleName());
+		return (TypeAdapter<? extends T>) ADAPTERS.computeIfAbsent(className, name -> gson.getAdapter(klass));
+	}
+
+	// The first of the equal materials loaded so far, if materials are shared. All of them are counted.
+	private Material intern(Material material) {
+		if (material == null)
+			return null;
+		Material first = materials.computeIfAbsent(new MaterialKey(material), key -> material);
+		return shareMaterials ? first : material;
+	}
+
+	public long getNumSurfaces() {
+		return numSurfaces;
+	}
+
+	public long getNumLights() {
+		return numLights;
+	}
+
+	/**
+	 * @return the number of distinct materials of the last scene loaded.
+	 */
+	public int getNumMaterials() {
+		return numMaterials;
+	}
+
+	public long getBytes() {
+		return bytes;
+	}
+
+	public long getLoadTime() {
+		return loadTime;
+	}
+
+	@Override
+	public String toString() {
+		double seconds = Math.max(loadTime, 1) / 1e9;
+		return String.format("Loaded %d surfaces (%d distinct materials) and %d light sources from %.1f MB in %d ms " +
+				"(%.1f MB/s, %.0f surfaces/s)", numSurfaces, numMaterials, numLights, bytes / 1e6,
+				loadTime / 1000000, bytes / 1e6 / seconds, numSurfaces / seconds);
+	}
+
+	private static final class CountingInputStream extends FilterInputStream {
+		long count = 0;
+
+		CountingInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0)
+				++count;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int n = super.read(b, off, len);
+			if (n > 0)
+				count += n;
+			return n;
+		}
+	}
+}
@@ -27,10 +27,15 @@ public class RenderingParametersSelector extends JPanel {
 	private Checkbox x1;
 	private Checkbox x4;
 	private Checkbox x9;
+	private Checkbox adaptive;
 	
 	private Checkbox reflection;
 	private Checkbox refraction;
 	
+	private JFormattedTextField terminationThreshold;
+	private Checkbox russianRoulette;
+	private Checkbox progressive;
+	
 	public RenderingParametersSelector() {
 		super();
 		
@@ -64,6 +69,10 @@ public class RenderingParametersSelector extends JPanel {
 		panel1.add(x4);
 		panel1.add(x9);
 		
+		adaptive = new Checkbox("adaptive");
+		adaptive.setFont(myFont);
+		panel1.add(adaptive);
+		
 		
 		JPanel panel2 = new JPanel();
 		panel2.setBorder(new EtchedBorder(EtchedBorder.LOWERED, null, null));
@@ -87,6 +96,27 @@ public class RenderingParametersSelector extends JPanel {
 		panel2.add(reflection);
 		
 		panel2.add(refraction);
+		
+		
+		JPanel panel3 = new JPanel();
+		panel3.setBorder(new EtchedBorder(EtchedBorder.LOWERED, null, null));
+		panel3.setLayout(new FlowLayout(FlowLayout.CENTER, 5, 5));
+		add(panel3);
+		
+		terminationThreshold = addAndGetTextField(" Ray termination threshold:", 0.0, panel3);
+		terminationThreshold.setColumns(4);
+		
+		panel3.add(new JLabel("   "));
+		
+		russianRoulette = new Checkbox("Russian roulette");
+		russianRoulette.setFont(myFont);
+		panel3.add(russianRoulette);
+		
+		panel3.add(new JLabel("   "));
+		
+		progressive = new Checkbox("Progressive preview");
+		progressive.setFont(myFont);
+		panel3.add(progressive);
 	}
 	
 	private JFormattedTextField addAndGetTextField(String label, int value, JPanel panel) {
@@ -136,6 +166,13 @@ public class RenderingParametersSelector extends JPanel {
 		return ans;
 	}
 
+	/**
+	 * @return whether the scene should be rendered progressively, in a window which shows every pass.
+	 */
+	public boolean progressive() {
+		return progressive.getState();
+	}
+
 	public void setWidth(int width) {
 		this.width.setValue(width);
 	}
@@ -168,9 +205,21 @@ public class RenderingParametersSelector extends JPanel {
 			scene.initAntiAliasingFactor(4);
 		else
 			scene.initAntiAliasingFactor(9);
+		scene.initAdaptiveSampling(adaptive.getState());
 
+		try {
+			double terminationThreshold = ((Number)this.terminationThreshold.getValue()).doubleValue();
+			scene.initTerminationThreshold(terminationThreshold);
+		} catch (Exception ex) {
+			String msg = "Ray termination threshold must be a number in the range [0, 1).";
+			menuWindow.log(msg);
+			JOptionPane.showMessageDialog(menuWindow, msg, "Error", JOptionPane.ERROR_MESSAGE);
+			return false;
+		}
+		
 		scene.initRenderRefractions(refraction.getState())
-		.initRenderReflections(reflection.getState());
+		.initRenderReflections(reflection.getState())
+		.initRussianRoulette(russianRoulette.getState());
 		
 		return true;
 	}
@@ -187,9 +236,12 @@ public class RenderingParametersSelector extends JPanel {
 			x9.setState(true);
 			break;
 		}
+		adaptive.setState(scene.getAdaptiveSampling());
 		
 		recursionLevel.setValue(scene.getMaxRecursionLevel());
 		refraction.setState(scene.getRenderRefractions());
 		reflection.setState(scene.getRenderReflections());
+		terminationThreshold.setValue(scene.getTerminationThreshold());
+		russianRoulette.setState(scene.getRussianRoulette());
 	}
 }
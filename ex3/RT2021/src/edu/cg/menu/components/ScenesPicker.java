@@ -1,6 +1,5 @@
 package edu.cg.menu.components;
 
-import java.nio.file.Files;
 import java.nio.file.Paths;
 
 import javax.swing.BoxLayout;
@@ -10,11 +9,11 @@ import javax.swing.JOptionPane;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
 import javax.swing.border.EtchedBorder;
+import javax.swing.filechooser.FileNameExtensionFilter;
 
-import com.google.gson.Gson;
-
-import edu.cg.menu.GsonMaker;
+import edu.cg.menu.BinarySceneFormat;
 import edu.cg.menu.MenuWindow;
+import edu.cg.menu.SceneLoader;
 import edu.cg.scene.Scene;
 
 @SuppressWarnings("serial")
@@ -40,6 +39,8 @@ public class ScenesPicker extends JPanel {
 		JButton btnBrowse = new JButton("Browse scene...");
 		btnBrowse.addActionListener(e -> {
 			JFileChooser fileChooser = new JFileChooser("scenes");
+			fileChooser.setFileFilter(new FileNameExtensionFilter("Scenes (*.json, *" + BinarySceneFormat.EXTENSION + ")",
+					"json", BinarySceneFormat.EXTENSION.substring(1)));
 			int ret = fileChooser.showOpenDialog(menuWindow);
 			if (ret == JFileChooser.APPROVE_OPTION)
 				open(fileChooser.getSelectedFile().getPath());
@@ -51,9 +52,9 @@ public class ScenesPicker extends JPanel {
 	public void open(String filename) {
 		txtFilename.setText(filename);
 		try {
-			Gson gson = GsonMaker.getInstance();	
-			String scene1Json = new String(Files.readAllBytes(Paths.get(filename)));
-			Scene scene = gson.fromJson(scene1Json, Scene.class);
+			SceneLoader loader = new SceneLoader();
+			Scene scene = loader.load(Paths.get(filename));
+			menuWindow.log(loader.toString());
 			menuWindow.setScene(scene);
 		} catch(Exception e) {
 			String msg = "Can't open scene!";
@@ -0,0 +1,102 @@
+package edu.cg.scene;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import edu.cg.algebra.Vec;
+import edu.cg.scene.acceleration.BVH;
+import edu.cg.scene.acceleration.BVHCache;
+import edu.cg.scene.acceleration.PlaneBuffer;
+import edu.cg.scene.acceleration.SphereBuffer;
+import edu.cg.scene.lightSources.Light;
+import edu.cg.scene.objects.Material;
+import edu.cg.scene.objects.MaterialKey;
+import edu.cg.scene.objects.Plain;
+import edu.cg.scene.objects.Surface;
+
+/**
+ * An immutable snapshot of the content of a scene, compiled for rendering (see Scene.compile).
+ * The surfaces and light sources are compiled copies kept in arrays, with everything they derive from their
+ * parameters (normalized vectors, plain normals, squared radii, cosines of cutoff angles) already computed,
+ * and the acceleration structures are built over them. Nothing in the snapshot changes or is initialized
+ * lazily after it is built, so any number of threads render from it without locks.
+ * The BVH is loaded from a BVHCache file instead of being built, if the scene has one.
+ * Later changes to the scene, its surfaces or its light sources do not reach the snapshot.
+ */
+public final class CompiledScene {
+	final Vec ambient;
+	final Vec backgroundColor;
+	// In the order they were added to the scene.
+	final Surface[] surfaces;
+	final Light[] lights;
+
+	// The bounded surfaces are kept in a BVH, while unbounded ones are tested one by one.
+	// Plains are packed into a PlaneBuffer, so they are tested without going through their surfaces.
+	final BVH bvh;
+	final PlaneBuffer plains;
+	final Surface[] plainSurfaces;
+	final Surface[] unboundedSurfaces;
+	final long buildTime;
+
+	CompiledScene(Vec ambient, Vec backgroundColor, List<Surface> sceneSurfaces, List<Light> sceneLights,
+			Path bvhCacheFile) {
+		long start = System.nanoTime();
+		this.ambient = new Vec(ambient);
+		this.backgroundColor = new Vec(backgroundColor);
+		surfaces = new Surface[sceneSurfaces.size()];
+		// Surfaces with equal materials share a single copy, which keeps large scenes compact. The copies are
+		// never changed, so sharing them is safe even when the materials of the scene are separate objects.
+		Map<Material, Material> materials = new IdentityHashMap<>();
+		Map<MaterialKey, Material> distinct = new HashMap<>();
+		for (Surface surface : sceneSurfaces) {
+			Material material = surface.material();
+			if (material != null && !materials.containsKey(material))
+				materials.put(material, distinct.computeIfAbsent(new MaterialKey(material), key -> material.copy()));
+		}
+		int i = 0;
+		for (Surface surface : sceneSurfaces)
+			surfaces[i++] = surface.compile(materials);
+		lights = new Light[sceneLights.size()];
+		i = 0;
+		for (Light light : sceneLights)
+			lights[i++] = light.compile();
+
+		List<Surface> boundedSurfaces = new ArrayList<>();
+		List<Surface> plainList = new ArrayList<>();
+		List<Surface> unboundedList = new ArrayList<>();
+		for (Surface surface : surfaces) {
+			if (surface.bounds() != null)
+				boundedSurfaces.add(surface);
+			else if (surface.shape() instanceof Plain)
+				plainList.add(surface);
+			else
+				unboundedList.add(surface);
+		}
+		bvh = bvhCacheFile != null ? BVHCache.get(boundedSurfaces, bvhCacheFile) : new BVH(boundedSurfaces);
+		plainSurfaces = plainList.toArray(new Surface[0]);
+		unboundedSurfaces = unboundedList.toArray(new Surface[0]);
+		plains = new PlaneBuffer(plainSurfaces.length);
+		for (i = 0; i < plainSurfaces.length; ++i)
+			plains.set(i, (Plain) plainSurfaces[i].shape());
+		buildTime = System.nanoTime() - start;
+	}
+
+	public int numSurfaces() {
+		return surfaces.length;
+	}
+
+	public int numLights() {
+		return lights.length;
+	}
+
+	@Override
+	public String toString() {
+		return surfaces.length + " surfaces and " + lights.length + " light sources, " + bvh + " (" +
+				(plainSurfaces.length + unboundedSurfaces.length) + " unbounded surfaces), " + SphereBuffer.kernels() +
+				" intersection kernels";
+	}
+}
@@ -0,0 +1,155 @@
+package edu.cg.scene;
+
+import edu.cg.algebra.Hit;
+import edu.cg.algebra.MutableRay;
+import edu.cg.algebra.Point;
+import edu.cg.algebra.Ray;
+import edu.cg.algebra.Vec;
+import edu.cg.scene.objects.Surface;
+
+/**
+ * What the primary rays of a render hit, kept per pixel sample: the surface (by its index in the scene),
+ * the distance along the ray, the normal and whether the hit was within the surface, and the direction of
+ * the ray. The hitting point is the camera position plus the distance times the direction, as the renderer
+ * finds it.
+ * A scene can re-shade the render from its G-buffer (see Scene.reshade) after its light sources or materials
+ * have changed, tracing only shadow rays and secondary rays. The surfaces and the camera must not change.
+ * Every pixel keeps the samples it got in the render, up to the anti aliasing factor.
+ */
+public final class GBuffer {
+	// The surface index of samples which missed all surfaces.
+	public static final int BACKGROUND = -1;
+
+	final int width;
+	final int height;
+	final double planeWidth;
+	final int maxSamples;
+	final int numSurfaces;
+	final Point cameraPosition;
+
+	// The number of samples of every pixel.
+	final int[] samples;
+	// The slot of the sample-th sample of a pixel is pixel * maxSamples + sample.
+	final int[] surfaces;
+	final boolean[] within;
+	final double[] t;
+	final double[] nx, ny, nz;
+	final double[] dx, dy, dz;
+
+	GBuffer(int width, int height, double planeWidth, int maxSamples, int numSurfaces, Point cameraPosition) {
+		this.width = width;
+		this.height = height;
+		this.planeWidth = planeWidth;
+		this.maxSamples = maxSamples;
+		this.numSurfaces = numSurfaces;
+		this.cameraPosition = new Point(cameraPosition.x, cameraPosition.y, cameraPosition.z);
+		int numPixels = width * height;
+		int numSlots = numPixels * maxSamples;
+		samples = new int[numPixels];
+		surfaces = new int[numSlots];
+		within = new boolean[numSlots];
+		t = new double[numSlots];
+		nx = new double[numSlots];
+		ny = new double[numSlots];
+		nz = new double[numSlots];
+		dx = new double[numSlots];
+		dy = new double[numSlots];
+		dz = new double[numSlots];
+	}
+
+	/**
+	 * Keeps the sample-th sample of the pixel (x, y), which went along the ray and hit the surface
+	 * with the given index (or nothing, if hit is null).
+	 * Samples of different pixels may be kept by different threads at once.
+	 */
+	void set(int x, int y, int sample, Ray ray, Hit hit, int surface) {
+		int pixel = y * width + x;
+		int slot = pixel * maxSamples + sample;
+		samples[pixel] = Math.max(samples[pixel], sample + 1);
+		Vec direction = ray.direction();
+		dx[slot] = direction.x;
+		dy[slot] = direction.y;
+		dz[slot] = direction.z;
+		if (hit == null) {
+			surfaces[slot] = BACKGROUND;
+			return;
+		}
+		Vec normal = hit.getNormalToSurface();
+		surfaces[slot] = surface;
+		within[slot] = hit.isWithinTheSurface();
+		t[slot] = hit.t();
+		nx[slot] = normal.x;
+		ny[slot] = normal.y;
+		nz[slot] = normal.z;
+	}
+
+	/**
+	 * Sets the ray to the sample-th primary ray of the pixel.
+	 * @return ray
+	 */
+	MutableRay ray(int pixel, int sample, MutableRay ray, Vec direction) {
+		int slot = pixel * maxSamples + sample;
+		return ray.set(cameraPosition, direction.set(dx[slot], dy[slot], dz[slot]));
+	}
+
+	/**
+	 * @return the hit of the sample-th primary ray of the pixel on the given surfaces, or null if it hit nothing.
+	 */
+	Hit hit(int pixel, int sample, Surface[] sceneSurfaces) {
+		int slot = pixel * maxSamples + sample;
+		if (surfaces[slot] == BACKGROUND)
+			return null;
+		Hit hit = new Hit(t[slot], new Vec(nx[slot], ny[slot], nz[slot])).setIsWithin(within[slot]);
+		hit.setSurface(sceneSurfaces[surfaces[slot]]);
+		return hit;
+	}
+
+	public int getWidth() {
+		return width;
+	}
+
+	public int getHeight() {
+		return height;
+	}
+
+	public int getSamples(int x, int y) {
+		return samples[y * width + x];
+	}
+
+	/**
+	 * @return the index in the scene of the surface the sample-th primary ray of the pixel (x, y) hit,
+	 * or BACKGROUND if it hit nothing.
+	 */
+	public int getSurface(int x, int y, int sample) {
+		return surfaces[slot(x, y, sample)];
+	}
+
+	/**
+	 * @return the distance along the sample-th primary ray of the pixel (x, y) to the surface it hit.
+	 */
+	public double getT(int x, int y, int sample) {
+		return t[slot(x, y, sample)];
+	}
+
+	public Vec getNormal(int x, int y, int sample) {
+		int slot = slot(x, y, sample);
+		return new Vec(nx[slot], ny[slot], nz[slot]);
+	}
+
+	public Vec getViewDirection(int x, int y, int sample) {
+		int slot = slot(x, y, sample);
+		return new Vec(dx[slot], dy[slot], dz[slot]);
+	}
+
+	public Point getHitPoint(int x, int y, int sample) {
+		int slot = slot(x, y, sample);
+		return cameraPosition.add(t[slot], new Vec(dx[slot], dy[slot], dz[slot]), new Point());
+	}
+
+	private int slot(int x, int y, int sample) {
+		int pixel = y * width + x;
+		if (sample < 0 || sample >= samples[pixel])
+			throw new IndexOutOfBoundsException("Pixel (" + x + ", " + y + ") has " + samples[pixel] + " samples.");
+		return pixel * maxSamples + sample;
+	}
+}
@@ -0,0 +1,52 @@
+package edu.cg.scene;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The limits of a render (see Scene.render(imgWidth, imgHeight, planeWidth, logger, handle)): the wall-clock
+ * time it may take from the moment its handle is created, and the rays (of all kinds) it may trace.
+ * A render which runs out of its budget stops at the next tile, and returns the tiles done so far.
+ * By default there are no limits.
+ */
+public final class RenderBudget {
+	private long timeLimitNanos = Long.MAX_VALUE;
+	private long rayLimit = Long.MAX_VALUE;
+
+	public RenderBudget initTimeLimit(long time, TimeUnit unit) {
+		if (time <= 0)
+			throw new IllegalArgumentException("Time limit must be positive.");
+		this.timeLimitNanos = unit.toNanos(time);
+		return this;
+	}
+
+	/**
+	 * Sets the number of rays the render may trace. The rays are counted per tile, so the tiles already being
+	 * rendered when the limit is reached still finish, and the render traces a few more rays than this.
+	 */
+	public RenderBudget initRayLimit(long rays) {
+		if (rays <= 0)
+			throw new IllegalArgumentException("Ray limit must be positive.");
+		this.rayLimit = rays;
+		return this;
+	}
+
+	/**
+	 * @return the time limit in nanoseconds, or Long.MAX_VALUE if there is none.
+	 */
+	public long getTimeLimitNanos() {
+		return timeLimitNanos;
+	}
+
+	/**
+	 * @return the ray limit, or Long.MAX_VALUE if there is none.
+	 */
+	public long getRayLimit() {
+		return rayLimit;
+	}
+
+	@Override
+	public String toString() {
+		return "time limit: " + (timeLimitNanos == Long.MAX_VALUE ? "none" : timeLimitNanos / 1000000 + " ms") +
+				", ray limit: " + (rayLimit == Long.MAX_VALUE ? "none" : rayLimit);
+	}
+}
@@ -0,0 +1,120 @@
+package edu.cg.scene;
+
+import java.awt.image.BufferedImage;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.cg.scene.RenderResult.Status;
+import edu.cg.scene.rendering.RenderStats;
+
+/**
+ * Controls a single render: it can be cancelled from any thread, and it stops by itself once it runs out of
+ * its budget. The workers check the handle before every tile (or band of a tile) they render, so a render
+ * stops cooperatively, and the tiles it already started are finished.
+ * A handle is passed to Scene.render(imgWidth, imgHeight, planeWidth, logger, handle), or returned by
+ * Scene.submitRender, and its result can be waited for with get.
+ * The time limit of the budget counts from the moment the handle is created.
+ */
+public final class RenderHandle {
+	private final RenderBudget budget;
+	private final long startTime = System.nanoTime();
+	private final AtomicReference<Status> stopReason = new AtomicReference<>();
+	private final LongAdder pixelsDone = new LongAdder();
+	private final CompletableFuture<RenderResult> result = new CompletableFuture<>();
+	private volatile long pixels = 0;
+
+	public RenderHandle(RenderBudget budget) {
+		this.budget = budget;
+	}
+
+	public RenderHandle() {
+		this(new RenderBudget());
+	}
+
+	/**
+	 * Stops the render at the next tile. Cancelling a render which is already done has no effect.
+	 */
+	public void cancel() {
+		stopReason.compareAndSet(null, Status.CANCELLED);
+	}
+
+	/**
+	 * @return why the render is stopping, or null while it runs.
+	 */
+	public Status getStopReason() {
+		return stopReason.get();
+	}
+
+	/**
+	 * @return the fraction of the pixels which have been rendered so far, in [0, 1].
+	 */
+	public double getCompletion() {
+		long total = pixels;
+		return total == 0 ? 0 : (double) pixelsDone.sum() / total;
+	}
+
+	public boolean isDone() {
+		return result.isDone();
+	}
+
+	/**
+	 * Waits for the render to end, whether it completed or stopped.
+	 * @throws ExecutionException if the render failed.
+	 */
+	public RenderResult get() throws InterruptedException, ExecutionException {
+		return result.get();
+	}
+
+	public RenderResult get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException,
+			TimeoutException {
+		return result.get(timeout, unit);
+	}
+
+	void start(long pixels) {
+		this.pixels = pixels;
+	}
+
+	/**
+	 * @return whether the render should stop before its next tile, because it was cancelled or ran out of time
+	 * or rays.
+	 */
+	boolean shouldStop(RenderStats stats) {
+		if (stopReason.get() != null)
+			return true;
+		if (System.nanoTime() - startTime >= budget.getTimeLimitNanos())
+			stopReason.compareAndSet(null, Status.TIME_LIMIT);
+		else if (budget.getRayLimit() != Long.MAX_VALUE && stats.getRays() >= budget.getRayLimit())
+			stopReason.compareAndSet(null, Status.RAY_LIMIT);
+		return stopReason.get() != null;
+	}
+
+	boolean allPixelsDone() {
+		return pixelsDone.sum() == pixels;
+	}
+
+	void tileDone(int x0, int y0, int x1, int y1) {
+		pixelsDone.add((long) (x1 - x0) * (y1 - y0));
+	}
+
+	RenderResult finish(BufferedImage image, RenderStats stats) {
+		long done = pixelsDone.sum();
+		// A render cancelled after its last tile has still completed.
+		Status status = done == pixels ? Status.COMPLETED : stopReason.get();
+		RenderResult renderResult = new RenderResult(image, status, done, pixels, stats, System.nanoTime() - startTime);
+		result.complete(renderResult);
+		return renderResult;
+	}
+
+	RenderResult finishFromCache(BufferedImage image) {
+		pixelsDone.add(pixels - pixelsDone.sum());
+		return finish(image, null);
+	}
+
+	void fail(Throwable t) {
+		result.completeExceptionally(t);
+	}
+}
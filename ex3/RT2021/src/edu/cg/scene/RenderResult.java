@@ -0,0 +1,57 @@
+package edu.cg.scene;
+
+import java.awt.image.BufferedImage;
+
+import edu.cg.scene.rendering.RenderStats;
+
+/**
+ * The outcome of a render which may have been stopped (see RenderHandle): the image, why the render ended,
+ * and how much of the image was rendered. The pixels of the tiles which were not rendered are black.
+ */
+public final class RenderResult {
+	public enum Status {
+		// Every pixel was rendered.
+		COMPLETED,
+		// The render was cancelled through its handle.
+		CANCELLED,
+		// The render ran out of its time limit.
+		TIME_LIMIT,
+		// The render ran out of its ray limit.
+		RAY_LIMIT
+	}
+
+	public final BufferedImage image;
+	public final Status status;
+	public final long pixelsDone;
+	public final long pixels;
+	// The stats of the render, or null if the image was found in the render cache.
+	public final RenderStats stats;
+	public final long elapsedNanos;
+
+	RenderResult(BufferedImage image, Status status, long pixelsDone, long pixels, RenderStats stats,
+			long elapsedNanos) {
+		this.image = image;
+		this.status = status;
+		this.pixelsDone = pixelsDone;
+		this.pixels = pixels;
+		this.stats = stats;
+		this.elapsedNanos = elapsedNanos;
+	}
+
+	public boolean isComplete() {
+		return status == Status.COMPLETED;
+	}
+
+	/**
+	 * @return the fraction of the pixels which were rendered, in [0, 1].
+	 */
+	public double completion() {
+		return pixels == 0 ? 1 : (double) pixelsDone / pixels;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s, %.1f%% of %d pixels in %d ms", status, 100 * completion(), pixels,
+				elapsedNanos / 1000000);
+	}
+}
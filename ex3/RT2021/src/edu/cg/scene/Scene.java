@@ -1,24 +1,38 @@
 package edu.cg.scene;
 
-import java.awt.Color;
 import java.awt.image.BufferedImage;
-import java.util.LinkedList;
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import edu.cg.Logger;
 import edu.cg.algebra.Hit;
+import edu.cg.algebra.MutableRay;
 import edu.cg.algebra.Ops;
 import edu.cg.algebra.Point;
 import edu.cg.algebra.Ray;
 import edu.cg.algebra.Vec;
+import edu.cg.scene.acceleration.RayPacket;
 import edu.cg.scene.camera.PinholeCamera;
 import edu.cg.scene.lightSources.Light;
-import edu.cg.scene.objects.Plain;
 import edu.cg.scene.objects.Surface;
+import edu.cg.scene.rendering.FrameListener;
+import edu.cg.scene.rendering.RegionQueue;
+import edu.cg.scene.rendering.RenderCache;
+import edu.cg.scene.rendering.RenderStats;
+import edu.cg.scene.rendering.RenderingEngine;
+import edu.cg.scene.rendering.TileScheduler;
+import edu.cg.scene.rendering.TileScheduler.TileOrder;
+import edu.cg.scene.sampling.PixelEstimates;
+import edu.cg.scene.sampling.Sampler;
 
 public class Scene {
     private String name = "scene";
@@ -26,12 +40,20 @@ public class Scene {
     private int antiAliasingFactor = 1; //gets the values of 1, 2 and 3
     private boolean renderRefractions = false;
     private boolean renderReflections = false;
+    // Secondary rays whose accumulated weight (the product of the Kr and Kt factors along their path) has a
+    // luminance below the threshold are terminated, or survive a round of Russian roulette if it is enabled.
+    private double terminationThreshold = 0;
+    private boolean russianRoulette = false;
+    // With adaptive sampling, antiAliasingFactor is the most samples a pixel gets. Pixels get more samples
+    // than the first batch only while the standard error of their mean luminance is above the tolerance.
+    private boolean adaptiveSampling = false;
+    private double adaptiveTolerance = 0.01;
 
     private PinholeCamera camera;
     private Vec ambient = new Vec(0.1, 0.1, 0.1); //white
     private Vec backgroundColor = new Vec(0, 0.5, 1); //blue sky
-    private List<Light> lightSources = new LinkedList<>();
-    private List<Surface> surfaces = new LinkedList<>();
+    private List<Light> lightSources = new ArrayList<>();
+    private List<Surface> surfaces = new ArrayList<>();
 
 
     //MARK: initializers
@@ -90,11 +112,162 @@ public class Scene {
         return this;
     }
 
+    /**
+     * Sets the luminance below which the weight of a reflected or refracted ray is too low for the ray to be traced.
+     * 0 traces every ray up to the maximal recursion level.
+     */
+    public Scene initTerminationThreshold(double terminationThreshold) {
+        if (terminationThreshold < 0 || terminationThreshold >= 1)
+            throw new IllegalArgumentException("Termination threshold must be in the range [0, 1).");
+        this.terminationThreshold = terminationThreshold;
+        return this;
+    }
+
+    /**
+     * If set, rays whose weight is below the termination threshold are not all terminated. Each one is traced
+     * with a probability proportional to its weight, and its color is scaled up accordingly, so the
+     * rendered image stays unbiased.
+     */
+    public Scene initRussianRoulette(boolean russianRoulette) {
+        this.russianRoulette = russianRoulette;
+        return this;
+    }
+
+    /**
+     * Sets whether the number of samples of a pixel adapts to its variance, up to antiAliasingFactor.
+     * Adaptive sampling works best with a low discrepancy sampler (e.g., Sampler.Type.SOBOL), whose first
+     * few samples already cover the pixel well.
+     */
+    public Scene initAdaptiveSampling(boolean adaptiveSampling) {
+        this.adaptiveSampling = adaptiveSampling;
+        return this;
+    }
+
+    /**
+     * Sets the tolerance of adaptive sampling: the standard error of the mean luminance (in [0, 1])
+     * a pixel may be left with.
+     */
+    public Scene initAdaptiveTolerance(double adaptiveTolerance) {
+        if (!(adaptiveTolerance > 0))
+            throw new IllegalArgumentException("Adaptive sampling tolerance must be positive.");
+        this.adaptiveTolerance = adaptiveTolerance;
+        return this;
+    }
+
+    /**
+     * Sets the size (in pixels) of the square tiles the image is split into while rendering.
+     */
+    public Scene initTileSize(int tileSize) {
+        if (tileSize <= 0)
+            throw new IllegalArgumentException("Tile size must be positive.");
+        this.tileSize = tileSize;
+        return this;
+    }
+
+    /**
+     * Sets the order in which the tiles are rendered.
+     */
+    public Scene initTileOrder(TileOrder tileOrder) {
+        this.tileOrder = tileOrder;
+        return this;
+    }
+
+    /**
+     * Sets the worker pool to render with. The pool is not shut down by render, so it can be reused
+     * across many renders. If no pool is given, render creates (and shuts down) a pool of its own.
+     */
+    public Scene initWorkerPool(ForkJoinPool workerPool) {
+        this.workerPool = workerPool;
+        return this;
+    }
+
+    /**
+     * Sets the size of the square packets primary rays are traced in: 2, 4 or 8 for packets of
+     * 2x2, 4x4 or 8x8 rays, or 1 to trace every primary ray on its own.
+     */
+    public Scene initPacketSize(int packetSize) {
+        if (packetSize != 1 && packetSize != 2 && packetSize != 4 && packetSize != 8)
+            throw new IllegalArgumentException("Packet size must be 1, 2, 4 or 8.");
+        this.packetSize = packetSize;
+        return this;
+    }
+
+    /**
+     * Sets a cache of rendered images. render returns the cached image of the scene if it has already been
+     * rendered with the same parameters, and caches the images it renders.
+     */
+    public Scene initRenderCache(RenderCache renderCache) {
+        this.renderCache = renderCache;
+        return this;
+    }
+
+    /**
+     * Sets a file to keep the BVH of the scene in (see BVHCache), or null to build it on every render.
+     * The BVH is loaded from the file if it was built over the same surfaces, and otherwise built and saved.
+     * Scenes loaded from files keep their BVH next to the file (see SceneLoader).
+     */
+    public Scene initBvhCacheFile(Path bvhCacheFile) {
+        this.bvhCacheFile = bvhCacheFile;
+        return this;
+    }
+
+    /**
+     * Sets whether render keeps a G-buffer of what the primary rays hit, from which the scene can be
+     * re-shaded (see reshade) after its light sources or materials change.
+     */
+    public Scene initGBuffer(boolean captureGBuffer) {
+        this.captureGBuffer = captureGBuffer;
+        return this;
+    }
+
+    /**
+     * Sets the engine to render with: RECURSIVE traces every pixel sample on its own, while WAVEFRONT traces
+     * the rays of a whole tile stage by stage. Both give the same image.
+     */
+    public Scene initRenderingEngine(RenderingEngine renderingEngine) {
+        if (renderingEngine == null)
+            throw new IllegalArgumentException("Rendering engine must not be null.");
+        this.renderingEngine = renderingEngine;
+        return this;
+    }
+
+    /**
+     * Sets the way the samples of a pixel are placed within it when the anti aliasing factor is above 1.
+     */
+    public Scene initSampler(Sampler.Type samplerType) {
+        if (samplerType == null)
+            throw new IllegalArgumentException("Sampler type must not be null.");
+        this.samplerType = samplerType;
+        return this;
+    }
+
+    /**
+     * Sets the seed of the sampler. Renders with the same seed place their samples at the same positions.
+     */
+    public Scene initSamplerSeed(long samplerSeed) {
+        this.samplerSeed = samplerSeed;
+        return this;
+    }
+
     //MARK: getters
     public String getName() {
         return name;
     }
 
+    /**
+     * @return the surfaces of the scene, in the order they were added, as a read-only view.
+     */
+    public List<Surface> getSurfaces() {
+        return Collections.unmodifiableList(surfaces);
+    }
+
+    /**
+     * @return the light sources of the scene, in the order they were added, as a read-only view.
+     */
+    public List<Light> getLightSources() {
+        return Collections.unmodifiableList(lightSources);
+    }
+
     public int getFactor() {
         return antiAliasingFactor;
     }
@@ -111,6 +284,49 @@ public class Scene {
         return renderReflections;
     }
 
+    public double getTerminationThreshold() {
+        return terminationThreshold;
+    }
+
+    public boolean getRussianRoulette() {
+        return russianRoulette;
+    }
+
+    public boolean getAdaptiveSampling() {
+        return adaptiveSampling;
+    }
+
+    public double getAdaptiveTolerance() {
+        return adaptiveTolerance;
+    }
+
+    public RenderingEngine getRenderingEngine() {
+        return renderingEngine;
+    }
+
+    public Sampler.Type getSampler() {
+        return samplerType;
+    }
+
+    public long getSamplerSeed() {
+        return samplerSeed;
+    }
+
+    /**
+     * @return the G-buffer of the last render which kept one, or null.
+     */
+    public GBuffer getGBuffer() {
+        return gBuffer;
+    }
+
+    /**
+     * @return what the last render (or re-shade) of the scene traced and how long it took, or null before
+     * the first one. While a render runs, these are the stats of its tiles done so far.
+     */
+    public RenderStats getRenderStats() {
+        return renderStats;
+    }
+
     @Override
     public String toString() {
         String endl = System.lineSeparator();
@@ -118,196 +334,837 @@ public class Scene {
                 "Ambient: " + ambient + endl +
                 "Background Color: " + backgroundColor + endl +
                 "Max recursion level: " + maxRecursionLevel + endl +
-                "Anti aliasing factor: " + antiAliasingFactor + endl +
+                "Anti aliasing factor: " + antiAliasingFactor +
+                (adaptiveSampling ? " (adaptive, tolerance " + adaptiveTolerance + ")" : "") + endl +
+                "Termination threshold: " + terminationThreshold + (russianRoulette ? " (Russian roulette)" : "") + endl +
                 "Light sources:" + endl + lightSources + endl +
                 "Surfaces:" + endl + surfaces;
     }
 
-    private transient ExecutorService executor = null;
+    // The state of the current render is kept in the transient fields below. A scene renders one image at a time:
+    // render, renderProgressive and reshade are synchronized on the scene, so a render which starts while another
+    // one runs waits for it to finish instead of overwriting its state.
+    private transient ForkJoinPool executor = null;
     private transient Logger logger = null;
 
-    // TODO: add your fields here with the transient keyword
-    //  for example - private transient Object myField = null;
+    // Rendering settings - these are not part of the scene description.
+    private transient int tileSize = 16;
+    private transient TileOrder tileOrder = TileOrder.HILBERT;
+    private transient ForkJoinPool workerPool = null;
+    private transient int packetSize = 8;
+    private transient RenderingEngine renderingEngine = RenderingEngine.RECURSIVE;
+    private transient Sampler.Type samplerType = Sampler.Type.STRATIFIED;
+    private transient long samplerSeed = 0;
+    private transient RenderCache renderCache = null;
+    private transient Path bvhCacheFile = null;
+    private transient boolean captureGBuffer = false;
+    private transient GBuffer gBuffer = null;
+    private transient RenderStats renderStats = null;
+    // The handle of the current render, which may stop it before every tile, if it has one.
+    private transient RenderHandle handle = null;
+
+    // The snapshot of the scene the current render runs against.
+    private transient CompiledScene compiled = null;
+
+    // With adaptive sampling every pixel gets at least this many samples, from which its variance is estimated.
+    // Fewer samples too often agree with each other on pixels an edge crosses, which then stop too early.
+    private static final int ADAPTIVE_FIRST_BATCH = 4;
+    // The number of pixels which got every number of samples, counted while rendering with adaptive sampling.
+    private transient AtomicLongArray sampleDistribution = null;
+    private transient TileScheduler scheduler = null;
+    private transient WavefrontRenderer wavefrontRenderer = null;
+    // The G-buffer of the current render, and the indices of the surfaces it keeps.
+    private transient GBuffer capturedGBuffer = null;
+    private transient IdentityHashMap<Surface, Integer> surfaceIndices = null;
 
 
     private void initSomeFields(int imgWidth, int imgHeight, double planeWidth, Logger logger) {
         this.logger = logger;
-        // TODO: initialize your fields that you added to this class here.
-        //      Make sure your fields are declared with the transient keyword
+        compiled = compile();
+        this.logger.log("Compiled " + compiled + " in " + compiled.buildTime / 1000000 + " ms.");
+        renderStats = new RenderStats(name);
+        renderStats.addPhase(RenderStats.Phase.COMPILE, compiled.buildTime);
+    }
+
+    /**
+     * Compiles the scene into an immutable snapshot to render from: compiled copies of its surfaces and light
+     * sources, and the acceleration structures over them. Every render compiles the scene when it starts, so
+     * changes made to the scene between renders are always rendered.
+     */
+    public CompiledScene compile() {
+        return new CompiledScene(ambient, backgroundColor, surfaces, lightSources, bvhCacheFile);
     }
 
 
     public BufferedImage render(int imgWidth, int imgHeight, double planeWidth, Logger logger)
             throws InterruptedException, ExecutionException, IllegalArgumentException {
+        return render(imgWidth, imgHeight, planeWidth, logger, new RenderHandle()).image;
+    }
+
+    /**
+     * Renders the image until it is done, or until the render is cancelled through the handle or runs out of
+     * its budget. A stopped render finishes the tiles it started and skips the rest, whose pixels stay black.
+     * The result is handed to the handle as well, for other threads waiting on it.
+     * Only complete images are put in the render cache, and only complete renders keep a G-buffer.
+     * A render which starts while another render of the scene runs waits for it. The time it waits counts
+     * towards its time limit, which counts from the moment the handle is created.
+     */
+    public synchronized RenderResult render(int imgWidth, int imgHeight, double planeWidth, Logger logger,
+            RenderHandle handle) {
+        handle.start((long) imgWidth * imgHeight);
+        try {
+            String cacheKey = null;
+            if (renderCache != null) {
+                cacheKey = renderCache.key(this, imgWidth, imgHeight, planeWidth);
+                BufferedImage cached = renderCache.get(cacheKey);
+                if (cached != null) {
+                    logger.log("Found " + name + " in the render cache, " + renderCache.getHits() + " hits so far.");
+                    return handle.finishFromCache(cached);
+                }
+            }
 
+            BufferedImage img = new BufferedImage(imgWidth, imgHeight, BufferedImage.TYPE_INT_RGB);
+            // The tiles write straight into the raster of the image.
+            int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+            startRendering(imgWidth, imgHeight, planeWidth, logger);
+            this.handle = handle;
+            try {
+                renderRegion(0, 0, imgWidth, imgHeight, pixels);
+            } finally {
+                finishRendering(imgWidth * imgHeight);
+            }
+            RenderResult result = handle.finish(img, renderStats);
+            if (renderCache != null && result.isComplete()) {
+                try {
+                    renderCache.put(cacheKey, img);
+                } catch (IOException e) {
+                    logger.log("Couldn't store " + name + " in the render cache: " + e.getMessage());
+                }
+            }
+            return result;
+        } catch (RuntimeException | Error e) {
+            handle.fail(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Starts rendering the image within the budget on a thread of its own, and returns at once.
+     * Renders submitted to the same scene run one after the other; a render may be cancelled while it waits.
+     * @return the handle to cancel the render with, or to wait for its result.
+     */
+    public RenderHandle submitRender(int imgWidth, int imgHeight, double planeWidth, Logger logger,
+            RenderBudget budget) {
+        RenderHandle handle = new RenderHandle(budget);
+        Thread thread = new Thread(() -> {
+            try {
+                render(imgWidth, imgHeight, planeWidth, logger, handle);
+            } catch (RuntimeException | Error e) {
+                // The handle has already failed with it.
+            }
+        }, "Render of " + name);
+        thread.setDaemon(true);
+        thread.start();
+        return handle;
+    }
+
+    /**
+     * Renders an image region by region, taking the regions from the queue and handing their pixels back to it
+     * until it runs out of regions. Every region gets exactly the pixels render(imgWidth, imgHeight, planeWidth,
+     * logger) would give it, while the acceleration structures are built only once for all of them.
+     * This lets an image be split between several processes (see edu.cg.distributed).
+     */
+    public synchronized void render(int imgWidth, int imgHeight, double planeWidth, Logger logger,
+            RegionQueue regions) throws IOException {
+        startRendering(imgWidth, imgHeight, planeWidth, logger);
+        long numPixels = 0;
+        try {
+            for (int[] region = regions.next(); region != null; region = regions.next()) {
+                int[] pixels = new int[(region[2] - region[0]) * (region[3] - region[1])];
+                renderRegion(region[0], region[1], region[2], region[3], pixels);
+                regions.done(region, pixels);
+                numPixels += pixels.length;
+            }
+        } finally {
+            finishRendering(numPixels);
+        }
+    }
+
+    /**
+     * Renders the image progressively, so a preview is seen long before the render is done. The first pass is
+     * coarse: a single sample of one pixel in every PROGRESSIVE_BLOCK x PROGRESSIVE_BLOCK block, which fills the
+     * whole block. The second pass gives every other pixel its first sample, and every further pass adds another
+     * sample to every pixel, up to the anti aliasing factor. The samples are accumulated in a float framebuffer,
+     * and the image resolved from it is handed to the listener after every pass, on the calling thread.
+     * Once stop is set the render stops at the next tile, and the image of the samples traced so far is returned.
+     * The passes are traced by the recursive engine, and neither adaptive sampling, the G-buffer nor the render
+     * cache are used.
+     */
+    public synchronized BufferedImage renderProgressive(int imgWidth, int imgHeight, double planeWidth, Logger logger,
+            FrameListener listener, AtomicBoolean stop) {
         initSomeFields(imgWidth, imgHeight, planeWidth, logger);
+        camera.initResolution(imgHeight, imgWidth, planeWidth);
+        initExecutor();
+        scheduler = new TileScheduler(executor, tileSize, tileOrder);
+        int passes = antiAliasingFactor + 1;
+        this.logger.log("Starting a progressive render of " + name + " in " + passes + " passes of " +
+                scheduler.numTiles(imgWidth, imgHeight) + " tiles (" + samplerType + " sampling)");
+        // The sums of the samples of every pixel, and the number of samples.
+        float[] framebuffer = new float[3 * imgWidth * imgHeight];
+        int[] samples = new int[imgWidth * imgHeight];
+        BufferedImage img = null;
+        try {
+            for (int pass = 0; pass < passes && !stop.get(); ++pass) {
+                int step = pass == 0 ? PROGRESSIVE_BLOCK : 1;
+                // Every pixel traced in this pass ends it with this many samples.
+                int target = Math.max(pass, 1);
+                long start = System.nanoTime();
+                scheduler.render(0, 0, imgWidth, imgHeight, (x0, y0, x1, y1) -> {
+                    ShadingContext.get().counters.clear();
+                    if (!stop.get()) {
+                        traceSamples(x0, y0, x1, y1, imgWidth, step, target, framebuffer, samples);
+                    }
+                    ShadingContext.get().counters.addTo(renderStats);
+                });
+                renderStats.addPhase(RenderStats.Phase.TRACE, System.nanoTime() - start);
+                img = resolve(imgWidth, imgHeight, framebuffer, samples);
+                listener.frame(img, pass, passes);
+            }
+            if (stop.get()) {
+                this.logger.log("The progressive render of " + name + " has been stopped.");
+            }
+        } finally {
+            finishRendering(imgWidth * imgHeight);
+        }
+        return img != null ? img : resolve(imgWidth, imgHeight, framebuffer, samples);
+    }
+
+    // The coarse pass of a progressive render traces one pixel in every block of this size.
+    private static final int PROGRESSIVE_BLOCK = 4;
+
+    /**
+     * Traces a sample of every pixel in [x0, x1) X [y0, y1) whose coordinates are multiples of step and which has
+     * fewer than target samples, adding it to the pixel's sums in framebuffer.
+     */
+    private void traceSamples(int x0, int y0, int x1, int y1, int imgWidth, int step, int target,
+            float[] framebuffer, int[] samples) {
+        ShadingContext context = ShadingContext.get();
+        Point cameraPosition = camera.getCameraPosition(context.cameraPosition);
+        Sampler sampler = sampler(context);
+        for (int y = y0; y < y1; ++y) {
+            if (y % step != 0) {
+                continue;
+            }
+            for (int x = x0; x < x1; ++x) {
+                int pixel = y * imgWidth + x;
+                if (x % step != 0 || samples[pixel] >= target) {
+                    continue;
+                }
+                Point pointOnScreen = camera.transform(x, y, context.pointOnScreen);
+                sampler.startPixel(x, y);
+                Point samplePoint = samplePoint(pointOnScreen, sampler, samples[pixel], context.samplePoint);
+                MutableRay ray = context.primaryRay.setThrough(cameraPosition, samplePoint);
+                ++context.counters.primaryRays;
+                context.startSample(x, y, samples[pixel]);
+                Vec color = calcColor(ray, 0, context, context.sampleColor);
+                framebuffer[3 * pixel] += (float) color.x;
+                framebuffer[3 * pixel + 1] += (float) color.y;
+                framebuffer[3 * pixel + 2] += (float) color.z;
+                ++samples[pixel];
+            }
+        }
+    }
 
+    /**
+     * @return the image of the average samples of every pixel. A pixel without samples yet takes the color of
+     * the pixel the coarse pass traced in its block.
+     */
+    private static BufferedImage resolve(int imgWidth, int imgHeight, float[] framebuffer, int[] samples) {
         BufferedImage img = new BufferedImage(imgWidth, imgHeight, BufferedImage.TYPE_INT_RGB);
-        camera.initResolution(imgHeight, imgWidth, planeWidth);
-        int nThreads = Runtime.getRuntime().availableProcessors();
-        nThreads = nThreads < 2 ? 2 : nThreads;
-        this.logger.log("Initialize executor. Using " + nThreads + " threads to render " + name);
-        executor = Executors.newFixedThreadPool(nThreads);
+        int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        Vec color = new Vec();
+        for (int y = 0; y < imgHeight; ++y) {
+            for (int x = 0; x < imgWidth; ++x) {
+                int pixel = y * imgWidth + x;
+                int source = samples[pixel] > 0 ? pixel :
+                        (y - y % PROGRESSIVE_BLOCK) * imgWidth + x - x % PROGRESSIVE_BLOCK;
+                int n = samples[source];
+                if (n > 0) {
+                    pixels[pixel] = color.set(framebuffer[3 * source] / n, framebuffer[3 * source + 1] / n,
+                            framebuffer[3 * source + 2] / n).toRGB();
+                }
+            }
+        }
+        return img;
+    }
 
-        @SuppressWarnings("unchecked")
-        Future<Color>[][] futures = (Future<Color>[][]) (new Future[imgHeight][imgWidth]);
+    private void startRendering(int imgWidth, int imgHeight, double planeWidth, Logger logger) {
+        initSomeFields(imgWidth, imgHeight, planeWidth, logger);
 
-        this.logger.log("Starting to shoot " +
-                (imgHeight * imgWidth * antiAliasingFactor * antiAliasingFactor) +
-                " rays over " + name);
+        camera.initResolution(imgHeight, imgWidth, planeWidth);
+        initExecutor();
+        if (captureGBuffer) {
+            capturedGBuffer = new GBuffer(imgWidth, imgHeight, planeWidth, antiAliasingFactor,
+                    compiled.surfaces.length, camera.getCameraPosition());
+            surfaceIndices = new IdentityHashMap<>();
+            for (Surface surface : compiled.surfaces) {
+                surfaceIndices.put(surface, surfaceIndices.size());
+            }
+        }
 
-        for (int y = 0; y < imgHeight; ++y)
-            for (int x = 0; x < imgWidth; ++x)
-                futures[y][x] = calcColor(x, y);
+        // The wavefront engine traces a whole tile at once, while the recursive one traces a band of packets.
+        boolean wavefront = renderingEngine == RenderingEngine.WAVEFRONT;
+        wavefrontRenderer = wavefront ?
+                new WavefrontRenderer(this, camera, compiled.lights, compiled.backgroundColor) : null;
+        sampleDistribution = adaptiveSampling ? new AtomicLongArray(antiAliasingFactor + 1) : null;
+        scheduler = new TileScheduler(executor, tileSize, tileOrder, wavefront ? tileSize : packetSize);
+        this.logger.log("Starting to shoot " + (adaptiveSampling ? "up to " : "") +
+                (imgHeight * imgWidth * antiAliasingFactor * antiAliasingFactor) +
+                " rays over " + name + " in " + scheduler.numTiles(imgWidth, imgHeight) + " tiles of " +
+                tileSize + "x" + tileSize + " pixels (" + tileOrder + " order, " +
+                (wavefront ? "wavefront" : packetSize + "x" + packetSize + " ray packets") + ", " +
+                samplerType + " sampling)");
+    }
 
-        this.logger.log("Done shooting rays.");
-        this.logger.log("Wating for results...");
+    private void initExecutor() {
+        if (workerPool != null) {
+            executor = workerPool;
+            this.logger.log("Using the given worker pool (" + executor.getParallelism() + " threads) to render " + name);
+        } else {
+            int nThreads = Runtime.getRuntime().availableProcessors();
+            nThreads = nThreads < 2 ? 2 : nThreads;
+            this.logger.log("Initialize executor. Using " + nThreads + " threads to render " + name);
+            executor = new ForkJoinPool(nThreads);
+        }
+    }
 
-        for (int y = 0; y < imgHeight; ++y)
-            for (int x = 0; x < imgWidth; ++x) {
-                Color color = futures[y][x].get();
-                img.setRGB(x, y, color.getRGB());
+    /**
+     * Renders the pixels [x0, x1) X [y0, y1) into pixels, which holds the region row by row.
+     */
+    private void renderRegion(int x0, int y0, int x1, int y1, int[] pixels) {
+        // The pixel (x, y) goes to pixels[offset + y * stride + x].
+        int stride = x1 - x0;
+        int offset = -(y0 * stride + x0);
+        RenderHandle handle = this.handle;
+        long start = System.nanoTime();
+        scheduler.render(x0, y0, x1, y1, (tileX0, tileY0, tileX1, tileY1) -> {
+            if (handle != null && handle.shouldStop(renderStats)) {
+                return;
+            }
+            ShadingContext.get().counters.clear();
+            renderTile(tileX0, tileY0, tileX1, tileY1, pixels, offset, stride);
+            ShadingContext.get().counters.addTo(renderStats);
+            if (handle != null) {
+                handle.tileDone(tileX0, tileY0, tileX1, tileY1);
             }
+        });
+        renderStats.addPhase(RenderStats.Phase.TRACE, System.nanoTime() - start);
+    }
+
+    private void renderTile(int x0, int y0, int x1, int y1, int[] pixels, int offset, int stride) {
+        if (wavefrontRenderer != null) {
+            wavefrontRenderer.render(x0, y0, x1, y1, pixels, offset, stride);
+            return;
+        }
+        if (packetSize > 1) {
+            for (int x = x0; x < x1; x += packetSize)
+                calcColors(x, y0, Math.min(x + packetSize, x1), y1, pixels, offset, stride);
+            return;
+        }
+        for (int y = y0; y < y1; ++y)
+            for (int x = x0; x < x1; ++x)
+                pixels[offset + y * stride + x] = calcColor(x, y).toRGB();
+    }
 
-        executor.shutdown();
+    private void finishRendering(long numPixels) {
+        if (executor != workerPool)
+            executor.shutdown();
 
-        this.logger.log("Ray tracing of " + name + " has been completed.");
+        boolean stopped = handle != null && !handle.allPixelsDone();
+        if (stopped) {
+            this.logger.log(String.format("Ray tracing of %s has been stopped (%s) after %.1f%% of the pixels.",
+                    name, handle.getStopReason(), 100 * handle.getCompletion()));
+        } else {
+            this.logger.log("Ray tracing of " + name + " has been completed.");
+        }
+        if (sampleDistribution != null) {
+            logSampleDistribution(numPixels);
+        }
+        this.logger.log(renderStats.toString());
+        renderStats.publish();
 
+        // The G-buffer of a stopped render lacks the tiles it skipped.
+        if (capturedGBuffer != null && !stopped) {
+            gBuffer = capturedGBuffer;
+        }
+        capturedGBuffer = null;
+        surfaceIndices = null;
         executor = null;
+        scheduler = null;
+        handle = null;
+        wavefrontRenderer = null;
+        sampleDistribution = null;
         this.logger = null;
+        compiled = null;
+    }
 
+    /**
+     * Renders the scene again from the G-buffer of an earlier render, after its light sources or the materials
+     * of its surfaces have changed. The primary rays are not traced again: every pixel sample is shaded at the
+     * hit kept in the G-buffer, with its shadow rays and secondary rays traced as in render.
+     * The surfaces and the camera of the scene must be the ones the G-buffer was captured with.
+     */
+    public synchronized BufferedImage reshade(GBuffer gBuffer, Logger logger)
+            throws InterruptedException, ExecutionException, IllegalArgumentException {
+        if (gBuffer.numSurfaces != surfaces.size())
+            throw new IllegalArgumentException("The G-buffer was captured with " + gBuffer.numSurfaces +
+                    " surfaces, the scene has " + surfaces.size() + ".");
+        int imgWidth = gBuffer.width;
+        int imgHeight = gBuffer.height;
+        BufferedImage img = new BufferedImage(imgWidth, imgHeight, BufferedImage.TYPE_INT_RGB);
+        int[] pixels = ((DataBufferInt) img.getRaster().getDataBuffer()).getData();
+        initSomeFields(imgWidth, imgHeight, gBuffer.planeWidth, logger);
+        Surface[] sceneSurfaces = compiled.surfaces;
+        initExecutor();
+        this.logger.log("Re-shading " + name + " from its G-buffer");
+        long start = System.nanoTime();
+        try {
+            new TileScheduler(executor, tileSize, tileOrder).render(imgWidth, imgHeight, (x0, y0, x1, y1) -> {
+                ShadingContext context = ShadingContext.get();
+                context.counters.clear();
+                for (int y = y0; y < y1; ++y) {
+                    for (int x = x0; x < x1; ++x) {
+                        int pixel = y * imgWidth + x;
+                        Vec color = context.pixelColor.set(0, 0, 0);
+                        for (int i = 0; i < gBuffer.samples[pixel]; ++i) {
+                            MutableRay ray = gBuffer.ray(pixel, i, context.primaryRay, context.frame(0).direction);
+                            Hit hit = gBuffer.hit(pixel, i, sceneSurfaces);
+                            context.startSample(x, y, i);
+                            color.add(calcColor(ray, hit, 0, context, context.sampleColor), color);
+                        }
+                        pixels[pixel] = averageSamples(color, gBuffer.samples[pixel]).toRGB();
+                    }
+                }
+                context.counters.addTo(renderStats);
+            });
+            renderStats.addPhase(RenderStats.Phase.TRACE, System.nanoTime() - start);
+        } finally {
+            finishRendering(imgWidth * imgHeight);
+        }
         return img;
     }
 
-    private Future<Color> calcColor(int x, int y) {
-        return executor.submit(() -> {
-            Point pointOnScreen = camera.transform(x, y);
-            Vec color = new Vec(0.0);
+    /**
+     * Keeps the sample-th primary ray of the pixel (x, y) and its hit in the G-buffer, if one is captured.
+     */
+    void captureSample(int x, int y, int sample, Ray ray, Hit hit) {
+        if (capturedGBuffer != null) {
+            int surface = hit == null ? GBuffer.BACKGROUND : surfaceIndices.get(hit.getSurface());
+            capturedGBuffer.set(x, y, sample, ray, hit, surface);
+        }
+    }
+
+    boolean capturingGBuffer() {
+        return capturedGBuffer != null;
+    }
+
+    private void logSampleDistribution(long numPixels) {
+        StringBuilder distribution = new StringBuilder();
+        long numSamples = 0;
+        for (int samples = 1; samples < sampleDistribution.length(); ++samples) {
+            long count = sampleDistribution.get(samples);
+            numSamples += count * samples;
+            if (count > 0) {
+                distribution.append(String.format(" %d: %.1f%%", samples, 100.0 * count / numPixels));
+            }
+        }
+        this.logger.log(String.format("Adaptive sampling shot %d primary rays, %.2f per pixel (up to %d). " +
+                "Pixels by samples:%s", numSamples, (double) numSamples / numPixels, antiAliasingFactor, distribution));
+    }
+
+    /**
+     * Calculates the color of the pixel (x, y).
+     * @return the color of the pixel. The returned vector belongs to the calling thread's shading context and
+     * is overwritten by the next call.
+     */
+    private Vec calcColor(int x, int y) {
+        ShadingContext context = ShadingContext.get();
+        Point pointOnScreen = camera.transform(x, y, context.pointOnScreen);
+        Point cameraPosition = camera.getCameraPosition(context.cameraPosition);
+        Vec color = context.pixelColor.set(0, 0, 0);
+        Sampler sampler = sampler(context);
+        sampler.startPixel(x, y);
+        PixelEstimates estimates = context.estimates;
+        startEstimates(estimates, 1);
+
+        for (int i = 0; estimates.samplesNeeded(0) > 0; i++) {
+            Point samplePoint = samplePoint(pointOnScreen, sampler, i, context.samplePoint);
+            MutableRay ray = context.primaryRay.setThrough(cameraPosition, samplePoint);
+            ++context.counters.primaryRays;
+            Hit hit = findMinIntersection(ray, context.counters);
+            captureSample(x, y, i, ray, hit);
+            context.startSample(x, y, i);
+            Vec sampleColor = calcColor(ray, hit, 0, context, context.sampleColor);
+            color.add(sampleColor, color);
+            estimates.add(0, sampleColor);
+        }
+
+        return averageSamples(color, estimates.samples(0));
+    }
 
-            Ray ray = new Ray(this.camera.getCameraPosition(), pointOnScreen);
-            color = color.add(calcColor(ray, 0));
+    /**
+     * Starts the estimates of a batch of pixels, which decide how many samples every pixel gets:
+     * antiAliasingFactor samples, or with adaptive sampling, between ADAPTIVE_FIRST_BATCH and antiAliasingFactor.
+     */
+    void startEstimates(PixelEstimates estimates, int numPixels) {
+        int firstBatch = adaptiveSampling ? Math.min(ADAPTIVE_FIRST_BATCH, antiAliasingFactor) : antiAliasingFactor;
+        estimates.reset(numPixels, firstBatch, antiAliasingFactor, adaptiveTolerance);
+    }
 
-            if (antiAliasingFactor > 1) {
-                for (int i = 0; i < antiAliasingFactor - 1; i++) {
-                    double randomX = -1 + (Math.random() * 2);
-                    double randomY = -1 + (Math.random() * 2);
-                    Point randomPoint = new Point(pointOnScreen.x + randomX * 0.5 * camera.pixelWidth,
-                            pointOnScreen.y + randomY * 0.5 * camera.pixelWidth, pointOnScreen.z);
-                    Ray randomRay = new Ray(camera.getCameraPosition(), randomPoint);
-                    color = color.add(calcColor(randomRay, 0));
+    /**
+     * Turns the sum of the colors of the samples of a pixel into their average, and counts the pixel
+     * in the sample distribution of the render.
+     * @return color
+     */
+    Vec averageSamples(Vec color, int samples) {
+        if (samples > 1) {
+            color.mult((float) 1 / samples, color);
+        }
+        if (sampleDistribution != null) {
+            sampleDistribution.incrementAndGet(samples);
+        }
+        return color;
+    }
+
+
+    /**
+     * @return the sampler of the calling thread, set up for this scene.
+     */
+    Sampler sampler(ShadingContext context) {
+        return context.sampler(samplerType, antiAliasingFactor, samplerSeed);
+    }
+
+    /**
+     * Finds the point on the screen the sample-th ray of a pixel goes through, given the center of the pixel.
+     * The sampler must already be started on the pixel.
+     * @return dest
+     */
+    Point samplePoint(Point pointOnScreen, Sampler sampler, int sample, Point dest) {
+        double offsetX = sampler.sampleX(sample) - 0.5;
+        double offsetY = sampler.sampleY(sample) - 0.5;
+        return dest.set(pointOnScreen.x + offsetX * camera.pixelWidth,
+                pointOnScreen.y + offsetY * camera.pixelWidth, pointOnScreen.z);
+    }
+
+    /**
+     * Calculates the colors of the pixels [x0, x1) X [y0, y1) and writes them into pixels[offset + y * stride + x].
+     * The primary rays of these pixels are traced through the BVH together, one packet per round of samples,
+     * which holds a ray of every pixel that still needs samples.
+     * Every pixel gets exactly the color calcColor(x, y) would give it.
+     */
+    private void calcColors(int x0, int y0, int x1, int y1, int[] pixels, int offset, int stride) {
+        ShadingContext context = ShadingContext.get();
+        Point cameraPosition = camera.getCameraPosition(context.cameraPosition);
+        RayPacket packet = context.packet;
+        Sampler sampler = sampler(context);
+        PixelEstimates estimates = context.estimates;
+        int numPixels = (x1 - x0) * (y1 - y0);
+        startEstimates(estimates, numPixels);
+        for (int pixel = 0; pixel < numPixels; ++pixel) {
+            context.packetColors[pixel].set(0, 0, 0);
+        }
+
+        while (true) {
+            packet.clear();
+            for (int y = y0, pixel = 0; y < y1; ++y) {
+                for (int x = x0; x < x1; ++x, ++pixel) {
+                    if (estimates.samplesNeeded(pixel) == 0) {
+                        continue;
+                    }
+                    Point pointOnScreen = camera.transform(x, y, context.pointOnScreen);
+                    sampler.startPixel(x, y);
+                    Point samplePoint = samplePoint(pointOnScreen, sampler, estimates.samples(pixel), context.samplePoint);
+                    int k = packet.size();
+                    MutableRay ray = context.packetRays[k].setThrough(cameraPosition, samplePoint);
+                    ++context.counters.primaryRays;
+                    Hit unboundedHit = findMinUnboundedIntersection(ray, context.counters);
+                    context.packetHits[k] = unboundedHit;
+                    context.packetPixels[k] = pixel;
+                    packet.add(ray, unboundedHit != null ? unboundedHit.t() : Double.POSITIVE_INFINITY);
                 }
+            }
+            if (packet.size() == 0) {
+                break;
+            }
 
-                color = color.mult((float) 1 / antiAliasingFactor);
+            compiled.bvh.closestHits(packet);
+            for (int k = 0; k < packet.size(); ++k) {
+                int pixel = context.packetPixels[k];
+                Hit hit = packet.hit(k) != null ? packet.hit(k) : context.packetHits[k];
+                int x = x0 + pixel % (x1 - x0);
+                int y = y0 + pixel / (x1 - x0);
+                captureSample(x, y, estimates.samples(pixel), context.packetRays[k], hit);
+                context.startSample(x, y, estimates.samples(pixel));
+                Vec color = context.packetColors[pixel];
+                Vec sampleColor = calcColor(context.packetRays[k], hit, 0, context, context.sampleColor);
+                color.add(sampleColor, color);
+                estimates.add(pixel, sampleColor);
+                context.packetHits[k] = null;
             }
+        }
+        packet.clear();
 
-            return color.toColor();
-        });
+        for (int y = y0, pixel = 0; y < y1; ++y) {
+            for (int x = x0; x < x1; ++x, ++pixel) {
+                Vec color = averageSamples(context.packetColors[pixel], estimates.samples(pixel));
+                pixels[offset + y * stride + x] = color.toRGB();
+            }
+        }
     }
 
+    /**
+     * Calculates the color seen along the ray, writing it into dest.
+     * Temporaries are taken from the context, so no vectors are allocated along the way.
+     * @return dest
+     */
+    private Vec calcColor(Ray ray, int recursionLevel, ShadingContext context, Vec dest) {
+        return calcColor(ray, findMinIntersection(ray, context.counters), recursionLevel, context, dest);
+    }
 
-    private Vec calcColor(Ray ray, int recursionLevel) {
-        Hit minimalIntersection = findMinIntersection(ray);
+    /**
+     * Same as calcColor(ray, recursionLevel, context, dest), for a ray whose closest hit is already known.
+     */
+    private Vec calcColor(Ray ray, Hit minimalIntersection, int recursionLevel, ShadingContext context, Vec dest) {
+        RenderStats.Counters counters = context.counters;
+        if (recursionLevel > counters.maxDepth) {
+            counters.maxDepth = recursionLevel;
+        }
         if (minimalIntersection == null) {
-            return this.backgroundColor;
+            return dest.set(compiled.backgroundColor);
+        }
+        ++counters.hits;
+        ShadingContext.Frame frame = context.frame(recursionLevel);
+        if (recursionLevel == 0) {
+            frame.weight.set(1, 1, 1);
+            frame.path = 1;
         }
         Surface intersectionSurface = minimalIntersection.getSurface();
-        Point intersectionPoint = ray.getHittingPoint(minimalIntersection);
-        Vec pixelColor = calcColorAtIntersectionPoint(ray, minimalIntersection, intersectionSurface, intersectionPoint);
+        Point intersectionPoint = ray.getHittingPoint(minimalIntersection, frame.hittingPoint);
+        Vec pixelColor = calcColorAtIntersectionPoint(ray, minimalIntersection, intersectionSurface, intersectionPoint,
+                context, dest);
 
         if (recursionLevel == maxRecursionLevel) {
             return pixelColor;
         }
+        ShadingContext.Frame next = context.frame(recursionLevel + 1);
         if (renderReflections && intersectionSurface.isReflecting()) {
             Vec kr = intersectionSurface.Kr();
-            Ray reflectedRayR = getReflectedRay(ray, minimalIntersection, intersectionPoint);
-            Vec reflectionColor = calcColor(reflectedRayR, recursionLevel + 1);
-            pixelColor = pixelColor.add(reflectionColor.mult(kr));
+            next.path = 2 * frame.path;
+            double survival = survivalProbability(frame.weight.mult(kr, next.weight), context.sampleX,
+                    context.sampleY, context.sampleIndex, next.path);
+            if (survival > 0) {
+                Ray reflectedRayR = getReflectedRay(ray, minimalIntersection, intersectionPoint, frame);
+                ++counters.reflectionRays;
+                Vec reflectionColor = calcColor(reflectedRayR, recursionLevel + 1, context, frame.secondaryColor);
+                reflectionColor.mult(kr, reflectionColor);
+                if (survival < 1) {
+                    reflectionColor.mult(1 / survival, reflectionColor);
+                }
+                pixelColor.add(reflectionColor, pixelColor);
+            }
         }
         if (renderRefractions && intersectionSurface.isTransparent()) {
             Vec kt = intersectionSurface.Kt();
-            Ray refractedRayT = getRefractedRay(ray, minimalIntersection, intersectionPoint);
-            Vec refractionColor = calcColor(refractedRayT, recursionLevel + 1);
-            pixelColor = pixelColor.add(refractionColor.mult(kt));
+            next.path = 2 * frame.path + 1;
+            double survival = survivalProbability(frame.weight.mult(kt, next.weight), context.sampleX,
+                    context.sampleY, context.sampleIndex, next.path);
+            if (survival > 0) {
+                Ray refractedRayT = getRefractedRay(ray, minimalIntersection, intersectionPoint, frame);
+                ++counters.refractionRays;
+                Vec refractionColor = calcColor(refractedRayT, recursionLevel + 1, context, frame.secondaryColor);
+                refractionColor.mult(kt, refractionColor);
+                if (survival < 1) {
+                    refractionColor.mult(1 / survival, refractionColor);
+                }
+                pixelColor.add(refractionColor, pixelColor);
+            }
         }
         return pixelColor;
     }
 
-    private Hit findMinIntersection(Ray ray) {
+    /**
+     * Decides if a secondary ray is worth tracing, given its weight. A ray which survives Russian roulette
+     * has its weight scaled up by 1 / the probability it survived with, as its color will be.
+     * The roulette draws from the seed of the sampler, the pixel (x, y), the sample and the path to the ray
+     * (see Sampler.pathRandom), so seeded renders are reproducible, and both engines terminate the same rays.
+     * @return the probability the ray survived with (1 if its weight is above the termination threshold),
+     * or 0 if the ray is terminated.
+     */
+    double survivalProbability(Vec weight, int x, int y, int sample, long path) {
+        if (terminationThreshold <= 0) {
+            return 1;
+        }
+        double luminance = 0.2126 * weight.x + 0.7152 * weight.y + 0.0722 * weight.z;
+        if (luminance >= terminationThreshold) {
+            return 1;
+        }
+        if (!russianRoulette) {
+            return 0;
+        }
+        double survival = luminance / terminationThreshold;
+        if (Sampler.pathRandom(samplerSeed, x, y, sample, path) >= survival) {
+            return 0;
+        }
+        weight.mult(1 / survival, weight);
+        return survival;
+    }
+
+    private Hit findMinIntersection(Ray ray, RenderStats.Counters counters) {
+        Hit minIntersection = findMinUnboundedIntersection(ray, counters);
+        Hit bvhIntersection = compiled.bvh.closestHit(ray, minIntersection != null ? minIntersection.t() : Double.POSITIVE_INFINITY);
+        return bvhIntersection != null ? bvhIntersection : minIntersection;
+    }
+
+    /**
+     * Finds the closest hits of rays[0..count) and writes them into dest.
+     * The rays are traced through the BVH together, as a single packet, so count must not exceed RayPacket.MAX_SIZE.
+     */
+    void findMinIntersections(Ray[] rays, int count, Hit[] dest, RayPacket packet, RenderStats.Counters counters) {
+        packet.clear();
+        for (int k = 0; k < count; ++k) {
+            Hit unboundedHit = findMinUnboundedIntersection(rays[k], counters);
+            dest[k] = unboundedHit;
+            packet.add(rays[k], unboundedHit != null ? unboundedHit.t() : Double.POSITIVE_INFINITY);
+        }
+        compiled.bvh.closestHits(packet);
+        for (int k = 0; k < count; ++k) {
+            if (packet.hit(k) != null) {
+                dest[k] = packet.hit(k);
+            }
+        }
+        packet.clear();
+    }
+
+    // The plains are intersected by the kernel of the PlaneBuffer a batch at a time, into a buffer of every thread.
+    private static final int PLAIN_BATCH = 8;
+    private static final ThreadLocal<double[]> PLAIN_DISTANCES =
+            ThreadLocal.withInitial(() -> new double[PLAIN_BATCH]);
+
+    private Hit findMinUnboundedIntersection(Ray ray, RenderStats.Counters counters) {
+        Surface[] plainSurfaces = compiled.plainSurfaces;
+        counters.plainTests += plainSurfaces.length;
+        counters.otherTests += compiled.unboundedSurfaces.length;
+        double ox = ray.source().x, oy = ray.source().y, oz = ray.source().z;
+        double dx = ray.direction().x, dy = ray.direction().y, dz = ray.direction().z;
         double minT = Double.POSITIVE_INFINITY;
-        LinkedList<Hit> intersections = new LinkedList<>();
-        for (Surface s : this.surfaces) {
-            Hit surfaceIntersection = s.intersect(ray);
-            if (surfaceIntersection != null) intersections.add(surfaceIntersection);
+        int minPlain = -1;
+        double[] distances = PLAIN_DISTANCES.get();
+        for (int batch = 0; batch < plainSurfaces.length; batch += PLAIN_BATCH) {
+            int batchEnd = Math.min(plainSurfaces.length, batch + PLAIN_BATCH);
+            compiled.plains.intersect(batch, batchEnd, ox, oy, oz, dx, dy, dz, distances);
+            for (int i = batch; i < batchEnd; ++i) {
+                double t = distances[i - batch];
+                if (t < minT) {
+                    minPlain = i;
+                    minT = t;
+                }
+            }
         }
-        Hit minIntersection = null;
-        for (int i = 0; i < intersections.size(); i++) {
-            if (intersections.get(i).t() < minT) {
-                minIntersection = intersections.get(i);
-                minT = intersections.get(i).t();
+        Hit minIntersection = minPlain >= 0 ? plainSurfaces[minPlain].intersect(ray) : null;
+        for (Surface s : compiled.unboundedSurfaces) {
+            Hit surfaceIntersection = s.intersect(ray);
+            if (surfaceIntersection != null && surfaceIntersection.t() < minT) {
+                minIntersection = surfaceIntersection;
+                minT = surfaceIntersection.t();
             }
         }
         return minIntersection;
     }
 
-    private Vec calcColorAtIntersectionPoint(Ray ray, Hit hit, Surface surface, Point point) {
-        Vec color = new Vec(0);
-        color = color.add(getAmbientReflection(surface));
-        for (Light lightSource : this.lightSources) {
-            Ray rayFromPointToLight = lightSource.rayToLight(point);
-            Vec lightIntensity = lightSource.intensity(point, rayFromPointToLight);
-            if (!isOccludedFromLight(lightSource, rayFromPointToLight)) {
-                Vec diffuse = getDiffuseReflection(hit, rayFromPointToLight);
-                Vec specular = getSpecularReflection(hit, ray, rayFromPointToLight);
-                color = color.add(diffuse.add(specular).mult(lightIntensity));
+    private Vec calcColorAtIntersectionPoint(Ray ray, Hit hit, Surface surface, Point point,
+            ShadingContext context, Vec dest) {
+        Vec color = getAmbientReflection(surface, dest);
+        for (Light lightSource : compiled.lights) {
+            Ray rayFromPointToLight = lightSource.rayToLight(point, context.shadowRay);
+            Vec lightIntensity = lightSource.intensity(point, rayFromPointToLight, context.lightIntensity);
+            if (!isOccludedFromLight(lightSource, rayFromPointToLight, context.counters)) {
+                Vec diffuse = getDiffuseReflection(hit, rayFromPointToLight, context);
+                Vec specular = getSpecularReflection(hit, ray, rayFromPointToLight, context);
+                color.add(diffuse.add(specular, diffuse).mult(lightIntensity, diffuse), color);
             }
         }
         return color;
     }
 
-    private Vec getAmbientReflection(Surface surface) {
+    Vec getAmbientReflection(Surface surface, Vec dest) {
         Vec ka = surface.Ka();
-        return ka.mult(this.ambient);
+        return ka.mult(compiled.ambient, dest);
     }
 
-    private boolean isOccludedFromLight(Light lightSource, Ray rayToLight) {
-        for (Surface s : this.surfaces) {
+    /**
+     * Traces a shadow ray, counting it in the counters of the calling thread.
+     * @return true if some surface is between the start of the ray and the light source.
+     */
+    boolean isOccludedFromLight(Light lightSource, Ray rayToLight, RenderStats.Counters counters) {
+        ++counters.shadowRays;
+        // All the plains are counted, though the buffer stops at the first one which occludes the light.
+        counters.plainTests += compiled.plainSurfaces.length;
+        boolean occluded = isOccluded(lightSource, rayToLight, counters);
+        if (occluded) {
+            ++counters.occludedShadowRays;
+        }
+        return occluded;
+    }
+
+    private boolean isOccluded(Light lightSource, Ray rayToLight, RenderStats.Counters counters) {
+        double distance = lightSource.distanceToLight(rayToLight.source());
+        Point o = rayToLight.source();
+        Vec v = rayToLight.direction();
+        if (compiled.plains.anyHit(0, compiled.plainSurfaces.length, o.x, o.y, o.z, v.x, v.y, v.z, distance)) {
+            return true;
+        }
+        for (Surface s : compiled.unboundedSurfaces) {
+            ++counters.otherTests;
             if (lightSource.isOccludedBy(s, rayToLight)) {
                 return true;
             }
         }
-        return false;
+        return compiled.bvh.anyHit(rayToLight, distance);
     }
 
-    private Vec getDiffuseReflection(Hit hit, Ray rayToLight) {
+    Vec getDiffuseReflection(Hit hit, Ray rayToLight, ShadingContext context) {
         Vec kd = hit.getSurface().Kd();
-        Vec N = hit.getNormalToSurface().normalize();
-        Vec L = rayToLight.direction().normalize();
-        return kd.mult(N.dot(L));
+        Vec N = hit.getNormalToSurface().normalize(context.normal);
+        Vec L = rayToLight.direction().normalize(context.toLight);
+        return kd.mult(N.dot(L), context.diffuse);
     }
 
-    private Vec getSpecularReflection(Hit hit, Ray rayFromViewer, Ray rayToLight) {
+    Vec getSpecularReflection(Hit hit, Ray rayFromViewer, Ray rayToLight, ShadingContext context) {
         double n = hit.getSurface().shininess();
         Vec ks = hit.getSurface().Ks();
-        Vec V = rayFromViewer.direction().neg().normalize();
-        Vec N = hit.getNormalToSurface().normalize();
-        Vec LReflect = Ops.reflect(rayToLight.direction().neg().normalize(), N);
+        Vec V = rayFromViewer.direction().neg(context.toViewer).normalize(context.toViewer);
+        Vec N = hit.getNormalToSurface().normalize(context.normal);
+        Vec L = rayToLight.direction().neg(context.toLight).normalize(context.toLight);
+        Vec LReflect = Ops.reflect(L, N, context.reflectedLight);
         double cosAlpha = V.dot(LReflect);
-        return (cosAlpha < Ops.epsilon) ? new Vec(0) : ks.mult(Math.pow(cosAlpha, n));
+        return (cosAlpha < Ops.epsilon) ? context.specular.set(0, 0, 0) : ks.mult(Math.pow(cosAlpha, n), context.specular);
     }
 
-    private Ray getReflectedRay(Ray ray, Hit hit, Point hittingPoint) {
-        Vec normalToSurface = hit.getNormalToSurface().normalize();
-        Vec reflectDirection = Ops.reflect(ray.direction().normalize(), normalToSurface).normalize();
-        return new Ray(hittingPoint, reflectDirection);
+    Ray getReflectedRay(Ray ray, Hit hit, Point hittingPoint, ShadingContext.Frame frame) {
+        Vec normalToSurface = hit.getNormalToSurface().normalize(frame.normal);
+        Vec rayDirection = ray.direction().normalize(frame.direction);
+        Vec reflectDirection = Ops.reflect(rayDirection, normalToSurface, frame.direction).normalize(frame.direction);
+        return frame.secondaryRay.set(hittingPoint, reflectDirection);
     }
 
-    private Ray getRefractedRay(Ray ray, Hit hit, Point hittingPoint) {
-        Vec normalToSurface = hit.getNormalToSurface().normalize();
-        Vec N = hit.isWithinTheSurface() ? normalToSurface.neg() : normalToSurface;
+    Ray getRefractedRay(Ray ray, Hit hit, Point hittingPoint, ShadingContext.Frame frame) {
+        Vec normalToSurface = hit.getNormalToSurface().normalize(frame.normal);
+        Vec N = hit.isWithinTheSurface() ? normalToSurface.neg(normalToSurface) : normalToSurface;
         double n1 = hit.getSurface().n1(hit);
         double n2 = hit.getSurface().n2(hit);
-        Vec refractDirection = Ops.refract(ray.direction().normalize(), N, n1, n2).normalize();
-        return new Ray(hittingPoint, refractDirection);
+        Vec rayDirection = ray.direction().normalize(frame.direction);
+        Vec refractDirection = Ops.refract(rayDirection, N, n1, n2, frame.direction).normalize(frame.direction);
+        return frame.secondaryRay.set(hittingPoint, refractDirection);
     }
 
 }
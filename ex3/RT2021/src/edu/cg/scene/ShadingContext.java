@@ -0,0 +1,108 @@
+package edu.cg.scene;
+
+import edu.cg.algebra.Hit;
+import edu.cg.algebra.MutableRay;
+import edu.cg.algebra.Point;
+import edu.cg.algebra.Vec;
+import edu.cg.scene.acceleration.RayPacket;
+import edu.cg.scene.rendering.RenderStats;
+import edu.cg.scene.sampling.PixelEstimates;
+import edu.cg.scene.sampling.Sampler;
+
+/**
+ * Per-thread scratch space for the ray tracer. It holds the temporary points, vectors and rays
+ * that shading a pixel needs, so the hot loop can reuse them instead of allocating new objects
+ * for every intermediate result.
+ * A context belongs to a single thread and must never be shared.
+ */
+class ShadingContext {
+	private static final ThreadLocal<ShadingContext> CONTEXTS = ThreadLocal.withInitial(ShadingContext::new);
+
+	// Primary rays
+	final Point cameraPosition = new Point();
+	final Point pointOnScreen = new Point();
+	final Point samplePoint = new Point();
+	final MutableRay primaryRay = new MutableRay();
+	final Vec sampleColor = new Vec();
+	final Vec pixelColor = new Vec();
+	final PixelEstimates estimates = new PixelEstimates();
+	private Sampler sampler = null;
+	// The pixel and the index of the sample being traced, from which Russian roulette draws its random numbers.
+	int sampleX, sampleY, sampleIndex;
+
+	// Primary ray packets: a ray, its closest unbounded hit and its pixel, and the accumulated color of every pixel.
+	final RayPacket packet = new RayPacket();
+	final MutableRay[] packetRays = new MutableRay[RayPacket.MAX_SIZE];
+	final Hit[] packetHits = new Hit[RayPacket.MAX_SIZE];
+	final int[] packetPixels = new int[RayPacket.MAX_SIZE];
+	final Vec[] packetColors = new Vec[RayPacket.MAX_SIZE];
+
+	// Direct lighting
+	final MutableRay shadowRay = new MutableRay();
+	final Vec lightIntensity = new Vec();
+	final Vec normal = new Vec();
+	final Vec toLight = new Vec();
+	final Vec toViewer = new Vec();
+	final Vec reflectedLight = new Vec();
+	final Vec diffuse = new Vec();
+	final Vec specular = new Vec();
+
+	// What the thread traced, added to the stats of the render after every tile.
+	final RenderStats.Counters counters = RenderStats.Counters.get();
+
+	// One frame per recursion level, since the recursion must not overwrite the data of the levels above it.
+	private Frame[] frames = new Frame[0];
+
+	static class Frame {
+		// The weight of the ray traced at this level: the product of the Kr and Kt factors along its path.
+		final Vec weight = new Vec();
+		// The path to the ray traced at this level (see Sampler.pathRandom).
+		long path;
+		final Point hittingPoint = new Point();
+		final MutableRay secondaryRay = new MutableRay();
+		final Vec normal = new Vec();
+		final Vec direction = new Vec();
+		final Vec secondaryColor = new Vec();
+	}
+
+	private ShadingContext() {
+		for (int i = 0; i < RayPacket.MAX_SIZE; ++i) {
+			packetRays[i] = new MutableRay();
+			packetColors[i] = new Vec();
+		}
+	}
+
+	static ShadingContext get() {
+		return CONTEXTS.get();
+	}
+
+	/**
+	 * @return the sampler of the thread, replaced whenever a render asks for a different one.
+	 */
+	Sampler sampler(Sampler.Type type, int samplesPerPixel, long seed) {
+		if (sampler == null || sampler.type() != type || sampler.samplesPerPixel() != samplesPerPixel ||
+				sampler.seed() != seed)
+			sampler = type.create(samplesPerPixel, seed);
+		return sampler;
+	}
+
+	/**
+	 * Starts the tree of rays of the sample-th sample of the pixel (x, y).
+	 */
+	void startSample(int x, int y, int sample) {
+		sampleX = x;
+		sampleY = y;
+		sampleIndex = sample;
+	}
+
+	Frame frame(int recursionLevel) {
+		if (recursionLevel >= frames.length) {
+			Frame[] newFrames = new Frame[recursionLevel + 1];
+			System.arraycopy(frames, 0, newFrames, 0, frames.length);
+			for (int i = frames.length; i < newFrames.length; ++i)
+				newFrames[i] = new Frame();
+			frames = newFrames;
+		}
+		return frames[recursionLevel];
+	}
+}
@@ -0,0 +1,489 @@
+package edu.cg.scene;
+
+import java.util.Arrays;
+
+import edu.cg.algebra.Hit;
+import edu.cg.algebra.MutableRay;
+import edu.cg.algebra.Point;
+import edu.cg.algebra.Ray;
+import edu.cg.algebra.Vec;
+import edu.cg.scene.acceleration.RayPacket;
+import edu.cg.scene.camera.PinholeCamera;
+import edu.cg.scene.lightSources.Light;
+import edu.cg.scene.objects.Surface;
+import edu.cg.scene.rendering.RenderStats;
+import edu.cg.scene.rendering.RenderStats.Phase;
+import edu.cg.scene.sampling.PixelEstimates;
+import edu.cg.scene.sampling.Sampler;
+
+/**
+ * Renders a region of the image stage by stage instead of ray by ray: all the primary rays of the region are
+ * generated, then the closest hits of the whole batch are found, then all of their shadow rays are traced,
+ * then the hits are shaded, and then the reflected and refracted rays they spawn form the next batch.
+ * The rays travel between the stages in queues of primitive arrays.
+ * Every ray of a batch is a node of the tree of rays of its pixel sample. The local color of every node is kept,
+ * and once the deepest batch is done the colors are combined bottom up, in the order Scene.calcColor adds them,
+ * so every pixel gets exactly the color the recursive renderer gives it.
+ * A renderer may be shared by the threads that render a scene; the queues belong to the calling thread.
+ * The time every stage takes is added to the counters of the calling thread.
+ */
+final class WavefrontRenderer {
+	private static final ThreadLocal<Queues> QUEUES = ThreadLocal.withInitial(Queues::new);
+
+	private final Scene scene;
+	private final PinholeCamera camera;
+	private final Light[] lights;
+	private final Vec backgroundColor;
+	private final int maxRecursionLevel;
+	private final boolean renderReflections;
+	private final boolean renderRefractions;
+
+	WavefrontRenderer(Scene scene, PinholeCamera camera, Light[] lights, Vec backgroundColor) {
+		this.scene = scene;
+		this.camera = camera;
+		this.lights = lights;
+		this.backgroundColor = backgroundColor;
+		this.maxRecursionLevel = scene.getMaxRecursionLevel();
+		this.renderReflections = scene.getRenderReflections();
+		this.renderRefractions = scene.getRenderRefractions();
+	}
+
+	/**
+	 * Renders the pixels [x0, x1) X [y0, y1) and writes them into pixels[offset + y * stride + x].
+	 */
+	void render(int x0, int y0, int x1, int y1, int[] pixels, int offset, int stride) {
+		ShadingContext context = ShadingContext.get();
+		RenderStats.Counters counters = context.counters;
+		long[] phaseNanos = counters.phaseNanos;
+		Queues queues = QUEUES.get();
+		PixelEstimates estimates = context.estimates;
+		int numPixels = (x1 - x0) * (y1 - y0);
+		scene.startEstimates(estimates, numPixels);
+		queues.clearPixels(numPixels);
+
+		// Every round traces the samples the pixels still need: all of them, unless sampling is adaptive.
+		long time = System.nanoTime();
+		while (generate(x0, y0, x1, y1, estimates, queues, context) > 0) {
+			time = addTime(phaseNanos, Phase.GENERATE, time);
+			int begin = 0;
+			for (int level = 0; begin < queues.size; ++level) {
+				int end = queues.size;
+				if (level > counters.maxDepth)
+					counters.maxDepth = level;
+				closestHits(begin, end, queues, context);
+				time = addTime(phaseNanos, Phase.CLOSEST_HITS, time);
+				shadowRays(begin, end, queues, context);
+				time = addTime(phaseNanos, Phase.SHADOW_RAYS, time);
+				anyHits(queues, context);
+				time = addTime(phaseNanos, Phase.ANY_HITS, time);
+				shade(begin, end, queues, context);
+				time = addTime(phaseNanos, Phase.SHADE, time);
+				if (level < maxRecursionLevel) {
+					spawn(x0, y0, x1, begin, end, queues, context);
+					time = addTime(phaseNanos, Phase.SPAWN, time);
+				}
+				begin = end;
+			}
+			combine(queues, context);
+
+			// The nodes of the primary rays come first, in the order of their pixels and samples.
+			Vec sampleColor = context.sampleColor;
+			Vec color = context.pixelColor;
+			for (int node = 0; node < queues.roots; ++node) {
+				int pixel = queues.rootPixels[node];
+				if (scene.capturingGBuffer())
+					scene.captureSample(x0 + pixel % (x1 - x0), y0 + pixel / (x1 - x0), estimates.samples(pixel),
+							queues.ray(node, context.primaryRay), queues.hits[node]);
+				sampleColor.set(queues.r[node], queues.g[node], queues.b[node]);
+				color.set(queues.pixelR[pixel], queues.pixelG[pixel], queues.pixelB[pixel]);
+				queues.setPixelColor(pixel, color.add(sampleColor, color));
+				estimates.add(pixel, sampleColor);
+			}
+			queues.release();
+			time = addTime(phaseNanos, Phase.COMBINE, time);
+		}
+
+		for (int y = y0, pixel = 0; y < y1; ++y) {
+			for (int x = x0; x < x1; ++x, ++pixel) {
+				Vec color = context.pixelColor.set(queues.pixelR[pixel], queues.pixelG[pixel], queues.pixelB[pixel]);
+				pixels[offset + y * stride + x] = scene.averageSamples(color, estimates.samples(pixel)).toRGB();
+			}
+		}
+	}
+
+	// Adds the time since start to the phase.
+	// Returns the current time, the start of the next phase.
+	private static long addTime(long[] phaseNanos, Phase phase, long start) {
+		long now = System.nanoTime();
+		phaseNanos[phase.ordinal()] += now - start;
+		return now;
+	}
+
+	// Stage 1: the primary rays of the samples the pixels need, placed within the pixels by the sampler of the scene.
+	// Returns the number of rays.
+	private int generate(int x0, int y0, int x1, int y1, PixelEstimates estimates, Queues queues,
+			ShadingContext context) {
+		Point cameraPosition = camera.getCameraPosition(context.cameraPosition);
+		MutableRay ray = context.primaryRay;
+		Sampler sampler = scene.sampler(context);
+		for (int y = y0, pixel = 0; y < y1; ++y) {
+			for (int x = x0; x < x1; ++x, ++pixel) {
+				int samplesNeeded = estimates.samplesNeeded(pixel);
+				if (samplesNeeded == 0)
+					continue;
+				Point pointOnScreen = camera.transform(x, y, context.pointOnScreen);
+				sampler.startPixel(x, y);
+				int firstSample = estimates.samples(pixel);
+				for (int i = firstSample; i < firstSample + samplesNeeded; i++) {
+					Point samplePoint = scene.samplePoint(pointOnScreen, sampler, i, context.samplePoint);
+					queues.pushRoot(ray.setThrough(cameraPosition, samplePoint), pixel, i);
+				}
+			}
+		}
+		context.counters.primaryRays += queues.roots;
+		return queues.roots;
+	}
+
+	// Stage 2: the closest hits of the batch, traced through the BVH a packet at a time, and their hitting points.
+	private void closestHits(int begin, int end, Queues queues, ShadingContext context) {
+		MutableRay[] rays = context.packetRays;
+		Hit[] hits = context.packetHits;
+		for (int first = begin; first < end; first += RayPacket.MAX_SIZE) {
+			int count = Math.min(RayPacket.MAX_SIZE, end - first);
+			for (int k = 0; k < count; ++k) {
+				queues.ray(first + k, rays[k]);
+			}
+			scene.findMinIntersections(rays, count, hits, context.packet, context.counters);
+			for (int k = 0; k < count; ++k) {
+				int node = first + k;
+				Hit hit = hits[k];
+				hits[k] = null;
+				queues.hits[node] = hit;
+				if (hit != null) {
+					++context.counters.hits;
+					Point point = rays[k].getHittingPoint(hit, context.samplePoint);
+					queues.px[node] = point.x;
+					queues.py[node] = point.y;
+					queues.pz[node] = point.z;
+				}
+			}
+		}
+	}
+
+	// Stage 3: a shadow ray from every hit to every light source.
+	private void shadowRays(int begin, int end, Queues queues, ShadingContext context) {
+		queues.clearShadowRays();
+		Point point = context.samplePoint;
+		for (int node = begin; node < end; ++node) {
+			if (queues.hits[node] == null)
+				continue;
+			point.set(queues.px[node], queues.py[node], queues.pz[node]);
+			for (Light light : lights) {
+				queues.pushShadowRay(light.rayToLight(point, context.shadowRay));
+			}
+		}
+	}
+
+	// Stage 4: the any-hit queries of the shadow rays.
+	private void anyHits(Queues queues, ShadingContext context) {
+		MutableRay ray = context.shadowRay;
+		for (int i = 0; i < queues.shadowSize; ++i) {
+			queues.shadowRay(i, ray);
+			queues.occluded[i] = scene.isOccludedFromLight(lights[i % lights.length], ray, context.counters);
+		}
+	}
+
+	// Stage 5: the local color of every hit, the ambient light plus the light sources which are not occluded.
+	private void shade(int begin, int end, Queues queues, ShadingContext context) {
+		MutableRay ray = context.primaryRay;
+		MutableRay rayToLight = context.shadowRay;
+		Point point = context.samplePoint;
+		Vec color = context.sampleColor;
+		for (int node = begin, shadowRay = 0; node < end; ++node) {
+			Hit hit = queues.hits[node];
+			if (hit == null) {
+				queues.setColor(node, backgroundColor);
+				continue;
+			}
+			queues.ray(node, ray);
+			point.set(queues.px[node], queues.py[node], queues.pz[node]);
+			scene.getAmbientReflection(hit.getSurface(), color);
+			for (Light light : lights) {
+				queues.shadowRay(shadowRay, rayToLight);
+				Vec lightIntensity = light.intensity(point, rayToLight, context.lightIntensity);
+				if (!queues.occluded[shadowRay++]) {
+					Vec diffuse = scene.getDiffuseReflection(hit, rayToLight, context);
+					Vec specular = scene.getSpecularReflection(hit, ray, rayToLight, context);
+					color.add(diffuse.add(specular, diffuse).mult(lightIntensity, diffuse), color);
+				}
+			}
+			queues.setColor(node, color);
+		}
+	}
+
+	// Stage 6: the reflected and refracted rays of the hits, which form the next batch.
+	// Russian roulette draws from the sample and the path of every ray, like Scene.calcColor.
+	private void spawn(int x0, int y0, int x1, int begin, int end, Queues queues, ShadingContext context) {
+		ShadingContext.Frame frame = context.frame(0);
+		MutableRay ray = context.primaryRay;
+		Point point = frame.hittingPoint;
+		Vec weight = frame.weight;
+		Vec childWeight = frame.secondaryColor;
+		for (int node = begin; node < end; ++node) {
+			Hit hit = queues.hits[node];
+			if (hit == null)
+				continue;
+			Surface surface = hit.getSurface();
+			boolean reflect = renderReflections && surface.isReflecting();
+			boolean refract = renderRefractions && surface.isTransparent();
+			if (!reflect && !refract)
+				continue;
+			queues.ray(node, ray);
+			point.set(queues.px[node], queues.py[node], queues.pz[node]);
+			weight.set(queues.wr[node], queues.wg[node], queues.wb[node]);
+			int root = queues.treeRoots[node];
+			int pixel = queues.rootPixels[root];
+			int x = x0 + pixel % (x1 - x0);
+			int y = y0 + pixel / (x1 - x0);
+			int sample = queues.rootSamples[root];
+			long path = queues.paths[node];
+			if (reflect) {
+				double survival = scene.survivalProbability(weight.mult(surface.Kr(), childWeight), x, y, sample,
+						2 * path);
+				if (survival > 0) {
+					// Pushing may grow the queues, so the child is linked only after it is pushed.
+					int child = queues.push(scene.getReflectedRay(ray, hit, point, frame), childWeight, root,
+							2 * path);
+					queues.reflection[node] = child;
+					queues.reflectionSurvival[node] = survival;
+					++context.counters.reflectionRays;
+				}
+			}
+			if (refract) {
+				double survival = scene.survivalProbability(weight.mult(surface.Kt(), childWeight), x, y, sample,
+						2 * path + 1);
+				if (survival > 0) {
+					int child = queues.push(scene.getRefractedRay(ray, hit, point, frame), childWeight, root,
+							2 * path + 1);
+					queues.refraction[node] = child;
+					queues.refractionSurvival[node] = survival;
+					++context.counters.refractionRays;
+				}
+			}
+		}
+	}
+
+	// Adds the colors of the children of every node to its local color. Children are always queued after
+	// their parent, so going backwards every node is complete by the time its parent adds it.
+	private void combine(Queues queues, ShadingContext context) {
+		Vec color = context.pixelColor;
+		Vec secondaryColor = context.sampleColor;
+		for (int node = queues.size - 1; node >= 0; --node) {
+			int reflection = queues.reflection[node];
+			int refraction = queues.refraction[node];
+			if (reflection < 0 && refraction < 0)
+				continue;
+			Surface surface = queues.hits[node].getSurface();
+			color.set(queues.r[node], queues.g[node], queues.b[node]);
+			if (reflection >= 0) {
+				addSecondaryColor(queues, reflection, surface.Kr(), queues.reflectionSurvival[node], color,
+						secondaryColor);
+			}
+			if (refraction >= 0) {
+				addSecondaryColor(queues, refraction, surface.Kt(), queues.refractionSurvival[node], color,
+						secondaryColor);
+			}
+			queues.setColor(node, color);
+		}
+	}
+
+	private static void addSecondaryColor(Queues queues, int child, Vec k, double survival, Vec color,
+			Vec secondaryColor) {
+		secondaryColor.set(queues.r[child], queues.g[child], queues.b[child]);
+		secondaryColor.mult(k, secondaryColor);
+		if (survival < 1) {
+			secondaryColor.mult(1 / survival, secondaryColor);
+		}
+		color.add(secondaryColor, color);
+	}
+
+	/**
+	 * The rays of a region, as a structure of arrays which grows as needed and is reused for the next region.
+	 */
+	private static final class Queues {
+		private static final int INITIAL_CAPACITY = 1024;
+
+		// The nodes: the ray, its weight, its closest hit and hitting point, its color, and its children
+		// (-1 for none) with the probabilities they survived termination with, the primary ray of its tree and
+		// its path from it (see Sampler.pathRandom).
+		double[] ox, oy, oz, dx, dy, dz;
+		double[] wr, wg, wb;
+		Hit[] hits;
+		double[] px, py, pz;
+		double[] r, g, b;
+		int[] reflection, refraction;
+		double[] reflectionSurvival, refractionSurvival;
+		int[] treeRoots;
+		long[] paths;
+		int size = 0;
+
+		// The primary rays come first, and every one of them knows its pixel and the index of its sample.
+		int[] rootPixels = new int[INITIAL_CAPACITY];
+		int[] rootSamples = new int[INITIAL_CAPACITY];
+		int roots = 0;
+
+		// The accumulated colors of the pixels of the region.
+		double[] pixelR = new double[0], pixelG = new double[0], pixelB = new double[0];
+
+		// The shadow rays of the current batch, one per hit and light source, and whether they are occluded.
+		double[] sox, soy, soz, sdx, sdy, sdz;
+		boolean[] occluded;
+		int shadowSize = 0;
+
+		private final Point source = new Point();
+		private final Vec direction = new Vec();
+
+		Queues() {
+			growNodes(INITIAL_CAPACITY);
+			growShadowRays(INITIAL_CAPACITY);
+		}
+
+		void clear() {
+			size = 0;
+			roots = 0;
+			shadowSize = 0;
+		}
+
+		void clearPixels(int numPixels) {
+			if (pixelR.length < numPixels) {
+				pixelR = new double[numPixels];
+				pixelG = new double[numPixels];
+				pixelB = new double[numPixels];
+			}
+			Arrays.fill(pixelR, 0, numPixels, 0);
+			Arrays.fill(pixelG, 0, numPixels, 0);
+			Arrays.fill(pixelB, 0, numPixels, 0);
+		}
+
+		void setPixelColor(int pixel, Vec color) {
+			pixelR[pixel] = color.x;
+			pixelG[pixel] = color.y;
+			pixelB[pixel] = color.z;
+		}
+
+		// Primary rays must be pushed before any other ray of the round.
+		void pushRoot(Ray ray, int pixel, int sample) {
+			if (roots == rootPixels.length) {
+				rootPixels = Arrays.copyOf(rootPixels, 2 * roots);
+				rootSamples = Arrays.copyOf(rootSamples, 2 * roots);
+			}
+			rootPixels[roots] = pixel;
+			rootSamples[roots] = sample;
+			push(ray, 1, 1, 1, roots++, 1);
+		}
+
+		// Drops the references to the hits of the last region.
+		void release() {
+			Arrays.fill(hits, 0, size, null);
+			clear();
+		}
+
+		int push(Ray ray, Vec weight, int root, long path) {
+			return push(ray, weight.x, weight.y, weight.z, root, path);
+		}
+
+		int push(Ray ray, double wr, double wg, double wb, int root, long path) {
+			if (size == ox.length)
+				growNodes(2 * size);
+			int node = size++;
+			Point o = ray.source();
+			Vec d = ray.direction();
+			ox[node] = o.x;
+			oy[node] = o.y;
+			oz[node] = o.z;
+			dx[node] = d.x;
+			dy[node] = d.y;
+			dz[node] = d.z;
+			this.wr[node] = wr;
+			this.wg[node] = wg;
+			this.wb[node] = wb;
+			hits[node] = null;
+			reflection[node] = -1;
+			refraction[node] = -1;
+			treeRoots[node] = root;
+			paths[node] = path;
+			return node;
+		}
+
+		MutableRay ray(int node, MutableRay dest) {
+			return dest.set(source.set(ox[node], oy[node], oz[node]), direction.set(dx[node], dy[node], dz[node]));
+		}
+
+		void setColor(int node, Vec color) {
+			r[node] = color.x;
+			g[node] = color.y;
+			b[node] = color.z;
+		}
+
+		void clearShadowRays() {
+			shadowSize = 0;
+		}
+
+		void pushShadowRay(MutableRay ray) {
+			if (shadowSize == sox.length)
+				growShadowRays(2 * shadowSize);
+			int i = shadowSize++;
+			Point o = ray.source();
+			Vec d = ray.direction();
+			sox[i] = o.x;
+			soy[i] = o.y;
+			soz[i] = o.z;
+			sdx[i] = d.x;
+			sdy[i] = d.y;
+			sdz[i] = d.z;
+		}
+
+		MutableRay shadowRay(int i, MutableRay dest) {
+			return dest.set(source.set(sox[i], soy[i], soz[i]), direction.set(sdx[i], sdy[i], sdz[i]));
+		}
+
+		private void growNodes(int capacity) {
+			ox = grow(ox, capacity);
+			oy = grow(oy, capacity);
+			oz = grow(oz, capacity);
+			dx = grow(dx, capacity);
+			dy = grow(dy, capacity);
+			dz = grow(dz, capacity);
+			wr = grow(wr, capacity);
+			wg = grow(wg, capacity);
+			wb = grow(wb, capacity);
+			hits = hits == null ? new Hit[capacity] : Arrays.copyOf(hits, capacity);
+			px = grow(px, capacity);
+			py = grow(py, capacity);
+			pz = grow(pz, capacity);
+			r = grow(r, capacity);
+			g = grow(g, capacity);
+			b = grow(b, capacity);
+			reflection = reflection == null ? new int[capacity] : Arrays.copyOf(reflection, capacity);
+			refraction = refraction == null ? new int[capacity] : Arrays.copyOf(refraction, capacity);
+			reflectionSurvival = grow(reflectionSurvival, capacity);
+			refractionSurvival = grow(refractionSurvival, capacity);
+			treeRoots = treeRoots == null ? new int[capacity] : Arrays.copyOf(treeRoots, capacity);
+			paths = paths == null ? new long[capacity] : Arrays.copyOf(paths, capacity);
+		}
+
+		private void growShadowRays(int capacity) {
+			sox = grow(sox, capacity);
+			soy = grow(soy, capacity);
+			soz = grow(soz, capacity);
+			sdx = grow(sdx, capacity);
+			sdy = grow(sdy, capacity);
+			sdz = grow(sdz, capacity);
+			occluded = occluded == null ? new boolean[capacity] : Arrays.copyOf(occluded, capacity);
+		}
+
+		private static double[] grow(double[] array, int capacity) {
+			return array == null ? new double[capacity] : Arrays.copyOf(array, capacity);
+		}
+	}
+}
@@ -0,0 +1,644 @@
+package edu.cg.scene.acceleration;
+
+import java.util.List;
+
+import edu.cg.algebra.Bounds;
+import edu.cg.algebra.Hit;
+import edu.cg.algebra.Ops;
+import edu.cg.algebra.Ray;
+import edu.cg.algebra.SlabTest;
+import edu.cg.algebra.Vec;
+import edu.cg.scene.objects.AxisAlignedBox;
+import edu.cg.scene.objects.Sphere;
+import edu.cg.scene.objects.Surface;
+import edu.cg.scene.rendering.RenderStats;
+
+/**
+ * A bounding volume hierarchy over the bounded surfaces of a scene.
+ * The hierarchy is built top-down using the binned surface area heuristic (SAH) and is stored
+ * in flat arrays, so a closest-hit query visits O(log n) nodes instead of testing every surface.
+ * Once built, the hierarchy is immutable and may be queried concurrently by any number of threads.
+ *
+ * Spheres are stored first in every leaf and are also packed into a SphereBuffer, so a leaf's spheres
+ * are tested by a single batched kernel call. Only the closest hit of a query is turned into a Hit object.
+ * Coherent bundles of rays (e.g., the primary rays of neighboring pixels) can be traced together as a RayPacket.
+ * Every query counts the nodes it visits and the intersection tests it takes in the RenderStats counters
+ * of the calling thread.
+ * A built hierarchy may be saved and loaded again by BVHCache, which skips the build.
+ */
+public class BVH {
+	private static final int NUM_BINS = 12;
+	private static final int MAX_LEAF_SIZE = 4;
+	private static final int MAX_DEPTH = 64;
+	private static final double TRAVERSAL_COST = 1.0;
+	private static final double INTERSECTION_COST = 1.0;
+
+	private static final int KERNEL_BATCH = 8;
+	// A packet is split into single rays once fewer than 1 / MIN_ACTIVE_FRACTION of its rays hit a node.
+	private static final int MIN_ACTIVE_FRACTION = 4;
+
+	// Traversal stacks, kernel outputs and query states are reused per thread, so queries do not allocate.
+	private static final ThreadLocal<int[]> STACKS = ThreadLocal.withInitial(() -> new int[2 * MAX_DEPTH]);
+	private static final ThreadLocal<int[]> PACKET_STACKS = ThreadLocal.withInitial(() -> new int[4 * MAX_DEPTH]);
+	private static final ThreadLocal<double[]> DISTANCES = ThreadLocal.withInitial(() -> new double[KERNEL_BATCH]);
+	private static final ThreadLocal<RayPacket> SINGLE_RAYS = ThreadLocal.withInitial(RayPacket::new);
+
+	// Node layout: nodeBounds holds minX, minY, minZ, maxX, maxY, maxZ of every node.
+	// For an inner node, nodeCount is 0 and nodeIndex is the index of its left child (the right child is nodeIndex + 1).
+	// For a leaf, nodeCount is the number of surfaces and nodeIndex is the index of the first surface.
+	// The nodes and surfaceIds are all BVHCache needs to restore the hierarchy.
+	double[] nodeBounds;
+	int[] nodeIndex;
+	int[] nodeCount;
+	// The number of spheres at the beginning of every leaf.
+	int[] nodeSphereCount;
+	int numNodes;
+	private final Surface[] surfaces;
+	// The position of every surface in the list the hierarchy was built from, used to break ties
+	// between coincident hits the same way a linear scan over the list would.
+	final int[] surfaceIds;
+	private final SphereBuffer spheres;
+	// Whether the surface in every slot is a box, to count the intersection tests by shape.
+	private final boolean[] isBox;
+	// Whether the hierarchy was loaded by BVHCache rather than built.
+	private final boolean loaded;
+
+	// Build-time data
+	private double[] primBounds;
+	private double[] primCentroids;
+	private int[] order;
+	private boolean[] isSphere;
+
+	/**
+	 * Builds a hierarchy over the given surfaces. All surfaces must be bounded.
+	 * @param surfaces - the surfaces to build the hierarchy over.
+	 */
+	public BVH(List<Surface> surfaces) {
+		int n = surfaces.size();
+		this.surfaces = new Surface[n];
+		this.surfaceIds = new int[n];
+		primBounds = new double[6 * n];
+		primCentroids = new double[3 * n];
+		order = new int[n];
+		isSphere = new boolean[n];
+
+		int i = 0;
+		for (Surface surface : surfaces) {
+			Bounds bounds = surface.bounds();
+			if (bounds == null)
+				throw new IllegalArgumentException("The BVH can only be built over bounded surfaces.");
+			this.surfaces[i] = surface;
+			primBounds[6 * i] = bounds.min().x - Ops.epsilon;
+			primBounds[6 * i + 1] = bounds.min().y - Ops.epsilon;
+			primBounds[6 * i + 2] = bounds.min().z - Ops.epsilon;
+			primBounds[6 * i + 3] = bounds.max().x + Ops.epsilon;
+			primBounds[6 * i + 4] = bounds.max().y + Ops.epsilon;
+			primBounds[6 * i + 5] = bounds.max().z + Ops.epsilon;
+			for (int axis = 0; axis < 3; ++axis)
+				primCentroids[3 * i + axis] = 0.5 * (primBounds[6 * i + axis] + primBounds[6 * i + 3 + axis]);
+			order[i] = i;
+			isSphere[i] = surface.shape() instanceof Sphere;
+			++i;
+		}
+
+		int maxNodes = Math.max(1, 2 * n - 1);
+		nodeBounds = new double[6 * maxNodes];
+		nodeIndex = new int[maxNodes];
+		nodeCount = new int[maxNodes];
+		nodeSphereCount = new int[maxNodes];
+		numNodes = 1;
+		if (n > 0)
+			build(0, 0, n, 0);
+
+		Surface[] ordered = new Surface[n];
+		for (i = 0; i < n; ++i) {
+			ordered[i] = this.surfaces[order[i]];
+			surfaceIds[i] = order[i];
+		}
+		System.arraycopy(ordered, 0, this.surfaces, 0, n);
+
+		spheres = new SphereBuffer(n);
+		isBox = new boolean[n];
+		packShapes();
+		loaded = false;
+
+		primBounds = null;
+		primCentroids = null;
+		order = null;
+		isSphere = null;
+	}
+
+	/**
+	 * Restores a hierarchy saved by BVHCache over the same surfaces, in the same order.
+	 * The nodes must be valid for the surfaces (see BVHCache).
+	 */
+	BVH(List<Surface> surfaces, double[] nodeBounds, int[] nodeIndex, int[] nodeCount, int[] nodeSphereCount,
+			int[] surfaceIds) {
+		int n = surfaces.size();
+		this.nodeBounds = nodeBounds;
+		this.nodeIndex = nodeIndex;
+		this.nodeCount = nodeCount;
+		this.nodeSphereCount = nodeSphereCount;
+		numNodes = nodeIndex.length;
+		this.surfaceIds = surfaceIds;
+		this.surfaces = new Surface[n];
+		for (int i = 0; i < n; ++i)
+			this.surfaces[i] = surfaces.get(surfaceIds[i]);
+		spheres = new SphereBuffer(n);
+		isBox = new boolean[n];
+		packShapes();
+		loaded = true;
+	}
+
+	private void packShapes() {
+		for (int i = 0; i < surfaces.length; ++i) {
+			if (surfaces[i].shape() instanceof Sphere)
+				spheres.set(i, (Sphere) surfaces[i].shape());
+			isBox[i] = surfaces[i].shape() instanceof AxisAlignedBox;
+		}
+	}
+
+	public int size() {
+		return surfaces.length;
+	}
+
+	public int numNodes() {
+		return numNodes;
+	}
+
+	/**
+	 * @return whether the hierarchy was loaded from a BVHCache file instead of being built.
+	 */
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	private void build(int node, int start, int end, int depth) {
+		int count = end - start;
+		double[] centroidBounds = { Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY,
+				Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY };
+		initEmpty(nodeBounds, 6 * node);
+		for (int i = start; i < end; ++i) {
+			int prim = order[i];
+			grow(nodeBounds, 6 * node, primBounds, 6 * prim);
+			for (int axis = 0; axis < 3; ++axis) {
+				double c = primCentroids[3 * prim + axis];
+				centroidBounds[axis] = Math.min(centroidBounds[axis], c);
+				centroidBounds[3 + axis] = Math.max(centroidBounds[3 + axis], c);
+			}
+		}
+
+		if (count <= MAX_LEAF_SIZE || depth >= MAX_DEPTH - 2) {
+			makeLeaf(node, start, count);
+			return;
+		}
+
+		// Find the best split using binned SAH.
+		int bestAxis = -1;
+		int bestBin = -1;
+		double bestCost = Double.POSITIVE_INFINITY;
+		int[] binCounts = new int[NUM_BINS];
+		double[] binBounds = new double[6 * NUM_BINS];
+		double[] rightAreas = new double[NUM_BINS];
+		double[] acc = new double[6];
+		for (int axis = 0; axis < 3; ++axis) {
+			double cMin = centroidBounds[axis];
+			double cMax = centroidBounds[3 + axis];
+			if (cMax - cMin <= 0)
+				continue;
+			double scale = NUM_BINS / (cMax - cMin);
+
+			for (int b = 0; b < NUM_BINS; ++b) {
+				binCounts[b] = 0;
+				initEmpty(binBounds, 6 * b);
+			}
+			for (int i = start; i < end; ++i) {
+				int prim = order[i];
+				int b = binOf(primCentroids[3 * prim + axis], cMin, scale);
+				++binCounts[b];
+				grow(binBounds, 6 * b, primBounds, 6 * prim);
+			}
+
+			// Sweep from the right to collect the areas of the right sides.
+			initEmpty(acc, 0);
+			for (int b = NUM_BINS - 1; b > 0; --b) {
+				grow(acc, 0, binBounds, 6 * b);
+				rightAreas[b] = area(acc, 0);
+			}
+
+			// Sweep from the left and evaluate the cost of splitting after every bin.
+			initEmpty(acc, 0);
+			int leftCount = 0;
+			for (int b = 0; b < NUM_BINS - 1; ++b) {
+				grow(acc, 0, binBounds, 6 * b);
+				leftCount += binCounts[b];
+				int rightCount = count - leftCount;
+				if (leftCount == 0 || rightCount == 0)
+					continue;
+				double cost = leftCount * area(acc, 0) + rightCount * rightAreas[b + 1];
+				if (cost < bestCost) {
+					bestCost = cost;
+					bestAxis = axis;
+					bestBin = b;
+				}
+			}
+		}
+
+		double nodeArea = area(nodeBounds, 6 * node);
+		double leafCost = INTERSECTION_COST * count;
+		double splitCost = TRAVERSAL_COST + INTERSECTION_COST * bestCost / nodeArea;
+
+		int mid;
+		if (bestAxis < 0) {
+			// All centroids coincide - no SAH split is possible, so split in the middle.
+			mid = start + count / 2;
+		} else {
+			if (splitCost >= leafCost && count <= 4 * MAX_LEAF_SIZE) {
+				makeLeaf(node, start, count);
+				return;
+			}
+			double cMin = centroidBounds[bestAxis];
+			double scale = NUM_BINS / (centroidBounds[3 + bestAxis] - cMin);
+			mid = partition(start, end, bestAxis, bestBin, cMin, scale);
+			if (mid == start || mid == end)
+				mid = start + count / 2;
+		}
+
+		int left = numNodes;
+		numNodes += 2;
+		nodeIndex[node] = left;
+		nodeCount[node] = 0;
+		build(left, start, mid, depth + 1);
+		build(left + 1, mid, end, depth + 1);
+	}
+
+	private int partition(int start, int end, int axis, int splitBin, double cMin, double scale) {
+		int i = start;
+		int j = end - 1;
+		while (i <= j) {
+			if (binOf(primCentroids[3 * order[i] + axis], cMin, scale) <= splitBin) {
+				++i;
+			} else {
+				int tmp = order[i];
+				order[i] = order[j];
+				order[j] = tmp;
+				--j;
+			}
+		}
+		return i;
+	}
+
+	private void makeLeaf(int node, int start, int count) {
+		// Move the spheres to the beginning of the leaf, keeping the relative order of the surfaces.
+		int[] leaf = new int[count];
+		int numSpheres = 0;
+		for (int i = start; i < start + count; ++i)
+			if (isSphere[order[i]])
+				leaf[numSpheres++] = order[i];
+		int k = numSpheres;
+		for (int i = start; i < start + count; ++i)
+			if (!isSphere[order[i]])
+				leaf[k++] = order[i];
+		System.arraycopy(leaf, 0, order, start, count);
+
+		nodeIndex[node] = start;
+		nodeCount[node] = count;
+		nodeSphereCount[node] = numSpheres;
+	}
+
+	private static int binOf(double centroid, double cMin, double scale) {
+		int b = (int) ((centroid - cMin) * scale);
+		return Math.min(NUM_BINS - 1, Math.max(0, b));
+	}
+
+	private static void initEmpty(double[] box, int offset) {
+		for (int axis = 0; axis < 3; ++axis) {
+			box[offset + axis] = Double.POSITIVE_INFINITY;
+			box[offset + 3 + axis] = Double.NEGATIVE_INFINITY;
+		}
+	}
+
+	private static void grow(double[] box, int offset, double[] other, int otherOffset) {
+		for (int axis = 0; axis < 3; ++axis) {
+			box[offset + axis] = Math.min(box[offset + axis], other[otherOffset + axis]);
+			box[offset + 3 + axis] = Math.max(box[offset + 3 + axis], other[otherOffset + 3 + axis]);
+		}
+	}
+
+	private static double area(double[] box, int offset) {
+		double dx = box[offset + 3] - box[offset];
+		double dy = box[offset + 4] - box[offset + 1];
+		double dz = box[offset + 5] - box[offset + 2];
+		if (dx < 0 || dy < 0 || dz < 0)
+			return 0;
+		return 2 * (dx * dy + dy * dz + dz * dx);
+	}
+
+	/**
+	 * Finds the closest intersection of the ray with the surfaces of the hierarchy.
+	 * @param ray - the ray to intersect.
+	 * @param tMax - only hits closer than tMax are considered (a hit exactly at tMax loses the tie).
+	 * @return the closest hit which is closer than tMax, or null if there is no such hit.
+	 */
+	public Hit closestHit(Ray ray, double tMax) {
+		if (surfaces.length == 0)
+			return null;
+
+		RayPacket single = SINGLE_RAYS.get();
+		single.clear();
+		single.add(ray, tMax);
+		traverse(0, single, 0, STACKS.get(), RenderStats.Counters.get());
+		Hit hit = materialize(single, 0);
+		single.clear();
+		return hit;
+	}
+
+	/**
+	 * Finds the closest intersection of every ray of the packet with the surfaces of the hierarchy,
+	 * with the same results closestHit gives for every ray on its own.
+	 * A coherent packet is traversed as a whole, and a node is culled for the whole packet by a single
+	 * interval test. Once too few of the rays still hit a node, the packet has diverged, and each of the
+	 * remaining rays finishes the traversal of that subtree on its own.
+	 * Incoherent packets are traced ray by ray.
+	 * @param packet - the rays to intersect. The results are read with packet.hit(k).
+	 */
+	public void closestHits(RayPacket packet) {
+		int size = packet.size;
+		if (size == 0 || surfaces.length == 0)
+			return;
+		packet.prepare();
+		RenderStats.Counters counters = RenderStats.Counters.get();
+		if (!packet.coherent) {
+			for (int k = 0; k < size; ++k)
+				traverse(0, packet, k, STACKS.get(), counters);
+		} else {
+			traversePacket(packet, counters);
+		}
+		for (int k = 0; k < size; ++k)
+			packet.closest[k] = materialize(packet, k);
+	}
+
+	private void traversePacket(RayPacket packet, RenderStats.Counters counters) {
+		int size = packet.size;
+		int minActive = Math.max(1, size / MIN_ACTIVE_FRACTION);
+		int[] raysStack = STACKS.get();
+		// Every entry of the stack is a node and the first ray of the packet which may hit it.
+		int[] stack = PACKET_STACKS.get();
+		int top = 0;
+		stack[top++] = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int first = stack[--top];
+			int node = stack[--top];
+			++counters.nodeVisits;
+
+			// Find the first ray which hits the node. The rays after it are likely to hit the node as well,
+			// so they are not tested here. If the first ray misses, the whole packet may miss the node,
+			// which the interval test can tell before any other ray is tested.
+			if (!hitsNode(node, packet, first)) {
+				if (packetMisses(node, packet))
+					continue;
+				do {
+					++first;
+				} while (first < size && !hitsNode(node, packet, first));
+				if (first == size)
+					continue;
+			}
+
+			if (nodeCount[node] > 0) {
+				intersectLeaf(node, packet, first, counters);
+				for (int k = first + 1; k < size; ++k)
+					if (hitsNode(node, packet, k))
+						intersectLeaf(node, packet, k, counters);
+			} else if (size - first <= minActive) {
+				// The packet has diverged, the rays which are left are cheaper to trace one by one.
+				for (int k = first; k < size; ++k)
+					traverse(node, packet, k, raysStack, counters);
+			} else {
+				// Visit the child which is nearer to the first active ray first.
+				int k = first;
+				int left = nodeIndex[node];
+				double tLeft = boxEntry(left, packet, k);
+				double tRight = boxEntry(left + 1, packet, k);
+				int near = tLeft <= tRight ? left : left + 1;
+				int far = near == left ? left + 1 : left;
+				stack[top++] = far;
+				stack[top++] = first;
+				stack[top++] = near;
+				stack[top++] = first;
+			}
+		}
+	}
+
+	private boolean hitsNode(int node, RayPacket packet, int k) {
+		return boxEntry(node, packet, k) != Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * Traverses the subtree of root with the k-th ray of the packet, updating the ray's closest hit.
+	 */
+	private void traverse(int root, RayPacket packet, int k, int[] stack, RenderStats.Counters counters) {
+		double ox = packet.ox[k], oy = packet.oy[k], oz = packet.oz[k];
+		double idx = packet.idx[k], idy = packet.idy[k], idz = packet.idz[k];
+		int signX = packet.signX[k], signY = packet.signY[k], signZ = packet.signZ[k];
+
+		int top = 0;
+		stack[top++] = root;
+		int visits = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			++visits;
+			double tMax = packet.tMax[k];
+			if (boxEntry(node, ox, oy, oz, idx, idy, idz, signX, signY, signZ, tMax) == Double.POSITIVE_INFINITY)
+				continue;
+
+			if (nodeCount[node] > 0) {
+				intersectLeaf(node, packet, k, counters);
+			} else {
+				// Visit the nearer child first, so the farther one can be culled by a shorter tMax.
+				int left = nodeIndex[node];
+				double tLeft = boxEntry(left, ox, oy, oz, idx, idy, idz, signX, signY, signZ, tMax);
+				double tRight = boxEntry(left + 1, ox, oy, oz, idx, idy, idz, signX, signY, signZ, tMax);
+				if (tLeft <= tRight) {
+					if (tRight != Double.POSITIVE_INFINITY)
+						stack[top++] = left + 1;
+					if (tLeft != Double.POSITIVE_INFINITY)
+						stack[top++] = left;
+				} else {
+					if (tLeft != Double.POSITIVE_INFINITY)
+						stack[top++] = left;
+					stack[top++] = left + 1;
+				}
+			}
+		}
+		counters.nodeVisits += visits;
+	}
+
+	/**
+	 * Intersects the k-th ray of the packet with the surfaces of a leaf, updating the ray's closest hit.
+	 */
+	private void intersectLeaf(int node, RayPacket packet, int k, RenderStats.Counters counters) {
+		double ox = packet.ox[k], oy = packet.oy[k], oz = packet.oz[k];
+		double dx = packet.dx[k], dy = packet.dy[k], dz = packet.dz[k];
+		double tMax = packet.tMax[k];
+		int closestSlot = packet.closestSlot[k];
+		Hit closest = packet.closest[k];
+
+		int first = nodeIndex[node];
+		int end = first + nodeSphereCount[node];
+		double[] distances = DISTANCES.get();
+		for (int batch = first; batch < end; batch += KERNEL_BATCH) {
+			int batchEnd = Math.min(end, batch + KERNEL_BATCH);
+			spheres.intersect(batch, batchEnd, ox, oy, oz, dx, dy, dz, distances);
+			for (int i = batch; i < batchEnd; ++i) {
+				double t = distances[i - batch];
+				if (isCloser(t, i, tMax, closestSlot)) {
+					closestSlot = i;
+					closest = null;
+					tMax = t;
+				}
+			}
+		}
+		counters.sphereTests += end - first;
+		for (int i = end; i < first + nodeCount[node]; ++i) {
+			countTest(i, counters);
+			Hit hit = surfaces[i].intersect(packet.rays[k]);
+			if (hit != null && isCloser(hit.t(), i, tMax, closestSlot)) {
+				closestSlot = i;
+				closest = hit;
+				tMax = hit.t();
+			}
+		}
+
+		packet.tMax[k] = tMax;
+		packet.closestSlot[k] = closestSlot;
+		packet.closest[k] = closest;
+	}
+
+	private void countTest(int slot, RenderStats.Counters counters) {
+		if (isBox[slot])
+			++counters.boxTests;
+		else
+			++counters.otherTests;
+	}
+
+	// Sphere hits are only turned into Hit objects once the traversal is over.
+	private Hit materialize(RayPacket packet, int k) {
+		int closestSlot = packet.closestSlot[k];
+		if (closestSlot >= 0 && packet.closest[k] == null)
+			return surfaces[closestSlot].intersect(packet.rays[k]);
+		return packet.closest[k];
+	}
+
+	// Ties between coincident surfaces are broken by the order of the original list.
+	private boolean isCloser(double t, int slot, double tMax, int closestSlot) {
+		return t < tMax || (t == tMax && closestSlot >= 0 && surfaceIds[slot] < surfaceIds[closestSlot]);
+	}
+
+	/**
+	 * Interval version of the slab test, for a coherent packet: bounds the entry and exit distances of all of
+	 * the packet's rays at once, using the intervals of their origins and inverse directions.
+	 * @return true if none of the rays of the packet can hit the node.
+	 */
+	private boolean packetMisses(int node, RayPacket packet) {
+		int offset = 6 * node;
+		double tNear = 0;
+		double tFar = packet.maxTMax;
+
+		// With a fixed sign of the direction, the near and far slabs are the same for all the rays.
+		double near = packet.minIdx > 0 ? nodeBounds[offset] : nodeBounds[offset + 3];
+		double far = packet.minIdx > 0 ? nodeBounds[offset + 3] : nodeBounds[offset];
+		tNear = Math.max(tNear, lowerProduct(near - packet.maxOx, near - packet.minOx, packet.minIdx, packet.maxIdx));
+		tFar = Math.min(tFar, upperProduct(far - packet.maxOx, far - packet.minOx, packet.minIdx, packet.maxIdx));
+
+		near = packet.minIdy > 0 ? nodeBounds[offset + 1] : nodeBounds[offset + 4];
+		far = packet.minIdy > 0 ? nodeBounds[offset + 4] : nodeBounds[offset + 1];
+		tNear = Math.max(tNear, lowerProduct(near - packet.maxOy, near - packet.minOy, packet.minIdy, packet.maxIdy));
+		tFar = Math.min(tFar, upperProduct(far - packet.maxOy, far - packet.minOy, packet.minIdy, packet.maxIdy));
+
+		near = packet.minIdz > 0 ? nodeBounds[offset + 2] : nodeBounds[offset + 5];
+		far = packet.minIdz > 0 ? nodeBounds[offset + 5] : nodeBounds[offset + 2];
+		tNear = Math.max(tNear, lowerProduct(near - packet.maxOz, near - packet.minOz, packet.minIdz, packet.maxIdz));
+		tFar = Math.min(tFar, upperProduct(far - packet.maxOz, far - packet.minOz, packet.minIdz, packet.maxIdz));
+
+		return tNear > tFar;
+	}
+
+	// The bounds of the product of the intervals [a0, a1] and [b0, b1].
+	private static double lowerProduct(double a0, double a1, double b0, double b1) {
+		return Math.min(Math.min(a0 * b0, a0 * b1), Math.min(a1 * b0, a1 * b1));
+	}
+
+	private static double upperProduct(double a0, double a1, double b0, double b1) {
+		return Math.max(Math.max(a0 * b0, a0 * b1), Math.max(a1 * b0, a1 * b1));
+	}
+
+	/**
+	 * Checks if the ray hits any of the surfaces of the hierarchy closer than tMax.
+	 * The traversal stops at the first occluder found and allocates nothing.
+	 * @param ray - the ray to intersect.
+	 * @param tMax - the maximal distance along the ray to consider.
+	 * @return true if some surface is hit at a distance in (epsilon, tMax).
+	 */
+	public boolean anyHit(Ray ray, double tMax) {
+		if (surfaces.length == 0)
+			return false;
+
+		double ox = ray.source().x, oy = ray.source().y, oz = ray.source().z;
+		double dx = ray.direction().x, dy = ray.direction().y, dz = ray.direction().z;
+		Vec inverseDirection = ray.inverseDirection();
+		double idx = inverseDirection.x, idy = inverseDirection.y, idz = inverseDirection.z;
+		int signX = ray.sign(0), signY = ray.sign(1), signZ = ray.sign(2);
+
+		int[] stack = STACKS.get();
+		RenderStats.Counters counters = RenderStats.Counters.get();
+		int top = 0;
+		stack[top++] = 0;
+		while (top > 0) {
+			int node = stack[--top];
+			++counters.nodeVisits;
+			if (boxEntry(node, ox, oy, oz, idx, idy, idz, signX, signY, signZ, tMax) == Double.POSITIVE_INFINITY)
+				continue;
+
+			int count = nodeCount[node];
+			if (count > 0) {
+				int first = nodeIndex[node];
+				int end = first + nodeSphereCount[node];
+				// All the spheres of the leaf are counted, though the kernel stops at the first one which is hit.
+				counters.sphereTests += end - first;
+				if (spheres.anyHit(first, end, ox, oy, oz, dx, dy, dz, tMax))
+					return true;
+				for (int i = end; i < first + count; ++i) {
+					countTest(i, counters);
+					if (surfaces[i].intersects(ray, tMax))
+						return true;
+				}
+			} else {
+				stack[top++] = nodeIndex[node] + 1;
+				stack[top++] = nodeIndex[node];
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Slab test of a ray against the bounds of a node.
+	 * @return the entry distance of the ray into the node, or infinity if the ray misses it within [0, tMax].
+	 */
+	private double boxEntry(int node, double ox, double oy, double oz,
+			double idx, double idy, double idz, int signX, int signY, int signZ, double tMax) {
+		return SlabTest.entry(nodeBounds, 6 * node, ox, oy, oz, idx, idy, idz, signX, signY, signZ, tMax);
+	}
+
+	// Slab test of the k-th ray of the packet against the bounds of a node.
+	private double boxEntry(int node, RayPacket packet, int k) {
+		return SlabTest.entry(nodeBounds, 6 * node, packet.ox[k], packet.oy[k], packet.oz[k],
+				packet.idx[k], packet.idy[k], packet.idz[k], packet.signX[k], packet.signY[k], packet.signZ[k],
+				packet.tMax[k]);
+	}
+
+	@Override
+	public String toString() {
+		return "BVH: " + surfaces.length + " surfaces, " + numNodes + " nodes" + (loaded ? ", loaded from cache" : "");
+	}
+}
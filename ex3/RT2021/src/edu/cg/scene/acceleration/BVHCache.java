@@ -0,0 +1,251 @@
+package edu.cg.scene.acceleration;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+import edu.cg.algebra.Bounds;
+import edu.cg.scene.objects.Sphere;
+import edu.cg.scene.objects.Surface;
+
+/**
+ * Keeps the BVH of a scene in a file next to the scene's file, so a large scene which is opened again is not
+ * built again. The file is keyed by a hash of what the build depends on: the bounds and the kind (sphere or not)
+ * of every surface, in order. When the scene changes, the key does not match, and the hierarchy is built again
+ * and saved over the old one.
+ *
+ * The nodes are saved as flat little-endian arrays, like the BVH keeps them, and are read back through a memory
+ * mapping of the file (FileChannel.map) by bulk copies, with no parsing:
+ *   "EX3BVH\0\0", int version, int nodes, long surfaces, byte[32] key
+ *   double[6 * nodes] bounds, int[nodes] index, int[nodes] count, int[nodes] sphere count, int[surfaces] ids
+ * A file which is damaged, of another version or of other surfaces is ignored and replaced.
+ * The cache only ever speeds the build up: failing to read or write a file never fails the render.
+ */
+public final class BVHCache {
+	public static final String EXTENSION = ".bvh";
+	// Changed whenever the build or the layout changes, so hierarchies of older versions are not used.
+	private static final int VERSION = 1;
+
+	private static final byte[] MAGIC = "EX3BVH\0\0".getBytes(StandardCharsets.US_ASCII);
+	private static final int KEY_SIZE = 32;
+	private static final int HEADER_SIZE = 24 + KEY_SIZE;
+	private static final int BUFFER_SIZE = 1 << 16;
+	// Deeper hierarchies do not fit the traversal stacks of the BVH.
+	private static final int MAX_DEPTH = 64;
+
+	private BVHCache() {
+	}
+
+	/**
+	 * @return the cache file of a scene file: the scene's file name with EXTENSION appended.
+	 */
+	public static Path sidecarOf(Path sceneFile) {
+		return sceneFile.resolveSibling(sceneFile.getFileName() + EXTENSION);
+	}
+
+	/**
+	 * Loads the hierarchy of the surfaces from the file if it holds one of the same surfaces, and otherwise
+	 * builds it and saves it to the file. All surfaces must be bounded.
+	 */
+	public static BVH get(List<Surface> surfaces, Path file) {
+		if (surfaces.isEmpty())
+			return new BVH(surfaces);
+		byte[] key = key(surfaces);
+		try {
+			BVH bvh = read(surfaces, key, file);
+			if (bvh != null)
+				return bvh;
+		} catch (IOException | RuntimeException e) {
+			// Treated as missing.
+		}
+		BVH bvh = new BVH(surfaces);
+		try {
+			write(bvh, key, file);
+		} catch (IOException e) {
+			// The hierarchy is just built again next time.
+		}
+		return bvh;
+	}
+
+	/**
+	 * @return a SHA-256 hash of what the hierarchy of the surfaces is built from.
+	 */
+	static byte[] key(List<Surface> surfaces) {
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has SHA-256.
+			throw new IllegalStateException(e);
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		buffer.putInt(VERSION).putInt(surfaces.size());
+		for (Surface surface : surfaces) {
+			if (buffer.remaining() < 49) {
+				buffer.flip();
+				digest.update(buffer);
+				buffer.clear();
+			}
+			Bounds bounds = surface.bounds();
+			buffer.putDouble(bounds.min().x).putDouble(bounds.min().y).putDouble(bounds.min().z);
+			buffer.putDouble(bounds.max().x).putDouble(bounds.max().y).putDouble(bounds.max().z);
+			buffer.put((byte) (surface.shape() instanceof Sphere ? 1 : 0));
+		}
+		buffer.flip();
+		digest.update(buffer);
+		return digest.digest();
+	}
+
+	// The hierarchy in the file, or null if the file is missing or holds the hierarchy of other surfaces.
+	private static BVH read(List<Surface> surfaces, byte[] key, Path file) throws IOException {
+		if (!Files.isRegularFile(file))
+			return null;
+		try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE)
+				return null;
+			ByteBuffer header = map(channel, 0, HEADER_SIZE);
+			byte[] magic = new byte[MAGIC.length];
+			header.get(magic);
+			if (!Arrays.equals(magic, MAGIC) || header.getInt() != VERSION)
+				return null;
+			int numNodes = header.getInt();
+			long numSurfaces = header.getLong();
+			byte[] fileKey = new byte[KEY_SIZE];
+			header.get(fileKey);
+			if (numSurfaces != surfaces.size() || !Arrays.equals(fileKey, key))
+				return null;
+			int n = surfaces.size();
+			if (numNodes < 1 || numNodes > 2 * n - 1)
+				throw new IOException(file + " has a corrupt header.");
+
+			long offset = HEADER_SIZE;
+			double[] nodeBounds = new double[6 * numNodes];
+			map(channel, offset, 48L * numNodes).asDoubleBuffer().get(nodeBounds);
+			offset += 48L * numNodes;
+			int[][] ints = { new int[numNodes], new int[numNodes], new int[numNodes], new int[n] };
+			for (int[] array : ints) {
+				map(channel, offset, 4L * array.length).asIntBuffer().get(array);
+				offset = align(offset + 4L * array.length);
+			}
+			int[] nodeIndex = ints[0], nodeCount = ints[1], nodeSphereCount = ints[2], surfaceIds = ints[3];
+			validate(surfaces, nodeIndex, nodeCount, nodeSphereCount, surfaceIds);
+			return new BVH(surfaces, nodeBounds, nodeIndex, nodeCount, nodeSphereCount, surfaceIds);
+		}
+	}
+
+	/**
+	 * Checks that the nodes form a tree the traversal can walk over the surfaces: the ids are a permutation of
+	 * the surfaces, every node but the root is the child of exactly one inner node, which comes before it, the
+	 * leaves cover every slot of the surfaces exactly once and start with their spheres, and the tree is not
+	 * deeper than the traversal stacks.
+	 */
+	private static void validate(List<Surface> surfaces, int[] nodeIndex, int[] nodeCount, int[] nodeSphereCount,
+			int[] surfaceIds) throws IOException {
+		int n = surfaces.size();
+		int numNodes = nodeIndex.length;
+		boolean[] seen = new boolean[n];
+		for (int id : surfaceIds) {
+			if (id < 0 || id >= n || seen[id])
+				throw new IOException("The surfaces of the hierarchy are not those of the scene.");
+			seen[id] = true;
+		}
+		// Every node is checked after its parent, so the depth of a node is known by the time it is checked.
+		boolean[] reached = new boolean[numNodes];
+		reached[0] = true;
+		int[] depths = new int[numNodes];
+		boolean[] covered = new boolean[n];
+		for (int node = 0; node < numNodes; ++node) {
+			if (!reached[node])
+				throw new IOException("The hierarchy has a node which is not in the tree.");
+			if (depths[node] >= MAX_DEPTH)
+				throw new IOException("The hierarchy is too deep.");
+			int index = nodeIndex[node];
+			int count = nodeCount[node];
+			if (count == 0) {
+				if (index <= node || index + 1 >= numNodes || reached[index] || reached[index + 1])
+					throw new IOException("The hierarchy has an inner node with bad children.");
+				reached[index] = reached[index + 1] = true;
+				depths[index] = Math.max(depths[index], depths[node] + 1);
+				depths[index + 1] = Math.max(depths[index + 1], depths[node] + 1);
+				continue;
+			}
+			int spheres = nodeSphereCount[node];
+			if (count < 0 || index < 0 || index > n - count || spheres < 0 || spheres > count)
+				throw new IOException("The hierarchy has a leaf with bad surfaces.");
+			for (int slot = index; slot < index + count; ++slot) {
+				if (covered[slot])
+					throw new IOException("The hierarchy has leaves which share surfaces.");
+				covered[slot] = true;
+				if ((surfaces.get(surfaceIds[slot]).shape() instanceof Sphere) != (slot < index + spheres))
+					throw new IOException("The hierarchy has a leaf which does not start with its spheres.");
+			}
+		}
+		for (boolean slotCovered : covered)
+			if (!slotCovered)
+				throw new IOException("The hierarchy has surfaces in no leaf.");
+	}
+
+	// Written to a temporary file which then replaces the old one, so readers never see half a file.
+	private static void write(BVH bvh, byte[] key, Path file) throws IOException {
+		Path temp = Files.createTempFile(file.toAbsolutePath().getParent(), file.getFileName().toString(), ".tmp");
+		try {
+			try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+				ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+				buffer.put(MAGIC).putInt(VERSION).putInt(bvh.numNodes).putLong(bvh.surfaceIds.length).put(key);
+				for (int i = 0; i < 6 * bvh.numNodes; ++i) {
+					if (buffer.remaining() < 8)
+						flush(channel, buffer);
+					buffer.putDouble(bvh.nodeBounds[i]);
+				}
+				long offset = HEADER_SIZE + 48L * bvh.numNodes;
+				int[][] ints = { bvh.nodeIndex, bvh.nodeCount, bvh.nodeSphereCount, bvh.surfaceIds };
+				int[] lengths = { bvh.numNodes, bvh.numNodes, bvh.numNodes, bvh.surfaceIds.length };
+				for (int a = 0; a < ints.length; ++a) {
+					for (int i = 0; i < lengths[a]; ++i) {
+						if (buffer.remaining() < 8)
+							flush(channel, buffer);
+						buffer.putInt(ints[a][i]);
+					}
+					// Pads with zeros up to the next 8 byte boundary.
+					long end = offset + 4L * lengths[a];
+					for (long i = end; i < align(end); ++i)
+						buffer.put((byte) 0);
+					offset = align(end);
+				}
+				flush(channel, buffer);
+			}
+			Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+		buffer.flip();
+		while (buffer.hasRemaining())
+			channel.write(buffer);
+		buffer.clear();
+	}
+
+	private static ByteBuffer map(FileChannel channel, long offset, long size) throws IOException {
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("An array of the hierarchy takes more than 2 GB.");
+		if (offset + size > channel.size())
+			throw new IOException("The hierarchy file is truncated.");
+		return channel.map(FileChannel.MapMode.READ_ONLY, offset, size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static long align(long offset) {
+		return (offset + 7) & ~7L;
+	}
+}
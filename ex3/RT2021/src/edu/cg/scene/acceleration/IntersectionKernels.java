@@ -0,0 +1,58 @@
+package edu.cg.scene.acceleration;
+
+/**
+ * The loops which intersect a ray with a range of the spheres of a SphereBuffer or the plains of a PlaneBuffer,
+ * given the primitive arrays of the buffer. Every implementation computes exactly the distances of the scalar
+ * kernels (ScalarKernels), so the kernel in use never changes an image.
+ *
+ * The application uses the scalar kernels. VectorKernels, which tests several primitives per instruction with
+ * the Vector API, is compiled only by the benchmarks module, since jdk.incubator.vector must be added to both
+ * the compiler and the JVM (--add-modules jdk.incubator.vector). It is used whenever it is on the class path
+ * and the JVM was started with the module.
+ */
+interface IntersectionKernels {
+	IntersectionKernels INSTANCE = load();
+
+	/**
+	 * Intersects a ray with the spheres [from, to).
+	 * @param tOut - receives the distance to every sphere (infinity for a miss), tOut[k] for sphere from + k.
+	 */
+	void intersectSpheres(double[] centerX, double[] centerY, double[] centerZ, double[] radiusSqr, int from,
+			int to, double ox, double oy, double oz, double dx, double dy, double dz, double[] tOut);
+
+	/**
+	 * Checks if a ray hits any of the spheres [from, to) at a distance in (epsilon, tMax),
+	 * with the same semantics as Sphere.intersects.
+	 */
+	boolean anySphereHit(double[] centerX, double[] centerY, double[] centerZ, double[] radiusSqr, int from,
+			int to, double ox, double oy, double oz, double dx, double dy, double dz, double tMax);
+
+	/**
+	 * Intersects a ray with the plains [from, to) of the coefficients a, b, c and d.
+	 * @param tOut - receives the distance to every plain (infinity for a miss), tOut[k] for plain from + k.
+	 */
+	void intersectPlains(double[] a, double[] b, double[] c, double[] d, int from, int to, double ox, double oy,
+			double oz, double dx, double dy, double dz, double[] tOut);
+
+	/**
+	 * Checks if a ray hits any of the plains [from, to) at a distance in (epsilon, tMax).
+	 */
+	boolean anyPlainHit(double[] a, double[] b, double[] c, double[] d, int from, int to, double ox, double oy,
+			double oz, double dx, double dy, double dz, double tMax);
+
+	/**
+	 * @return the vector kernels if the JVM has the Vector API and they are on the class path, and otherwise
+	 * the scalar kernels.
+	 */
+	private static IntersectionKernels load() {
+		if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+			try {
+				return (IntersectionKernels) Class.forName(IntersectionKernels.class.getPackageName() +
+						".VectorKernels").getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | LinkageError e) {
+				// Not built by the benchmarks module.
+			}
+		}
+		return new ScalarKernels();
+	}
+}
@@ -0,0 +1,60 @@
+package edu.cg.scene.acceleration;
+
+import edu.cg.scene.objects.Plain;
+
+/**
+ * The plains of a scene packed as a structure of arrays of their implicit coefficients (ax + by + cz + d = 0),
+ * with monomorphic intersection kernels that work directly on the primitive arrays, the loops of
+ * IntersectionKernels like those of SphereBuffer.
+ * The distances computed by the kernels are exactly the ones Plain.intersect computes.
+ */
+public final class PlaneBuffer {
+	private final double[] a;
+	private final double[] b;
+	private final double[] c;
+	private final double[] d;
+
+	public PlaneBuffer(int capacity) {
+		a = new double[capacity];
+		b = new double[capacity];
+		c = new double[capacity];
+		d = new double[capacity];
+	}
+
+	public int capacity() {
+		return a.length;
+	}
+
+	public void set(int i, Plain plain) {
+		double[] coefficients = plain.coefficients();
+		a[i] = coefficients[0];
+		b[i] = coefficients[1];
+		c[i] = coefficients[2];
+		d[i] = coefficients[3];
+	}
+
+	/**
+	 * Intersects a ray with a single plain.
+	 * @return the distance to the hit Plain.intersect would return, or infinity if there is no hit.
+	 */
+	public double intersect(int i, double ox, double oy, double oz, double dx, double dy, double dz) {
+		return ScalarKernels.intersectPlain(a, b, c, d, i, ox, oy, oz, dx, dy, dz);
+	}
+
+	/**
+	 * Intersects a ray with the plains [from, to).
+	 * @param tOut - receives the distance to every plain (infinity for a miss), tOut[k] for plain from + k.
+	 */
+	public void intersect(int from, int to, double ox, double oy, double oz, double dx, double dy, double dz,
+			double[] tOut) {
+		IntersectionKernels.INSTANCE.intersectPlains(a, b, c, d, from, to, ox, oy, oz, dx, dy, dz, tOut);
+	}
+
+	/**
+	 * Checks if a ray hits any of the plains [from, to) at a distance in (epsilon, tMax).
+	 */
+	public boolean anyHit(int from, int to, double ox, double oy, double oz, double dx, double dy, double dz,
+			double tMax) {
+		return IntersectionKernels.INSTANCE.anyPlainHit(a, b, c, d, from, to, ox, oy, oz, dx, dy, dz, tMax);
+	}
+}
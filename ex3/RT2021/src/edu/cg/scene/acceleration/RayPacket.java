@@ -0,0 +1,128 @@
+package edu.cg.scene.acceleration;
+
+import edu.cg.algebra.Hit;
+import edu.cg.algebra.Ray;
+import edu.cg.algebra.Vec;
+
+/**
+ * A bundle of up to MAX_SIZE rays that are traced through a BVH together.
+ * The rays are stored as a structure of arrays, along with the interval of their origins and inverse directions,
+ * which lets the BVH cull a node for the whole packet with a single interval test.
+ * A packet is reusable: clear it, add the rays, and query BVH.closestHits.
+ * A packet belongs to a single thread and must never be shared.
+ */
+public final class RayPacket {
+	public static final int MAX_SIZE = 64;
+
+	final Ray[] rays = new Ray[MAX_SIZE];
+	final double[] ox = new double[MAX_SIZE];
+	final double[] oy = new double[MAX_SIZE];
+	final double[] oz = new double[MAX_SIZE];
+	final double[] dx = new double[MAX_SIZE];
+	final double[] dy = new double[MAX_SIZE];
+	final double[] dz = new double[MAX_SIZE];
+	final double[] idx = new double[MAX_SIZE];
+	final double[] idy = new double[MAX_SIZE];
+	final double[] idz = new double[MAX_SIZE];
+	final int[] signX = new int[MAX_SIZE];
+	final int[] signY = new int[MAX_SIZE];
+	final int[] signZ = new int[MAX_SIZE];
+
+	// The state of every ray's query: the distance to beat, the slot of the closest surface so far (-1 for none),
+	// and the closest hit, unless it has not been materialized yet.
+	final double[] tMax = new double[MAX_SIZE];
+	final int[] closestSlot = new int[MAX_SIZE];
+	final Hit[] closest = new Hit[MAX_SIZE];
+	int size = 0;
+
+	// The bounds of the packet, valid after prepare().
+	boolean coherent;
+	double minOx, minOy, minOz, maxOx, maxOy, maxOz;
+	double minIdx, minIdy, minIdz, maxIdx, maxIdy, maxIdz;
+	double maxTMax;
+
+	public void clear() {
+		for (int k = 0; k < size; ++k) {
+			rays[k] = null;
+			closest[k] = null;
+		}
+		size = 0;
+	}
+
+	/**
+	 * Adds a ray to the packet.
+	 * @param ray - the ray to trace.
+	 * @param tMax - only hits closer than tMax are looked for.
+	 * @return the index of the ray in the packet.
+	 */
+	public int add(Ray ray, double tMax) {
+		if (size == MAX_SIZE)
+			throw new IllegalStateException("A ray packet holds at most " + MAX_SIZE + " rays.");
+		int k = size++;
+		rays[k] = ray;
+		ox[k] = ray.source().x;
+		oy[k] = ray.source().y;
+		oz[k] = ray.source().z;
+		dx[k] = ray.direction().x;
+		dy[k] = ray.direction().y;
+		dz[k] = ray.direction().z;
+		Vec inverseDirection = ray.inverseDirection();
+		idx[k] = inverseDirection.x;
+		idy[k] = inverseDirection.y;
+		idz[k] = inverseDirection.z;
+		signX[k] = ray.sign(0);
+		signY[k] = ray.sign(1);
+		signZ[k] = ray.sign(2);
+		this.tMax[k] = tMax;
+		closestSlot[k] = -1;
+		closest[k] = null;
+		return k;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return the closest hit of the k-th ray found by the last query, or null if there is none closer than its tMax.
+	 */
+	public Hit hit(int k) {
+		return closest[k];
+	}
+
+	/**
+	 * Computes the bounds of the packet. The packet is coherent if all of its directions have the same
+	 * (non zero) sign on every axis, which is what the interval test of the BVH requires.
+	 */
+	void prepare() {
+		coherent = size > 0;
+		minOx = maxOx = ox[0];
+		minOy = maxOy = oy[0];
+		minOz = maxOz = oz[0];
+		minIdx = maxIdx = idx[0];
+		minIdy = maxIdy = idy[0];
+		minIdz = maxIdz = idz[0];
+		maxTMax = tMax[0];
+		for (int k = 0; k < size; ++k) {
+			minOx = Math.min(minOx, ox[k]);
+			maxOx = Math.max(maxOx, ox[k]);
+			minOy = Math.min(minOy, oy[k]);
+			maxOy = Math.max(maxOy, oy[k]);
+			minOz = Math.min(minOz, oz[k]);
+			maxOz = Math.max(maxOz, oz[k]);
+			minIdx = Math.min(minIdx, idx[k]);
+			maxIdx = Math.max(maxIdx, idx[k]);
+			minIdy = Math.min(minIdy, idy[k]);
+			maxIdy = Math.max(maxIdy, idy[k]);
+			minIdz = Math.min(minIdz, idz[k]);
+			maxIdz = Math.max(maxIdz, idz[k]);
+			maxTMax = Math.max(maxTMax, tMax[k]);
+		}
+		coherent &= sameSign(minIdx, maxIdx) & sameSign(minIdy, maxIdy) & sameSign(minIdz, maxIdz);
+	}
+
+	// Infinite inverse directions (a zero direction component) are not allowed either, and neither is NaN.
+	private static boolean sameSign(double min, double max) {
+		return (min > 0 & max < Double.POSITIVE_INFINITY) | (max < 0 & min > Double.NEGATIVE_INFINITY);
+	}
+}
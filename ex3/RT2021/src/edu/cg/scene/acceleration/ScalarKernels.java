@@ -0,0 +1,104 @@
+package edu.cg.scene.acceleration;
+
+import edu.cg.algebra.Ops;
+
+/**
+ * The intersection kernels as plain loops, one primitive at a time. They are free of allocations and object
+ * loads, so the JIT can unroll them, but it does not vectorize them: every sphere may exit early, and the
+ * closest hit is a conditional reduction.
+ * The distances are exactly the ones Sphere.intersect and Plain.intersect compute.
+ */
+final class ScalarKernels implements IntersectionKernels {
+	/**
+	 * @return the distance to the hit of the i-th sphere Sphere.intersect would return, or infinity if there is
+	 * no hit.
+	 */
+	static double intersectSphere(double[] centerX, double[] centerY, double[] centerZ, double[] radiusSqr, int i,
+			double ox, double oy, double oz, double dx, double dy, double dz) {
+		double ocX = ox - centerX[i];
+		double ocY = oy - centerY[i];
+		double ocZ = oz - centerZ[i];
+		double a = dx * dx + dy * dy + dz * dz;
+		double b = 2 * (dx * ocX + dy * ocY + dz * ocZ);
+		double c = (ocX * ocX + ocY * ocY + ocZ * ocZ) - radiusSqr[i];
+		double solutions = (b * b) - (4 * a * c);
+		// For a negative discriminant sqrt is NaN, and the result is masked below.
+		double sqrt = Math.sqrt(solutions);
+		double firstSolution = (-b - sqrt) / (2 * a);
+		double secondSolution = (-b + sqrt) / (2 * a);
+		double t = firstSolution == secondSolution
+				? (firstSolution < Ops.epsilon ? Double.POSITIVE_INFINITY : firstSolution)
+				: (secondSolution > Ops.epsilon ? (firstSolution <= Ops.epsilon ? secondSolution : firstSolution)
+						: Double.POSITIVE_INFINITY);
+		return solutions > 0 ? t : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return whether the i-th sphere is hit at a distance in (epsilon, tMax), with the same semantics as
+	 * Sphere.intersects.
+	 */
+	static boolean hitsSphere(double[] centerX, double[] centerY, double[] centerZ, double[] radiusSqr, int i,
+			double ox, double oy, double oz, double dx, double dy, double dz, double tMax) {
+		double a = dx * dx + dy * dy + dz * dz;
+		double ocX = ox - centerX[i];
+		double ocY = oy - centerY[i];
+		double ocZ = oz - centerZ[i];
+		double b = 2 * (dx * ocX + dy * ocY + dz * ocZ);
+		double c = ocX * ocX + ocY * ocY + ocZ * ocZ - radiusSqr[i];
+		double discriminant = b * b - 4 * a * c;
+		if (discriminant <= 0)
+			return false;
+		double sqrt = Math.sqrt(discriminant);
+		double firstSolution = (-b - sqrt) / (2 * a);
+		double secondSolution = (-b + sqrt) / (2 * a);
+		return firstSolution > Ops.epsilon ? firstSolution < tMax
+				: secondSolution > Ops.epsilon && secondSolution < tMax;
+	}
+
+	/**
+	 * @return the distance to the hit of the i-th plain Plain.intersect would return, or infinity if there is
+	 * no hit.
+	 */
+	static double intersectPlain(double[] a, double[] b, double[] c, double[] d, int i, double ox, double oy,
+			double oz, double dx, double dy, double dz) {
+		double t = -(a[i] * ox + b[i] * oy + c[i] * oz + d[i]) / (dx * a[i] + dy * b[i] + dz * c[i]);
+		return t > Ops.epsilon & t < Ops.infinity ? t : Double.POSITIVE_INFINITY;
+	}
+
+	@Override
+	public void intersectSpheres(double[] centerX, double[] centerY, double[] centerZ, double[] radiusSqr, int from,
+			int to, double ox, double oy, double oz, double dx, double dy, double dz, double[] tOut) {
+		for (int i = from; i < to; ++i)
+			tOut[i - from] = intersectSphere(centerX, centerY, centerZ, radiusSqr, i, ox, oy, oz, dx, dy, dz);
+	}
+
+	@Override
+	public boolean anySphereHit(double[] centerX, double[] centerY, double[] centerZ, double[] radiusSqr, int from,
+			int to, double ox, double oy, double oz, double dx, double dy, double dz, double tMax) {
+		for (int i = from; i < to; ++i)
+			if (hitsSphere(centerX, centerY, centerZ, radiusSqr, i, ox, oy, oz, dx, dy, dz, tMax))
+				return true;
+		return false;
+	}
+
+	@Override
+	public void intersectPlains(double[] a, double[] b, double[] c, double[] d, int from, int to, double ox,
+			double oy, double oz, double dx, double dy, double dz, double[] tOut) {
+		for (int i = from; i < to; ++i)
+			tOut[i - from] = intersectPlain(a, b, c, d, i, ox, oy, oz, dx, dy, dz);
+	}
+
+	@Override
+	public boolean anyPlainHit(double[] a, double[] b, double[] c, double[] d, int from, int to, double ox,
+			double oy, double oz, double dx, double dy, double dz, double tMax) {
+		for (int i = from; i < to; ++i)
+			if (intersectPlain(a, b, c, d, i, ox, oy, oz, dx, dy, dz) < tMax)
+				return true;
+		return false;
+	}
+
+	@Override
+	public String toString() {
+		return "scalar";
+	}
+}
@@ -0,0 +1,74 @@
+package edu.cg.scene.acceleration;
+
+import edu.cg.algebra.Point;
+import edu.cg.scene.objects.Sphere;
+
+/**
+ * The spheres of a scene packed as a structure of arrays (one primitive array per coordinate),
+ * with intersection kernels that test a ray against a whole range of spheres in one tight loop.
+ * Calling a kernel is a monomorphic call on primitive data, instead of a virtual
+ * Surface.intersect -> Shape.intersect call per sphere, and the loop is free of allocations and object loads.
+ * The loops are those of IntersectionKernels: scalar ones in the application, and ones which test several
+ * spheres per instruction with the Vector API when the benchmarks module runs with jdk.incubator.vector.
+ * The distances computed by the kernels are exactly the ones Sphere.intersect computes.
+ */
+public final class SphereBuffer {
+	private final double[] centerX;
+	private final double[] centerY;
+	private final double[] centerZ;
+	private final double[] radiusSqr;
+
+	public SphereBuffer(int capacity) {
+		centerX = new double[capacity];
+		centerY = new double[capacity];
+		centerZ = new double[capacity];
+		radiusSqr = new double[capacity];
+	}
+
+	/**
+	 * @return the name of the kernels in use.
+	 */
+	public static String kernels() {
+		return IntersectionKernels.INSTANCE.toString();
+	}
+
+	public int capacity() {
+		return centerX.length;
+	}
+
+	public void set(int i, Sphere sphere) {
+		Point center = sphere.center();
+		centerX[i] = center.x;
+		centerY[i] = center.y;
+		centerZ[i] = center.z;
+		radiusSqr[i] = sphere.radius() * sphere.radius();
+	}
+
+	/**
+	 * Intersects a ray with a single sphere.
+	 * @return the distance to the hit Sphere.intersect would return, or infinity if there is no hit.
+	 */
+	public double intersect(int i, double ox, double oy, double oz, double dx, double dy, double dz) {
+		return ScalarKernels.intersectSphere(centerX, centerY, centerZ, radiusSqr, i, ox, oy, oz, dx, dy, dz);
+	}
+
+	/**
+	 * Intersects a ray with the spheres [from, to).
+	 * @param tOut - receives the distance to every sphere (infinity for a miss), tOut[k] for sphere from + k.
+	 */
+	public void intersect(int from, int to, double ox, double oy, double oz, double dx, double dy, double dz,
+			double[] tOut) {
+		IntersectionKernels.INSTANCE.intersectSpheres(centerX, centerY, centerZ, radiusSqr, from, to, ox, oy, oz, dx, dy,
+				dz, tOut);
+	}
+
+	/**
+	 * Checks if a ray hits any of the spheres [from, to) at a distance in (epsilon, tMax),
+	 * with the same semantics as Sphere.intersects.
+	 */
+	public boolean anyHit(int from, int to, double ox, double oy, double oz, double dx, double dy, double dz,
+			double tMax) {
+		return IntersectionKernels.INSTANCE.anySphereHit(centerX, centerY, centerZ, radiusSqr, from, to, ox, oy, oz, dx,
+				dy, dz, tMax);
+	}
+}
@@ -71,6 +71,21 @@ public class PinholeCamera {
 		return centerPointPixel;
 	}
 	
+	/**
+	 * Same as transform(x, y), but writes the result into dest instead of allocating new points.
+	 * @param x - the pixel index in the x direction.
+	 * @param y - the pixel index in the y direction.
+	 * @param dest - the point to write the result into.
+	 * @return dest, set to the middle point of the pixel (x,y) in the model coordinates.
+	 */
+	public Point transform(int x, int y, Point dest) {
+		double upDistance = (y-(int)resY*0.5) * pixelWidth;
+		double rightDistance = (x-(int)resX*0.5) * pixelWidth;
+		return dest.set(centerPoint.x + (-(upDistance * upVec.x) + rightDistance * rightVec.x),
+				centerPoint.y + (-(upDistance * upVec.y) + rightDistance * rightVec.y),
+				centerPoint.z + (-(upDistance * upVec.z) + rightDistance * rightVec.z));
+	}
+	
 	/**
 	 * Returns the camera position
 	 * @return a new point representing the camera position.
@@ -79,6 +94,14 @@ public class PinholeCamera {
 		return new Point(cameraPosition.x, cameraPosition.y, cameraPosition.z);
 	}
 
+	/**
+	 * Writes the camera position into dest.
+	 * @return dest
+	 */
+	public Point getCameraPosition(Point dest) {
+		return dest.set(cameraPosition);
+	}
+
 	/**
 	 * @return The vector which points in the right direction of the camera
 	 */
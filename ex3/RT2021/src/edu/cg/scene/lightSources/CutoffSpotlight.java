@@ -10,6 +10,9 @@ import edu.cg.scene.objects.Surface;
 public class CutoffSpotlight extends PointLight {
 	private Vec direction; // light source direction
 	private double cutoffAngle; // Cutoff angle in degrees
+	// The normalized direction and the cosine of the cutoff angle. Set in compiled spotlights only.
+	private transient Vec unitDirection = null;
+	private transient double cosCutoff;
 
 	public CutoffSpotlight(){
 		this.direction = new Vec(0.0, -1.0, 0.0);
@@ -23,14 +26,25 @@ public class CutoffSpotlight extends PointLight {
 
 	public CutoffSpotlight initDirection(Vec direction) {
 		this.direction = direction;
+		this.unitDirection = null;
 		return this;
 	}
 	
 	public CutoffSpotlight initCutoffAngle(double cutoffAngle) {
 		this.cutoffAngle = cutoffAngle;
+		this.unitDirection = null;
 		return this;
 	}
 	
+	@Override
+	public CutoffSpotlight compile() {
+		CutoffSpotlight light = copyTo(new CutoffSpotlight(new Vec(direction), cutoffAngle));
+		double invD = 1.0 / direction.norm();
+		light.unitDirection = new Vec(invD * direction.x, invD * direction.y, invD * direction.z);
+		light.cosCutoff = Math.cos(Math.toRadians(cutoffAngle));
+		return light;
+	}
+	
 	@Override
 	public String toString() {
 		String endl = System.lineSeparator();
@@ -57,9 +71,41 @@ public class CutoffSpotlight extends PointLight {
 	
 	@Override
 	public boolean isOccludedBy(Surface surface, Ray rayToLight) {
+		// A spotlight is occluded exactly like a point light at the same position.
 		return super.isOccludedBy(surface, rayToLight);
 	}
 	
+	@Override
+	public Vec intensity(Point hittingPoint, Ray rayToLight, Vec dest) {
+		double cosGamma = cosGamma(rayToLight);
+		if (cosGamma <= Ops.epsilon || outsideCutoff(cosGamma)) {
+			return dest.set(0, 0, 0);
+		}
+		else {
+			return super.intensity(hittingPoint, rayToLight, dest).mult(cosGamma, dest);
+		}
+	}
+
+	// The cosine of the angle between the spotlight direction and the ray from the light, computed without allocating.
+	private double cosGamma(Ray rayToLight) {
+		Vec r = rayToLight.direction();
+		double vx = -1 * r.x, vy = -1 * r.y, vz = -1 * r.z;
+		double invV = 1.0 / Math.sqrt(vx*vx + vy*vy + vz*vz);
+		Vec u = this.unitDirection;
+		if (u != null)
+			return u.x*(invV*vx) + u.y*(invV*vy) + u.z*(invV*vz);
+		Vec d = this.direction;
+		double invD = 1.0 / d.norm();
+		return (invD*d.x)*(invV*vx) + (invD*d.y)*(invV*vy) + (invD*d.z)*(invV*vz);
+	}
+
+	// Compiled spotlights compare cosines instead of taking the arc cosine of every ray.
+	private boolean outsideCutoff(double cosGamma) {
+		if (unitDirection != null)
+			return cosGamma < cosCutoff;
+		return Math.toDegrees(Math.acos(cosGamma)) > this.cutoffAngle;
+	}
+
 	@Override
 	public Vec intensity(Point hittingPoint, Ray rayToLight) {
 		Vec vd = this.direction.normalize();
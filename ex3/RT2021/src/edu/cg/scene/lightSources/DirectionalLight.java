@@ -1,6 +1,7 @@
 package edu.cg.scene.lightSources;
 
 import edu.cg.UnimplementedMethodException;
+import edu.cg.algebra.MutableRay;
 import edu.cg.algebra.Point;
 import edu.cg.algebra.Ray;
 import edu.cg.algebra.Vec;
@@ -8,6 +9,8 @@ import edu.cg.scene.objects.Surface;
 
 public class DirectionalLight extends Light {
 	private Vec direction = new Vec(0, -1, -1);
+	// The normalized direction to the light. Set in compiled lights only.
+	private transient Vec toLight = null;
 
 	public DirectionalLight(){ }
 
@@ -18,6 +21,7 @@ public class DirectionalLight extends Light {
 	
 	public DirectionalLight initDirection(Vec direction) {
 		this.direction = direction.normalize();
+		this.toLight = null;
 		return this;
 	}
 	
@@ -33,6 +37,15 @@ public class DirectionalLight extends Light {
 		return (DirectionalLight)super.initIntensity(intensity);
 	}
 	
+	@Override
+	public DirectionalLight compile() {
+		DirectionalLight light = new DirectionalLight();
+		light.direction = new Vec(direction);
+		light.intensity = new Vec(intensity);
+		light.toLight = direction.neg().normalize();
+		return light;
+	}
+	
 	@Override
 	public Ray rayToLight(Point fromPoint) {
 		Vec directionToLight = this.direction.neg();
@@ -40,13 +53,32 @@ public class DirectionalLight extends Light {
 		return rayFromPointToLight;
 	}
 
+	@Override
+	public MutableRay rayToLight(Point fromPoint, MutableRay dest) {
+		if (toLight != null)
+			return dest.set(fromPoint, toLight);
+		dest.set(fromPoint, this.direction);
+		dest.direction().neg(dest.direction()).normalize(dest.direction());
+		return dest;
+	}
+
+	@Override
+	public double distanceToLight(Point fromPoint) {
+		return Double.POSITIVE_INFINITY;
+	}
+
 	@Override
 	public boolean isOccludedBy(Surface surface, Ray rayToLight) {
-		return surface.intersect(rayToLight) != null;
+		return surface.intersects(rayToLight, Double.POSITIVE_INFINITY);
 	}
 
 	@Override
 	public Vec intensity(Point hittingPoint, Ray rayToLight) {
 		return this.intensity;
 	}
+
+	@Override
+	public Vec intensity(Point hittingPoint, Ray rayToLight, Vec dest) {
+		return dest.set(this.intensity);
+	}
 }
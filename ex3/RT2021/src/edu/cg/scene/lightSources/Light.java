@@ -1,5 +1,6 @@
 package edu.cg.scene.lightSources;
 
+import edu.cg.algebra.MutableRay;
 import edu.cg.algebra.Point;
 import edu.cg.algebra.Ray;
 import edu.cg.algebra.Vec;
@@ -19,16 +20,46 @@ public abstract class Light {
 		return this;
 	}
 	
+	/**
+	 * Returns a copy of the light source for rendering, with whatever it derives from its parameters already
+	 * computed. Later changes to the light source do not reach the copy, and the copy must not be changed.
+	 * @return the compiled light source (the light source itself if it cannot be changed).
+	 */
+	public Light compile() {
+		return this;
+	}
+	
 	/**
 	 * Constructs a ray originated from the given point to the light.
 	 * @param fromPoint - The initial point of the ray
 	 * @return a ray origniated from 'fromPoint' to the light source.
 	 */
 	public abstract Ray rayToLight(Point fromPoint);
+
+	/**
+	 * Same as rayToLight(fromPoint), but reuses the given ray instead of allocating a new one.
+	 * Light sources should override this with an allocation free implementation.
+	 * @param fromPoint - The initial point of the ray
+	 * @param dest - The ray to overwrite
+	 * @return dest, set to the ray from 'fromPoint' to the light source.
+	 */
+	public MutableRay rayToLight(Point fromPoint, MutableRay dest) {
+		Ray ray = rayToLight(fromPoint);
+		return dest.set(ray.source(), ray.direction());
+	}
+
+	/**
+	 * Returns the distance from the given point to the light source. Occluders further than this distance
+	 * along the ray to the light do not cast a shadow.
+	 * @param fromPoint - The given point
+	 * @return the distance to the light source (infinity for a light source which is infinitely far).
+	 */
+	public abstract double distanceToLight(Point fromPoint);
 	
 	/**
 	 * Checks if the given surface occludes the light-source. The surface occludes the light source
 	 * if the given ray first intersects the surface before reaching the light source.
+	 * Implementations should use the allocation free any-hit query Surface.intersects.
 	 * @param surface -The given surface
 	 * @param rayToLight - the ray to the light source
 	 * @return true if the ray is occluded by the surface..
@@ -42,4 +73,13 @@ public abstract class Light {
 	 * @return A vector representing the light intensity (the r,g and b channels). 
 	 */
 	public abstract Vec intensity(Point hittingPoint, Ray rayToLight);
+
+	/**
+	 * Same as intensity(hittingPoint, rayToLight), but writes the result into dest.
+	 * Light sources should override this with an allocation free implementation.
+	 * @return dest, set to the light intensity.
+	 */
+	public Vec intensity(Point hittingPoint, Ray rayToLight, Vec dest) {
+		return dest.set(intensity(hittingPoint, rayToLight));
+	}
 }
@@ -1,6 +1,6 @@
 package edu.cg.scene.lightSources;
 
-import edu.cg.algebra.Hit;
+import edu.cg.algebra.MutableRay;
 import edu.cg.algebra.Point;
 import edu.cg.algebra.Ray;
 import edu.cg.algebra.Vec;
@@ -44,20 +44,41 @@ public class PointLight extends Light {
 		return this;
 	}
 	
+	@Override
+	public PointLight compile() {
+		return copyTo(new PointLight());
+	}
+	
+	// Copies the parameters of the point light to the given one.
+	protected <T extends PointLight> T copyTo(T light) {
+		light.intensity = new Vec(intensity);
+		light.position = new Point(position.x, position.y, position.z);
+		light.kq = kq;
+		light.kl = kl;
+		light.kc = kc;
+		return light;
+	}
+	
 	@Override
 	public Ray rayToLight(Point fromPoint) {
 		return new Ray(fromPoint, position);
 	}
 
+	@Override
+	public MutableRay rayToLight(Point fromPoint, MutableRay dest) {
+		return dest.setThrough(fromPoint, position);
+	}
+
+	@Override
+	public double distanceToLight(Point fromPoint) {
+		return fromPoint.dist(position);
+	}
+
 	@Override
 	public boolean isOccludedBy(Surface surface, Ray rayToLight) {
-		Hit hit = surface.intersect(rayToLight);
-		if(hit == null)
-			return false;
-		
-		Point source = rayToLight.source();
-		Point hittingPoint = rayToLight.getHittingPoint(hit);
-		return source.distSqr(position) > source.distSqr(hittingPoint);
+		// The direction of the ray is normalized, so the surface occludes the light
+		// iff it is hit before the distance to the light.
+		return surface.intersects(rayToLight, distanceToLight(rayToLight.source()));
 	}
 
 	@Override
@@ -66,4 +87,11 @@ public class PointLight extends Light {
 		double decay = kc + (kl + kq*dist)*dist;
 		return intensity.mult(1/decay);
 	}
+
+	@Override
+	public Vec intensity(Point hittingPoint, Ray rayToLight, Vec dest) {
+		double dist = hittingPoint.dist(position);
+		double decay = kc + (kl + kq*dist)*dist;
+		return intensity.mult(1/decay, dest);
+	}
 }
@@ -10,6 +10,7 @@ public class AxisAlignedBox extends Shape{
     private Point b = null;
     private double[] aAsArray;
     private double[] bAsArray;
+    private transient volatile double[] slabs = null;
 
     public AxisAlignedBox(Point a, Point b){
         this.a = a;
@@ -32,80 +33,147 @@ public class AxisAlignedBox extends Shape{
     public AxisAlignedBox initA(Point a){
         this.a = a;
         aAsArray = a.asArray();
+        slabs = null;
         return this;
     }
 
     public AxisAlignedBox initB(Point b){
         this.b = b;
         bAsArray = b.asArray();
+        slabs = null;
         return this;
     }
 
+    public Point a() {
+        return a;
+    }
+
+    public Point b() {
+        return b;
+    }
+
     @Override
-    public Hit intersect(Ray ray) {
-        Vec normal;
-        boolean insideBox;
-        boolean[] toNegNormal = new boolean[3];
+    public AxisAlignedBox compile() {
+        AxisAlignedBox box = new AxisAlignedBox(new Point(a.x, a.y, a.z), new Point(b.x, b.y, b.z));
+        box.slabs();
+        return box;
+    }
+
+    @Override
+    public Bounds bounds() {
+        // The corners are not necessarily ordered (some scenes pass them swapped), so order them here.
+        return new Bounds(new Point(Math.min(a.x, b.x), Math.min(a.y, b.y), Math.min(a.z, b.z)),
+                new Point(Math.max(a.x, b.x), Math.max(a.y, b.y), Math.max(a.z, b.z)));
+    }
 
+    @Override
+    public Hit intersect(Ray ray) {
         Point sourcePoint = ray.source();
         Vec rayDirection = ray.direction();
-        double[] sourcePointCoordinate = new double[3];
-        double[] rayDirectionCoordinate = new double[3];
-        // fill coordinate for sourcePoint and rayDirection
-        for (int i = 0; i < 3; i++) {
-            sourcePointCoordinate[i] = sourcePoint.getCoordinate(i);
-            rayDirectionCoordinate[i] = rayDirection.getCoordinate(i);
-        }
-
-        double[] minElementsIntersections = new double[3];
-        double[] maxElementsIntersections = new double[3];
-        // fill the intersection point where intervals:
-        // Ix = [minElementsIntersections[0],maxElementsIntersections[0]]
-        // Iy = [minElementsIntersections[1],maxElementsIntersections[1]]
-        // Iz = [minElementsIntersections[2],maxElementsIntersections[2]]
-        for (int i = 0; i < 3; ++i) {
-            if (isLineDirectionIsZeroInOneDirection(rayDirectionCoordinate[i])) {
-                if (!isInsideBoxRange(sourcePointCoordinate[i],i)) {
-                    return null;
-                } else {
-                    minElementsIntersections[i] = Double.NEGATIVE_INFINITY;
-                    maxElementsIntersections[i] = Double.POSITIVE_INFINITY;
-                }
-            }
-            double t0 = (this.aAsArray[i] - sourcePointCoordinate[i]) / rayDirectionCoordinate[i];
-            double t1 = (this.bAsArray[i] - sourcePointCoordinate[i]) / rayDirectionCoordinate[i];
-
-            minElementsIntersections[i] = Math.min(t0, t1);
-            maxElementsIntersections[i] = Math.max(t0, t1);
-            toNegNormal[i] = checkIfNeedToNegateNormal(t0,t1);
+        if (isParallelAndOutside(sourcePoint, rayDirection)) {
+            return null;
         }
 
-        int indexOfMaximumInMinElements = this.getIndexOfMaxElementInArray(minElementsIntersections);
-        double maxElementInMinElements = minElementsIntersections[indexOfMaximumInMinElements];
-        int indexOfTheMinimumInMaxElements = this.getIndexOfMinElementInArray(maxElementsIntersections);
-        double minElementInMaxElements = maxElementsIntersections[indexOfTheMinimumInMaxElements];
-
-        if (maxElementInMinElements > minElementInMaxElements || minElementInMaxElements <= Ops.epsilon) {
+        // The distances to the planes of a and b on every axis (the plane of a is not necessarily the nearer one).
+        Vec inverseDirection = ray.inverseDirection();
+        double ta0 = (this.a.x - sourcePoint.x) * inverseDirection.x;
+        double tb0 = (this.b.x - sourcePoint.x) * inverseDirection.x;
+        double ta1 = (this.a.y - sourcePoint.y) * inverseDirection.y;
+        double tb1 = (this.b.y - sourcePoint.y) * inverseDirection.y;
+        double ta2 = (this.a.z - sourcePoint.z) * inverseDirection.z;
+        double tb2 = (this.b.z - sourcePoint.z) * inverseDirection.z;
+
+        // The intervals Ix, Iy and Iz
+        double min0 = Math.min(ta0, tb0), max0 = Math.max(ta0, tb0);
+        double min1 = Math.min(ta1, tb1), max1 = Math.max(ta1, tb1);
+        double min2 = Math.min(ta2, tb2), max2 = Math.max(ta2, tb2);
+
+        // Find the axis whose interval starts last and the axis whose interval ends first.
+        // NaN values fail the comparisons and are ignored, and if all of them are ignored, the x axis is taken.
+        int nearAxis = 0;
+        double tNear = Double.NEGATIVE_INFINITY;
+        if (min0 > tNear) { nearAxis = 0; tNear = min0; }
+        if (min1 > tNear) { nearAxis = 1; tNear = min1; }
+        if (min2 > tNear) { nearAxis = 2; tNear = min2; }
+        if (nearAxis == 0) tNear = min0;
+        int farAxis = 0;
+        double tFar = Double.POSITIVE_INFINITY;
+        if (max0 < tFar) { farAxis = 0; tFar = max0; }
+        if (max1 < tFar) { farAxis = 1; tFar = max1; }
+        if (max2 < tFar) { farAxis = 2; tFar = max2; }
+        if (farAxis == 0) tFar = max0;
+
+        if (tNear > tFar || tFar <= Ops.epsilon) {
             return null;
         }
 
         // find the correct normal
-        if (maxElementInMinElements > Ops.epsilon) {
+        Vec normal;
+        boolean insideBox;
+        if (tNear > Ops.epsilon) {
+            tNear = exactDistance(nearAxis, true, sourcePoint, rayDirection);
             insideBox = false;
-            normal = this.getNormal(indexOfMaximumInMinElements).neg();
-            if (toNegNormal[indexOfMaximumInMinElements]) {
+            normal = this.getNormal(nearAxis).neg();
+            if (needToNegateNormal(nearAxis, ta0, tb0, ta1, tb1, ta2, tb2)) {
                 normal = normal.neg();
             }
         } else {
-            maxElementInMinElements = minElementInMaxElements;
+            tNear = exactDistance(farAxis, false, sourcePoint, rayDirection);
             insideBox = true;
-            normal = this.getNormal(indexOfTheMinimumInMaxElements);
-            if (toNegNormal[indexOfTheMinimumInMaxElements]) {
+            normal = this.getNormal(farAxis);
+            if (needToNegateNormal(farAxis, ta0, tb0, ta1, tb1, ta2, tb2)) {
                 normal = normal.neg();
             }
         }
-        Hit hit = new Hit(maxElementInMinElements, normal).setIsWithin(insideBox);
-        return hit;
+        return new Hit(tNear, normal).setIsWithin(insideBox);
+    }
+
+    @Override
+    public boolean intersects(Ray ray, double tMax) {
+        if (isParallelAndOutside(ray.source(), ray.direction())) {
+            return false;
+        }
+        return SlabTest.firstCrossing(slabs(), 0, ray, Ops.epsilon, tMax) < tMax;
+    }
+
+    // The box as the minimal and maximal values on every axis, the layout SlabTest works with.
+    private double[] slabs() {
+        double[] slabs = this.slabs;
+        if (slabs == null) {
+            slabs = new double[] { Math.min(a.x, b.x), Math.min(a.y, b.y), Math.min(a.z, b.z),
+                    Math.max(a.x, b.x), Math.max(a.y, b.y), Math.max(a.z, b.z) };
+            this.slabs = slabs;
+        }
+        return slabs;
+    }
+
+    // A ray which is (almost) parallel to the planes of an axis misses the box if it starts outside their range.
+    private boolean isParallelAndOutside(Point sourcePoint, Vec rayDirection) {
+        return (isLineDirectionIsZeroInOneDirection(rayDirection.x) && !isInsideBoxRange(sourcePoint.x, this.a.x, this.b.x))
+                || (isLineDirectionIsZeroInOneDirection(rayDirection.y) && !isInsideBoxRange(sourcePoint.y, this.a.y, this.b.y))
+                || (isLineDirectionIsZeroInOneDirection(rayDirection.z) && !isInsideBoxRange(sourcePoint.z, this.a.z, this.b.z));
+    }
+
+    // The distance to the near (or far) plane of an axis, divided by the direction rather than multiplied by
+    // its inverse, so a face which lies on a plain is hit at exactly the same distance as the plain.
+    private double exactDistance(int axis, boolean near, Point sourcePoint, Vec rayDirection) {
+        double source = axis == 0 ? sourcePoint.x : axis == 1 ? sourcePoint.y : sourcePoint.z;
+        double direction = axis == 0 ? rayDirection.x : axis == 1 ? rayDirection.y : rayDirection.z;
+        double aCoordinate = axis == 0 ? this.a.x : axis == 1 ? this.a.y : this.a.z;
+        double bCoordinate = axis == 0 ? this.b.x : axis == 1 ? this.b.y : this.b.z;
+        double t0 = (aCoordinate - source) / direction;
+        double t1 = (bCoordinate - source) / direction;
+        return near ? Math.min(t0, t1) : Math.max(t0, t1);
+    }
+
+    private boolean needToNegateNormal(int axis, double ta0, double tb0, double ta1, double tb1, double ta2, double tb2) {
+        if (axis == 0) {
+            return checkIfNeedToNegateNormal(ta0, tb0);
+        }
+        if (axis == 1) {
+            return checkIfNeedToNegateNormal(ta1, tb1);
+        }
+        return checkIfNeedToNegateNormal(ta2, tb2);
     }
 
     private boolean isLineDirectionIsZeroInOneDirection(double rayDirectionCoordinate) {
@@ -115,8 +183,8 @@ public class AxisAlignedBox extends Shape{
         return false;
     }
 
-    private boolean isInsideBoxRange(double pointCoordinate, int dimension) {
-        if ((pointCoordinate >= this.aAsArray[dimension]) && (pointCoordinate <= this.bAsArray[dimension])) {
+    private boolean isInsideBoxRange(double pointCoordinate, double aCoordinate, double bCoordinate) {
+        if ((pointCoordinate >= aCoordinate) && (pointCoordinate <= bCoordinate)) {
             return true;
         }
         return false;
@@ -132,30 +200,6 @@ public class AxisAlignedBox extends Shape{
         return false;
     }
 
-    private int getIndexOfMinElementInArray(double[] arr) {
-        double minElement = Double.POSITIVE_INFINITY;
-        int minIndex = 0;
-        for (int i = 0; i < 3; ++i) {
-            if (arr[i] < minElement){
-                minIndex = i;
-                minElement = arr[i];
-            }
-        }
-        return minIndex;
-    }
-
-    private int getIndexOfMaxElementInArray(double[] arr) {
-        double maxElement = Double.NEGATIVE_INFINITY;
-        int maxIndex = 0;
-        for (int i = 0; i < 3; ++i) {
-            if (arr[i] > maxElement){
-                maxIndex = i;
-                maxElement = arr[i];
-            }
-        }
-        return maxIndex;
-    }
-
     private Vec getNormal(int coordinateIndex) {
         Vec normalizeNormal = null;
         if (coordinateIndex == 0) {
@@ -16,4 +16,15 @@ public interface Intersectable {
 	 * @return The hit point of the ray with the object if exist and null otherwise. 
 	 */
 	public Hit intersect(Ray ray);
+
+	/**
+	 * Checks if the ray hits the object at a distance smaller than tMax (an any-hit query).
+	 * Unlike intersect, the closest hit is not searched for and nothing is allocated,
+	 * which makes this the right query for shadow rays.
+	 *
+	 * @param ray the specified ray
+	 * @param tMax the maximal distance along the ray to consider
+	 * @return true if the ray hits the object at a distance in (epsilon, tMax) and false otherwise.
+	 */
+	public boolean intersects(Ray ray, double tMax);
 }
@@ -29,6 +29,23 @@ public class Material {
 				"Refraction Index: " + refractionIndex + endl;
 	}
 
+	/**
+	 * @return a copy of the material which shares nothing with it.
+	 */
+	public Material copy() {
+		Material material = new Material();
+		material.Ka = new Vec(Ka);
+		material.Kd = new Vec(Kd);
+		material.Ks = new Vec(Ks);
+		material.shininess = shininess;
+		material.isReflecting = isReflecting;
+		material.Kr = new Vec(Kr);
+		material.isTransparent = isTransparent;
+		material.Kt = new Vec(Kt);
+		material.refractionIndex = refractionIndex;
+		return material;
+	}
+
 	public Material initKa(Vec Ka) {
 		this.Ka = Ka;
 		return this;
@@ -0,0 +1,39 @@
+package edu.cg.scene.objects;
+
+import java.util.Arrays;
+
+import edu.cg.algebra.Vec;
+
+/**
+ * The values of a material at the time the key is made, by which equal materials are found (e.g., to keep a
+ * single copy of them). Material itself is mutable and is compared by identity, so it is never used as a key.
+ */
+public final class MaterialKey {
+	private final double[] values;
+	private final int hash;
+
+	public MaterialKey(Material material) {
+		values = new double[19];
+		values[0] = material.shininess;
+		values[1] = material.isReflecting ? 1 : 0;
+		values[2] = material.isTransparent ? 1 : 0;
+		values[3] = material.refractionIndex;
+		int i = 4;
+		for (Vec v : new Vec[] { material.Ka, material.Kd, material.Ks, material.Kr, material.Kt }) {
+			values[i++] = v != null ? v.x : Double.NaN;
+			values[i++] = v != null ? v.y : Double.NaN;
+			values[i++] = v != null ? v.z : Double.NaN;
+		}
+		hash = Arrays.hashCode(values);
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return other instanceof MaterialKey && Arrays.equals(values, ((MaterialKey) other).values);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+}
@@ -6,11 +6,8 @@ public class Plain extends Shape {
 	//implicit form of a plain: ax + by + cz + d = 0;
 	private double a, b, c, d;
 	
-	private transient Vec normal = null;
-	private transient Vec v1 = null;
-	private transient Vec v2 = null;
-	private transient Mat3x3 At = null;
-	private transient Point zero = null;
+	// The normal and its negation, computed on first use.
+	private transient volatile Vec[] normals = null;
 	
 	public Plain(double a, double b, double c, double d) {
 		this.a = a;
@@ -33,67 +30,62 @@ public class Plain extends Shape {
 		return "Plain: a = " + a + ", b = " + b + ", c = " + c + ", d = " + d + endl;
 	}
 	
-	public synchronized Vec normal() {
-		if(normal == null)
-			normal = new Vec(a, b, c).normalize();
-		return normal;
+	/**
+	 * @return the coefficients {a, b, c, d} of the implicit form ax + by + cz + d = 0.
+	 */
+	public double[] coefficients() {
+		return new double[] { a, b, c, d };
 	}
 	
-	private synchronized Vec v1() {
-		if(v1 == null) {
-			Vec xAxis = new Vec(1, 0, 0);
-			v1 = normal().cross(xAxis).normalize();
-			if(!v1.isFinite()) {
-				Vec yAxis = new Vec(0, 1, 0);
-				v1 = normal().cross(yAxis).normalize();
-				if(!v1.isFinite()) {
-					Vec zAxis = new Vec(0, 0, 1);
-					v1 = normal().cross(zAxis).normalize();
-				}
-			}
-		}
-		return v1;
-	}
-	
-	private synchronized Vec v2() {
-		if(v2 == null)
-			v2 = normal().cross(v1()).normalize();
-		return v2;
+	public Vec normal() {
+		return normals()[0];
 	}
 	
-	private synchronized Mat3x3 At() {
-		if(At == null)
-			At = new Mat3x3(v1(), v2(), normal()).transpose();
-		return At;
-	}
-	
-	private synchronized Point zero() {
-		if(zero == null) {
-			Ray ray = new Ray(new Point(), normal().neg());
-			Hit hit = intersect(ray);
-			if(hit == null) {
-				ray = ray.inverse();
-				hit = intersect(ray);
-			}
-			zero = ray.getHittingPoint(hit);
+	private Vec[] normals() {
+		Vec[] normals = this.normals;
+		if(normals == null) {
+			Vec normal = new Vec(a, b, c).normalize();
+			normals = new Vec[] { normal, normal.neg() };
+			this.normals = normals;
 		}
-		return zero;
+		return normals;
 	}
 	
+	/**
+	 * @return the normal of the plain which faces the source of the ray.
+	 */
 	public Vec normal(Ray ray) {
-		return ray.direction().dot(normal()) < 0 ? normal() : normal().neg();
+		Vec[] normals = normals();
+		return ray.direction().dot(normals[0]) < 0 ? normals[0] : normals[1];
 	}
 	
 	public double substitute(Point p) {
-		Vec abc = new Vec(a, b, c);
-		return abc.dot(p.toVec()) + d;
+		return a * p.x + b * p.y + c * p.z + d;
+	}
+	
+	/**
+	 * @return a copy of the plain with its normals already computed.
+	 */
+	@Override
+	public Plain compile() {
+		Plain plain = new Plain(a, b, c, d);
+		plain.normals();
+		return plain;
 	}
 	
 	@Override
 	public Hit intersect(Ray ray) {
-		Vec abc = new Vec(a, b, c);
-		
-		double t = -substitute(ray.source()) / ray.direction().dot(abc);
+		Point p = ray.source();
+		Vec v = ray.direction();
+		double t = -(a * p.x + b * p.y + c * p.z + d) / (v.x * a + v.y * b + v.z * c);
 		return t > Ops.epsilon & t < Ops.infinity ? new Hit(t, normal(ray)) : null;
 	}
+
+	@Override
+	public boolean intersects(Ray ray, double tMax) {
+		Point p = ray.source();
+		Vec v = ray.direction();
+		double t = -(a * p.x + b * p.y + c * p.z + d) / (a * v.x + b * v.y + c * v.z);
+		return t > Ops.epsilon & t < Ops.infinity & t < tMax;
+	}
 }
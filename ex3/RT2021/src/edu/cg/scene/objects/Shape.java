@@ -1,10 +1,27 @@
 package edu.cg.scene.objects;
 
 
-import edu.cg.algebra.Point;
-import edu.cg.algebra.Vec;
+import edu.cg.algebra.Bounds;
 
 public abstract class Shape implements Intersectable {
     // An abstract class the represents a shape.
 	// You can add abstract methods here.
+
+	/**
+	 * Returns the axis aligned bounding box of the shape.
+	 * @return the bounding box of the shape, or null if the shape is unbounded (e.g., a plain).
+	 */
+	public Bounds bounds() {
+		return null;
+	}
+
+	/**
+	 * Returns a copy of the shape for rendering, with whatever the shape derives from its parameters already
+	 * computed, so the copy never initializes anything lazily while it is shared by rendering threads.
+	 * The copy must not be changed.
+	 * @return the compiled shape (the shape itself if it derives nothing and cannot be changed).
+	 */
+	public Shape compile() {
+		return this;
+	}
 }
@@ -1,15 +1,19 @@
 package edu.cg.scene.objects;
 
 import edu.cg.UnimplementedMethodException;
+import edu.cg.algebra.Bounds;
 import edu.cg.algebra.Hit;
 import edu.cg.algebra.Ops;
 import edu.cg.algebra.Point;
 import edu.cg.algebra.Ray;
+import edu.cg.algebra.Vec;
 
 // TODO Implement this class which represents a sphere
 public class Sphere extends Shape {
 	private Point center;
 	private double radius;
+	// Set in compiled spheres only.
+	private transient double radiusSquared = -1;
 
 	public Sphere(Point center, double radius) {
 		this.center = center;
@@ -36,44 +40,98 @@ public class Sphere extends Shape {
 
 	public Sphere initRadius(double radius) {
 		this.radius = radius;
+		this.radiusSquared = -1;
 		return this;
 	}
 
+	public Point center() {
+		return center;
+	}
+
+	public double radius() {
+		return radius;
+	}
+
+	@Override
+	public Sphere compile() {
+		Sphere sphere = new Sphere(new Point(center.x, center.y, center.z), radius);
+		sphere.radiusSquared = radius * radius;
+		return sphere;
+	}
+
+	private double radiusSquared() {
+		return radiusSquared >= 0 ? radiusSquared : radius * radius;
+	}
+
+	@Override
+	public Bounds bounds() {
+		return new Bounds(new Point(center.x - radius, center.y - radius, center.z - radius),
+				new Point(center.x + radius, center.y + radius, center.z + radius));
+	}
+
 	@Override
 	public Hit intersect(Ray ray) {
 		// TODO Implement:
 //		throw new UnimplementedMethodException("edu.cg.scene.object.Sphere.intersect()");
-		Boolean thereTwoSolution = false;
-		Boolean thereOneSolution = false;
-		Hit solution = null;
-		double a = ray.direction().lengthSqr(); // get (||v||)
-		double b = 2 * ray.direction().dot(ray.source().sub(center));
-		double c = ray.source().sub(center).lengthSqr() - (radius * radius);
+		// The vector from the center to the source is computed once, in place, and only the hit is allocated.
+		Point source = ray.source();
+		Vec direction = ray.direction();
+		double ocX = source.x - center.x;
+		double ocY = source.y - center.y;
+		double ocZ = source.z - center.z;
+		double a = direction.x * direction.x + direction.y * direction.y + direction.z * direction.z; // get (||v||)
+		double b = 2 * (direction.x * ocX + direction.y * ocY + direction.z * ocZ);
+		double c = (ocX * ocX + ocY * ocY + ocZ * ocZ) - radiusSquared();
 		double solutions = (b*b) - (4 * a * c);
-		if (solutions > 0) {
-			double firstSolution = (-b - Math.sqrt(solutions)) / (2 * a);
-			double secondSolution = (-b + Math.sqrt(solutions)) / (2 * a);
-			if (firstSolution == secondSolution) {
-				thereOneSolution = true;
+		if (solutions <= 0) {
+			return null;
+		}
+		double sqrt = Math.sqrt(solutions);
+		double firstSolution = (-b - sqrt) / (2 * a);
+		double secondSolution = (-b + sqrt) / (2 * a);
+		if (firstSolution == secondSolution) {
+			// One solution
+			return firstSolution < Ops.epsilon ? null : hit(ray, firstSolution).setWithin();
+		}
+		if (secondSolution > Ops.epsilon) {
+			if (firstSolution <= Ops.epsilon) {
+				return hit(ray, secondSolution).setWithin();
 			} else {
-				thereTwoSolution = true;
-			}
-			if (thereOneSolution) {
-				if (firstSolution < Ops.epsilon) {
-					solution =  null;
-				} else {
-					solution = new Hit(firstSolution, ray.add(firstSolution).sub(center).normalize()).setWithin();
-				}
-			} else if (thereTwoSolution) {
-				if (secondSolution > Ops.epsilon) {
-					if (firstSolution <= Ops.epsilon) {
-						solution = new Hit(secondSolution, ray.add(secondSolution).sub(center).normalize()).setWithin();
-					} else {
-						solution = new Hit(firstSolution, ray.add(firstSolution).sub(center).normalize());
-					}
-				}
+				return hit(ray, firstSolution);
 			}
 		}
-		return solution;
+		return null;
+	}
+
+	// The hit at distance t along the ray, with the normalized normal at the hitting point.
+	private Hit hit(Ray ray, double t) {
+		Point source = ray.source();
+		Vec direction = ray.direction();
+		Vec normal = new Vec(source.x + t * direction.x - center.x,
+				source.y + t * direction.y - center.y,
+				source.z + t * direction.z - center.z);
+		return new Hit(t, normal.normalize(normal));
+	}
+
+	@Override
+	public boolean intersects(Ray ray, double tMax) {
+		Point source = ray.source();
+		Vec direction = ray.direction();
+		double ocX = source.x - center.x;
+		double ocY = source.y - center.y;
+		double ocZ = source.z - center.z;
+		double a = direction.x * direction.x + direction.y * direction.y + direction.z * direction.z;
+		double b = 2 * (direction.x * ocX + direction.y * ocY + direction.z * ocZ);
+		double c = ocX * ocX + ocY * ocY + ocZ * ocZ - radiusSquared();
+		double discriminant = b * b - 4 * a * c;
+		if (discriminant <= 0)
+			return false;
+		double sqrt = Math.sqrt(discriminant);
+		double firstSolution = (-b - sqrt) / (2 * a);
+		if (firstSolution > Ops.epsilon)
+			return firstSolution < tMax;
+		// The ray starts inside the sphere (or behind it), so the far solution is the hit.
+		double secondSolution = (-b + sqrt) / (2 * a);
+		return secondSolution > Ops.epsilon && secondSolution < tMax;
 	}
 }
@@ -1,5 +1,9 @@
 package edu.cg.scene.objects;
 
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import edu.cg.algebra.Bounds;
 import edu.cg.algebra.Hit;
 import edu.cg.algebra.Ray;
 import edu.cg.algebra.Vec;
@@ -25,6 +29,30 @@ public class Surface implements Intersectable {
 				"Material: " + endl + material + endl;
 	}
 	
+	public Shape shape() {
+		return shape;
+	}
+	
+	public Material material() {
+		return material;
+	}
+	
+	/**
+	 * @return a copy of the surface for rendering, with a compiled shape and a copy of the material,
+	 * so later changes to the surface do not reach the copy.
+	 */
+	public Surface compile() {
+		return compile(new IdentityHashMap<>());
+	}
+	
+	/**
+	 * Same as compile(), for surfaces which may share their materials. A material is copied only the first
+	 * time it is met, and the copy is kept in copies for the other surfaces, so shared materials stay shared.
+	 */
+	public Surface compile(Map<Material, Material> copies) {
+		return new Surface(shape.compile(), copies.computeIfAbsent(material, Material::copy));
+	}
+	
 	@Override
 	public Hit intersect(Ray ray) {
 		Hit hit = shape.intersect(ray);
@@ -33,6 +61,18 @@ public class Surface implements Intersectable {
 		return hit;
 	}
 	
+	@Override
+	public boolean intersects(Ray ray, double tMax) {
+		return shape.intersects(ray, tMax);
+	}
+
+	/**
+	 * @return the bounding box of the surface's shape, or null if the shape is unbounded.
+	 */
+	public Bounds bounds() {
+		return shape.bounds();
+	}
+
 	public Vec Ka() {
 		return material.Ka;
 	}
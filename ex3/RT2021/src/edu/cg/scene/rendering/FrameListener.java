@@ -0,0 +1,16 @@
+package edu.cg.scene.rendering;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Receives the frames of a progressive render (see Scene.renderProgressive) as they are rendered.
+ */
+public interface FrameListener {
+	/**
+	 * Called after every pass of the render, from the rendering thread.
+	 * @param frame - the image so far. It is not changed by the later passes.
+	 * @param pass - the pass, from 0 (the coarse pass) to passes - 1.
+	 * @param passes - the number of passes the render takes unless it is stopped.
+	 */
+	void frame(BufferedImage frame, int pass, int passes);
+}
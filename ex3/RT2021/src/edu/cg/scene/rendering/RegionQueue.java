@@ -0,0 +1,20 @@
+package edu.cg.scene.rendering;
+
+import java.io.IOException;
+
+/**
+ * The regions of an image to render one after the other, and where their pixels go once they are rendered.
+ * Used to render an image region by region, e.g., when the image is split between several processes.
+ */
+public interface RegionQueue {
+	/**
+	 * @return the next region to render as {x0, y0, x1, y1}, for the pixels [x0, x1) X [y0, y1),
+	 * or null if there are no more regions. May block until a region is available.
+	 */
+	int[] next() throws IOException;
+
+	/**
+	 * Takes the pixels of a rendered region, row by row, as RGB values.
+	 */
+	void done(int[] region, int[] pixels) throws IOException;
+}
@@ -0,0 +1,193 @@
+package edu.cg.scene.rendering;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.ImageIO;
+
+import edu.cg.menu.GsonMaker;
+import edu.cg.scene.Scene;
+
+/**
+ * A cache of rendered images on disk, keyed by the content of what was rendered: the serialized scene
+ * (camera, lights, surfaces and the settings saved with it, such as the anti aliasing factor and the recursion
+ * level), the resolution and the rendering settings which change the pixels (the sampler and its seed).
+ * Settings which only change how fast an image is rendered, such as the engine or the tile size, are not part
+ * of the key, so images rendered with any of them are shared.
+ *
+ * Every image is kept in a PNG file named by its key. When the files take more than the size limit, the least
+ * recently used ones are deleted. The order of use is kept in the modification times of the files, so it
+ * carries over to the next run, and several runs can share a folder.
+ */
+public class RenderCache {
+	// Changed whenever the renderer changes the pixels it gives, so images of older versions are not used.
+	private static final String FORMAT = "RT2021-1";
+	private static final String EXTENSION = ".png";
+
+	private final File folder;
+	private final long maxBytes;
+	// The cached images by key, from the least recently used to the most recently used one, with their sizes.
+	private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	/**
+	 * Opens the cache in the given folder (which is created if needed), keeping what is there already.
+	 * @param maxBytes - the most bytes the cached images may take together.
+	 */
+	public RenderCache(File folder, long maxBytes) throws IOException {
+		if (maxBytes <= 0)
+			throw new IllegalArgumentException("Cache size must be positive.");
+		if (!folder.isDirectory() && !folder.mkdirs())
+			throw new IOException("Couldn't create the folder " + folder);
+		this.folder = folder;
+		this.maxBytes = maxBytes;
+
+		File[] files = folder.listFiles((dir, name) -> name.endsWith(EXTENSION));
+		Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+		for (File file : files) {
+			String name = file.getName();
+			entries.put(name.substring(0, name.length() - EXTENSION.length()), file.length());
+			bytes += file.length();
+		}
+		evict();
+	}
+
+	/**
+	 * @return the key of the image the scene gives with these parameters.
+	 */
+	public String key(Scene scene, int imgWidth, int imgHeight, double planeWidth) {
+		String description = String.join("\n", FORMAT,
+				GsonMaker.getInstance().toJson(scene, Scene.class),
+				imgWidth + "x" + imgHeight, Double.toString(planeWidth),
+				scene.getSampler().name(), Long.toString(scene.getSamplerSeed()));
+		MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			// Every Java platform has SHA-256.
+			throw new IllegalStateException(e);
+		}
+		StringBuilder key = new StringBuilder();
+		for (byte b : digest.digest(description.getBytes(StandardCharsets.UTF_8)))
+			key.append(String.format("%02x", b));
+		return key.toString();
+	}
+
+	/**
+	 * @return the cached image of the key, or null if there is none.
+	 * The image is read from its file outside the lock of the cache, so lookups and puts of other keys do not
+	 * wait for the disk. A file which is evicted or replaced meanwhile is read whole or not at all, since files
+	 * are only ever deleted or replaced by a move.
+	 */
+	public BufferedImage get(String key) {
+		synchronized (this) {
+			// Marks the image as the most recently used one.
+			if (entries.get(key) == null) {
+				++misses;
+				return null;
+			}
+		}
+		File file = file(key);
+		BufferedImage img = null;
+		try {
+			img = ImageIO.read(file);
+		} catch (IOException e) {
+			// Treated as missing.
+		}
+		if (img == null) {
+			synchronized (this) {
+				// The file was removed or damaged by someone else.
+				Long size = entries.remove(key);
+				if (size != null) {
+					bytes -= size;
+					file.delete();
+				}
+				++misses;
+			}
+			return null;
+		}
+		file.setLastModified(System.currentTimeMillis());
+		synchronized (this) {
+			++hits;
+		}
+		return img;
+	}
+
+	/**
+	 * Caches the image of the key, and deletes the least recently used images if the cache is full.
+	 */
+	public synchronized void put(String key, BufferedImage img) throws IOException {
+		File file = file(key);
+		// The image is written to a temporary file first, so other runs never read half of it.
+		File temp = File.createTempFile(key, ".tmp", folder);
+		try {
+			if (!ImageIO.write(img, "png", temp))
+				throw new IOException("No PNG writer");
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			temp.delete();
+		}
+		Long old = entries.put(key, file.length());
+		bytes += file.length() - (old == null ? 0 : old);
+		evict();
+	}
+
+	// Keeps the most recently used image even if it is bigger than the limit alone.
+	private void evict() {
+		for (Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+				bytes > maxBytes && entries.size() > 1;) {
+			Map.Entry<String, Long> entry = it.next();
+			file(entry.getKey()).delete();
+			bytes -= entry.getValue();
+			it.remove();
+			++evictions;
+		}
+	}
+
+	private File file(String key) {
+		return new File(folder, key + EXTENSION);
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	public synchronized int getSize() {
+		return entries.size();
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	@Override
+	public synchronized String toString() {
+		long lookups = hits + misses;
+		return String.format("Render cache %s: %d hits, %d misses (%.1f%% hit rate), %d evictions, " +
+				"%d images in %d of %d KB", folder, hits, misses, lookups == 0 ? 0.0 : 100.0 * hits / lookups,
+				evictions, entries.size(), bytes / 1024, maxBytes / 1024);
+	}
+}
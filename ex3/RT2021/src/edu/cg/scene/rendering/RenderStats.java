@@ -0,0 +1,273 @@
+package edu.cg.scene.rendering;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * What a render did: how many rays of every kind it traced, how many intersection tests of every shape type
+ * they took, how many of them hit, the deepest recursion level it reached, and how long its phases took.
+ * The rendering threads count into counters of their own (see Counters), which are cleared when a tile starts
+ * and added to the stats when it is done, so counting costs a few plain increments per ray and is always on.
+ * What a thread counts outside of a tile (e.g., a direct BVH query) is never added to the stats of a render.
+ *
+ * The stats of the last render and the totals of all the renders of the process are published through JMX,
+ * as edu.cg:type=RenderStats,name=last and edu.cg:type=RenderStats,name=total.
+ */
+public class RenderStats implements RenderStatsMXBean {
+	/**
+	 * The timed phases of a render. COMPILE and TRACE are wall clock times, while the stages of the wavefront
+	 * engine are summed over the rendering threads.
+	 */
+	public enum Phase {
+		COMPILE, TRACE,
+		GENERATE, CLOSEST_HITS, SHADOW_RAYS, ANY_HITS, SHADE, SPAWN, COMBINE
+	}
+
+	/**
+	 * The counters of a single rendering thread. They are plain fields, so they must only be touched by their
+	 * thread, which adds them to the stats of the render with addTo.
+	 */
+	public static final class Counters {
+		private static final ThreadLocal<Counters> COUNTERS = ThreadLocal.withInitial(Counters::new);
+
+		public long primaryRays;
+		public long shadowRays;
+		public long reflectionRays;
+		public long refractionRays;
+		public long hits;
+		public long occludedShadowRays;
+		public long sphereTests;
+		public long plainTests;
+		public long boxTests;
+		public long otherTests;
+		public long nodeVisits;
+		public int maxDepth;
+		public final long[] phaseNanos = new long[Phase.values().length];
+
+		private Counters() {
+		}
+
+		/**
+		 * @return the counters of the calling thread.
+		 */
+		public static Counters get() {
+			return COUNTERS.get();
+		}
+
+		/**
+		 * Adds the counters to the stats and clears them.
+		 */
+		public void addTo(RenderStats stats) {
+			stats.primaryRays.add(primaryRays);
+			stats.shadowRays.add(shadowRays);
+			stats.reflectionRays.add(reflectionRays);
+			stats.refractionRays.add(refractionRays);
+			stats.hits.add(hits);
+			stats.occludedShadowRays.add(occludedShadowRays);
+			stats.sphereTests.add(sphereTests);
+			stats.plainTests.add(plainTests);
+			stats.boxTests.add(boxTests);
+			stats.otherTests.add(otherTests);
+			stats.nodeVisits.add(nodeVisits);
+			stats.maxDepth.accumulate(maxDepth);
+			for (int i = 0; i < phaseNanos.length; ++i) {
+				if (phaseNanos[i] != 0)
+					stats.phaseNanos[i].add(phaseNanos[i]);
+			}
+			clear();
+		}
+
+		/**
+		 * Drops whatever the thread counted so far. Every tile of a render starts with it, so neither what the
+		 * thread counted outside of a render nor the counts of a tile which failed reach the next tile's stats.
+		 */
+		public void clear() {
+			primaryRays = shadowRays = reflectionRays = refractionRays = 0;
+			hits = occludedShadowRays = 0;
+			sphereTests = plainTests = boxTests = otherTests = nodeVisits = 0;
+			maxDepth = 0;
+			for (int i = 0; i < phaseNanos.length; ++i)
+				phaseNanos[i] = 0;
+		}
+	}
+
+	private static final RenderStats TOTAL = new RenderStats("total");
+	private static final RenderStats LAST = new RenderStats("last");
+	private static boolean registered = false;
+
+	private volatile String scene;
+	private final LongAdder primaryRays = new LongAdder();
+	private final LongAdder shadowRays = new LongAdder();
+	private final LongAdder reflectionRays = new LongAdder();
+	private final LongAdder refractionRays = new LongAdder();
+	private final LongAdder hits = new LongAdder();
+	private final LongAdder occludedShadowRays = new LongAdder();
+	private final LongAdder sphereTests = new LongAdder();
+	private final LongAdder plainTests = new LongAdder();
+	private final LongAdder boxTests = new LongAdder();
+	private final LongAdder otherTests = new LongAdder();
+	private final LongAdder nodeVisits = new LongAdder();
+	private final LongAccumulator maxDepth = new LongAccumulator(Math::max, 0);
+	private final LongAdder[] phaseNanos = new LongAdder[Phase.values().length];
+
+	public RenderStats(String scene) {
+		this.scene = scene;
+		for (int i = 0; i < phaseNanos.length; ++i)
+			phaseNanos[i] = new LongAdder();
+	}
+
+	public void addPhase(Phase phase, long nanos) {
+		phaseNanos[phase.ordinal()].add(nanos);
+	}
+
+	/**
+	 * Publishes the stats of a finished render through JMX: they replace the stats of the last render,
+	 * and are added to the totals.
+	 */
+	public void publish() {
+		synchronized (RenderStats.class) {
+			LAST.reset(scene);
+			addTo(LAST);
+			addTo(TOTAL);
+			if (!registered) {
+				registered = true;
+				try {
+					MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+					server.registerMBean(LAST, new ObjectName("edu.cg:type=RenderStats,name=last"));
+					server.registerMBean(TOTAL, new ObjectName("edu.cg:type=RenderStats,name=total"));
+				} catch (JMException | SecurityException e) {
+					// The stats are still returned by Scene.getRenderStats.
+				}
+			}
+		}
+	}
+
+	private void addTo(RenderStats other) {
+		other.primaryRays.add(primaryRays.sum());
+		other.shadowRays.add(shadowRays.sum());
+		other.reflectionRays.add(reflectionRays.sum());
+		other.refractionRays.add(refractionRays.sum());
+		other.hits.add(hits.sum());
+		other.occludedShadowRays.add(occludedShadowRays.sum());
+		other.sphereTests.add(sphereTests.sum());
+		other.plainTests.add(plainTests.sum());
+		other.boxTests.add(boxTests.sum());
+		other.otherTests.add(otherTests.sum());
+		other.nodeVisits.add(nodeVisits.sum());
+		other.maxDepth.accumulate(maxDepth.get());
+		for (int i = 0; i < phaseNanos.length; ++i)
+			other.phaseNanos[i].add(phaseNanos[i].sum());
+	}
+
+	private void reset(String scene) {
+		this.scene = scene;
+		for (LongAdder adder : new LongAdder[] { primaryRays, shadowRays, reflectionRays, refractionRays, hits,
+				occludedShadowRays, sphereTests, plainTests, boxTests, otherTests, nodeVisits })
+			adder.reset();
+		maxDepth.reset();
+		for (LongAdder adder : phaseNanos)
+			adder.reset();
+	}
+
+	@Override
+	public String getScene() {
+		return scene;
+	}
+
+	@Override
+	public long getPrimaryRays() {
+		return primaryRays.sum();
+	}
+
+	@Override
+	public long getShadowRays() {
+		return shadowRays.sum();
+	}
+
+	@Override
+	public long getReflectionRays() {
+		return reflectionRays.sum();
+	}
+
+	@Override
+	public long getRefractionRays() {
+		return refractionRays.sum();
+	}
+
+	@Override
+	public long getRays() {
+		return getPrimaryRays() + getShadowRays() + getReflectionRays() + getRefractionRays();
+	}
+
+	@Override
+	public long getHits() {
+		return hits.sum();
+	}
+
+	@Override
+	public long getOccludedShadowRays() {
+		return occludedShadowRays.sum();
+	}
+
+	@Override
+	public long getSphereTests() {
+		return sphereTests.sum();
+	}
+
+	@Override
+	public long getPlainTests() {
+		return plainTests.sum();
+	}
+
+	@Override
+	public long getBoxTests() {
+		return boxTests.sum();
+	}
+
+	@Override
+	public long getOtherTests() {
+		return otherTests.sum();
+	}
+
+	@Override
+	public long getNodeVisits() {
+		return nodeVisits.sum();
+	}
+
+	@Override
+	public int getMaxDepth() {
+		return (int) maxDepth.get();
+	}
+
+	public long getPhaseNanos(Phase phase) {
+		return phaseNanos[phase.ordinal()].sum();
+	}
+
+	@Override
+	public Map<String, Long> getPhaseMillis() {
+		Map<String, Long> millis = new LinkedHashMap<>();
+		for (Phase phase : Phase.values()) {
+			long nanos = getPhaseNanos(phase);
+			if (nanos != 0)
+				millis.put(phase.name(), nanos / 1000000);
+		}
+		return millis;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s: %d rays (%d primary, %d shadow, %d reflection, %d refraction), %d hits, " +
+				"%d occluded shadow rays, max depth %d. Intersection tests: %d spheres, %d boxes, %d plains, " +
+				"%d other shapes, %d BVH node visits. Phases (ms): %s", scene, getRays(), getPrimaryRays(),
+				getShadowRays(), getReflectionRays(), getRefractionRays(), getHits(), getOccludedShadowRays(),
+				getMaxDepth(), getSphereTests(), getBoxTests(), getPlainTests(), getOtherTests(), getNodeVisits(),
+				getPhaseMillis());
+	}
+}
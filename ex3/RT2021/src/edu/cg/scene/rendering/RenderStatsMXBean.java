@@ -0,0 +1,38 @@
+package edu.cg.scene.rendering;
+
+import java.util.Map;
+
+/**
+ * The JMX view of RenderStats.
+ */
+public interface RenderStatsMXBean {
+	String getScene();
+
+	long getPrimaryRays();
+
+	long getShadowRays();
+
+	long getReflectionRays();
+
+	long getRefractionRays();
+
+	long getRays();
+
+	long getHits();
+
+	long getOccludedShadowRays();
+
+	long getSphereTests();
+
+	long getPlainTests();
+
+	long getBoxTests();
+
+	long getOtherTests();
+
+	long getNodeVisits();
+
+	int getMaxDepth();
+
+	Map<String, Long> getPhaseMillis();
+}
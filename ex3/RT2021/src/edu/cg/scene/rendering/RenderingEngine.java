@@ -0,0 +1,15 @@
+package edu.cg.scene.rendering;
+
+/**
+ * The ways a scene can be rendered, which give the same image.
+ */
+public enum RenderingEngine {
+	/**
+	 * Every pixel sample is traced on its own, following its reflections and refractions recursively.
+	 */
+	RECURSIVE,
+	/**
+	 * The rays of a whole tile are traced together, one stage at a time, in queues of primitive arrays.
+	 */
+	WAVEFRONT
+}
@@ -0,0 +1,228 @@
+package edu.cg.scene.rendering;
+
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits an image into square tiles and renders them on a ForkJoinPool.
+ * The tiles are ordered along a space filling curve, so neighboring tiles (which usually touch the same
+ * part of the scene) are rendered close in time. Idle workers steal ranges of tiles from busy ones,
+ * and a tile which is still being rendered when the other workers run out of work is split further.
+ * A tile is rendered in bands of rows, one band at a time.
+ */
+public class TileScheduler {
+	public enum TileOrder { SCANLINE, MORTON, HILBERT }
+
+	/**
+	 * Renders the pixels of a rectangular region, writing them directly into the output image.
+	 */
+	@FunctionalInterface
+	public interface TileRenderer {
+		/**
+		 * Renders the pixels [x0, x1) X [y0, y1).
+		 */
+		void renderTile(int x0, int y0, int x1, int y1);
+	}
+
+	private final ForkJoinPool pool;
+	private final int tileSize;
+	private final TileOrder order;
+	private final int bandHeight;
+
+	public TileScheduler(ForkJoinPool pool, int tileSize, TileOrder order) {
+		this(pool, tileSize, order, 1);
+	}
+
+	/**
+	 * @param bandHeight - the number of rows the renderer is given at once (e.g., the height of a ray packet).
+	 */
+	public TileScheduler(ForkJoinPool pool, int tileSize, TileOrder order, int bandHeight) {
+		if (tileSize <= 0)
+			throw new IllegalArgumentException("Tile size must be positive.");
+		if (bandHeight <= 0)
+			throw new IllegalArgumentException("Band height must be positive.");
+		this.pool = pool;
+		this.tileSize = tileSize;
+		this.order = order;
+		this.bandHeight = bandHeight;
+	}
+
+	/**
+	 * Renders the whole image and returns when all tiles are done.
+	 * @param width - the width of the image in pixels.
+	 * @param height - the height of the image in pixels.
+	 * @param renderer - renders a single region of the image.
+	 */
+	public void render(int width, int height, TileRenderer renderer) {
+		render(0, 0, width, height, renderer);
+	}
+
+	/**
+	 * Renders the region [x0, x1) X [y0, y1) of the image and returns when all of its tiles are done.
+	 * The tiles are aligned to the corner of the region.
+	 */
+	public void render(int x0, int y0, int x1, int y1, TileRenderer renderer) {
+		int[] tiles = orderedTiles(x1 - x0, y1 - y0);
+		if (tiles.length == 0)
+			return;
+		pool.invoke(new TilesTask(tiles, 0, tiles.length, x0, y0, x1, y1, renderer));
+	}
+
+	public int numTiles(int width, int height) {
+		return ceilDiv(width, tileSize) * ceilDiv(height, tileSize);
+	}
+
+	/**
+	 * @return the tiles of the image, each encoded as (tileY << 16) | tileX, in rendering order.
+	 */
+	int[] orderedTiles(int width, int height) {
+		int tilesX = ceilDiv(width, tileSize);
+		int tilesY = ceilDiv(height, tileSize);
+		int side = 1;
+		while (side < Math.max(tilesX, tilesY))
+			side <<= 1;
+
+		long[] keyed = new long[tilesX * tilesY];
+		int i = 0;
+		for (int ty = 0; ty < tilesY; ++ty)
+			for (int tx = 0; tx < tilesX; ++tx) {
+				long key;
+				switch (order) {
+				case MORTON:
+					key = morton(tx, ty);
+					break;
+				case HILBERT:
+					key = hilbert(side, tx, ty);
+					break;
+				default:
+					key = (long) ty * tilesX + tx;
+					break;
+				}
+				keyed[i++] = (key << 32) | ((long) ty << 16) | tx;
+			}
+		Arrays.sort(keyed);
+
+		int[] tiles = new int[keyed.length];
+		for (i = 0; i < keyed.length; ++i)
+			tiles[i] = (int) keyed[i];
+		return tiles;
+	}
+
+	private static long morton(int x, int y) {
+		return spread(x) | (spread(y) << 1);
+	}
+
+	// Spreads the lower 16 bits of v so there is a zero bit between every two bits.
+	private static long spread(int v) {
+		long x = v & 0xFFFF;
+		x = (x | (x << 8)) & 0x00FF00FFL;
+		x = (x | (x << 4)) & 0x0F0F0F0FL;
+		x = (x | (x << 2)) & 0x33333333L;
+		x = (x | (x << 1)) & 0x55555555L;
+		return x;
+	}
+
+	// The distance of (x, y) along the Hilbert curve which fills a side X side grid.
+	private static long hilbert(int side, int x, int y) {
+		long d = 0;
+		for (int s = side / 2; s > 0; s /= 2) {
+			int rx = (x & s) > 0 ? 1 : 0;
+			int ry = (y & s) > 0 ? 1 : 0;
+			d += (long) s * s * ((3 * rx) ^ ry);
+			if (ry == 0) {
+				if (rx == 1) {
+					x = s - 1 - x;
+					y = s - 1 - y;
+				}
+				int t = x;
+				x = y;
+				y = t;
+			}
+		}
+		return d;
+	}
+
+	private static int ceilDiv(int a, int b) {
+		return (a + b - 1) / b;
+	}
+
+	/**
+	 * Renders a contiguous range of the ordered tiles. Ranges are split in halves until a single tile is left,
+	 * so idle workers can steal half of the remaining work.
+	 */
+	@SuppressWarnings("serial")
+	private class TilesTask extends RecursiveAction {
+		private final int[] tiles;
+		private final int lo, hi;
+		private final int regionX0, regionY0, regionX1, regionY1;
+		private final TileRenderer renderer;
+
+		TilesTask(int[] tiles, int lo, int hi, int regionX0, int regionY0, int regionX1, int regionY1,
+				TileRenderer renderer) {
+			this.tiles = tiles;
+			this.lo = lo;
+			this.hi = hi;
+			this.regionX0 = regionX0;
+			this.regionY0 = regionY0;
+			this.regionX1 = regionX1;
+			this.regionY1 = regionY1;
+			this.renderer = renderer;
+		}
+
+		@Override
+		protected void compute() {
+			if (hi - lo > 1) {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new TilesTask(tiles, lo, mid, regionX0, regionY0, regionX1, regionY1, renderer),
+						new TilesTask(tiles, mid, hi, regionX0, regionY0, regionX1, regionY1, renderer));
+				return;
+			}
+			int tx = tiles[lo] & 0xFFFF;
+			int ty = tiles[lo] >>> 16;
+			int x0 = regionX0 + tx * tileSize;
+			int y0 = regionY0 + ty * tileSize;
+			new RowsTask(x0, Math.min(x0 + tileSize, regionX1), y0, Math.min(y0 + tileSize, regionY1), renderer).compute();
+		}
+	}
+
+	/**
+	 * Renders the bands of rows of a single tile one by one. If the other workers have run out of work
+	 * while this tile is still being rendered, the remaining bands are split and half of them are forked,
+	 * so a slow tile (e.g., one full of glass) does not keep the whole render waiting for one thread.
+	 */
+	@SuppressWarnings("serial")
+	private class RowsTask extends RecursiveAction {
+		private final int x0, x1;
+		private final int y0;
+		private int y1;
+		private final TileRenderer renderer;
+
+		RowsTask(int x0, int x1, int y0, int y1, TileRenderer renderer) {
+			this.x0 = x0;
+			this.x1 = x1;
+			this.y0 = y0;
+			this.y1 = y1;
+			this.renderer = renderer;
+		}
+
+		@Override
+		protected void compute() {
+			RowsTask forked = null;
+			for (int y = y0; y < y1; y += bandHeight) {
+				int bandEnd = Math.min(y + bandHeight, y1);
+				renderer.renderTile(x0, y, x1, bandEnd);
+				int remainingBands = (y1 - bandEnd + bandHeight - 1) / bandHeight;
+				if (forked == null && remainingBands >= 2 && getSurplusQueuedTaskCount() <= 0
+						&& getPool().getActiveThreadCount() < getPool().getParallelism()) {
+					int mid = bandEnd + (remainingBands / 2) * bandHeight;
+					forked = new RowsTask(x0, x1, mid, y1, renderer);
+					forked.fork();
+					y1 = mid;
+				}
+			}
+			if (forked != null)
+				forked.join();
+		}
+	}
+}
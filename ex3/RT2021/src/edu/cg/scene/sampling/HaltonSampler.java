@@ -0,0 +1,44 @@
+package edu.cg.scene.sampling;
+
+/**
+ * The Halton sequence, a low discrepancy sequence with the radical inverses of the index in base 2 and 3
+ * as its coordinates. Every pixel shifts the whole sequence by a random offset (modulo 1), so neighboring
+ * pixels do not repeat the same pattern.
+ */
+public class HaltonSampler extends Sampler {
+	private double shiftX;
+	private double shiftY;
+
+	public HaltonSampler(int samplesPerPixel, long seed) {
+		super(Type.HALTON, samplesPerPixel, seed);
+	}
+
+	@Override
+	protected void startPixel() {
+		shiftX = random(-1, 0);
+		shiftY = random(-1, 1);
+	}
+
+	@Override
+	protected double x(int sample) {
+		return shift((Integer.reverse(sample) & 0xffffffffL) * 0x1.0p-32, shiftX);
+	}
+
+	@Override
+	protected double y(int sample) {
+		return shift(radicalInverse3(sample), shiftY);
+	}
+
+	private static double radicalInverse3(int index) {
+		double inverse = 0;
+		double digitValue = 1.0 / 3;
+		for (int i = index; i > 0; i /= 3, digitValue /= 3)
+			inverse += (i % 3) * digitValue;
+		return inverse;
+	}
+
+	private static double shift(double value, double shift) {
+		double shifted = value + shift;
+		return shifted < 1 ? shifted : shifted - 1;
+	}
+}
@@ -0,0 +1,77 @@
+package edu.cg.scene.sampling;
+
+import java.util.Arrays;
+
+import edu.cg.algebra.Vec;
+
+/**
+ * Running estimates of the mean and the variance of the luminance of the samples of a batch of pixels
+ * (Welford's algorithm), which decide how many samples every pixel gets.
+ * A pixel gets at least firstBatch samples and at most maxSamples samples, and stops in between once
+ * the standard error of its mean luminance is within the tolerance.
+ * With firstBatch == maxSamples every pixel simply gets maxSamples samples.
+ * Estimates are reusable: reset them for every batch of pixels. They belong to a single thread and must never be shared.
+ */
+public final class PixelEstimates {
+	private int firstBatch;
+	private int maxSamples;
+	private double tolerance;
+
+	private int[] samples = new int[0];
+	private double[] mean = new double[0];
+	private double[] m2 = new double[0];
+
+	/**
+	 * Starts the estimates of the pixels [0, numPixels).
+	 */
+	public void reset(int numPixels, int firstBatch, int maxSamples, double tolerance) {
+		if (firstBatch <= 0 || maxSamples < firstBatch)
+			throw new IllegalArgumentException("Sample counts must satisfy 0 < firstBatch <= maxSamples.");
+		this.firstBatch = firstBatch;
+		this.maxSamples = maxSamples;
+		this.tolerance = tolerance;
+		if (samples.length < numPixels) {
+			samples = new int[numPixels];
+			mean = new double[numPixels];
+			m2 = new double[numPixels];
+		}
+		Arrays.fill(samples, 0, numPixels, 0);
+		Arrays.fill(mean, 0, numPixels, 0);
+		Arrays.fill(m2, 0, numPixels, 0);
+	}
+
+	/**
+	 * Adds the color of a sample of the pixel.
+	 */
+	public void add(int pixel, Vec color) {
+		double luminance = 0.2126 * color.x + 0.7152 * color.y + 0.0722 * color.z;
+		int n = ++samples[pixel];
+		double delta = luminance - mean[pixel];
+		mean[pixel] += delta / n;
+		m2[pixel] += delta * (luminance - mean[pixel]);
+	}
+
+	/**
+	 * @return the number of samples the pixel got so far, which is also the index of its next sample.
+	 */
+	public int samples(int pixel) {
+		return samples[pixel];
+	}
+
+	/**
+	 * @return the number of samples the pixel should get next: the rest of the first batch, then one at a time
+	 * until it converges, and 0 once it is done.
+	 */
+	public int samplesNeeded(int pixel) {
+		int n = samples[pixel];
+		if (n < firstBatch)
+			return firstBatch - n;
+		if (n >= maxSamples)
+			return 0;
+		if (n < 2)
+			return 1;
+		// The variance of the mean is the variance of the samples (m2 / (n - 1)) over n.
+		double varianceOfMean = m2[pixel] / ((double) (n - 1) * n);
+		return varianceOfMean > tolerance * tolerance ? 1 : 0;
+	}
+}
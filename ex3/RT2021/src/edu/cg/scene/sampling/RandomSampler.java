@@ -0,0 +1,22 @@
+package edu.cg.scene.sampling;
+
+/**
+ * Uniform random samples, the way pixels used to be sampled: the first sample goes through the center of the
+ * pixel and the rest are spread uniformly over it.
+ */
+public class RandomSampler extends Sampler {
+
+	public RandomSampler(int samplesPerPixel, long seed) {
+		super(Type.RANDOM, samplesPerPixel, seed);
+	}
+
+	@Override
+	protected double x(int sample) {
+		return sample == 0 ? 0.5 : random(sample, 0);
+	}
+
+	@Override
+	protected double y(int sample) {
+		return sample == 0 ? 0.5 : random(sample, 1);
+	}
+}
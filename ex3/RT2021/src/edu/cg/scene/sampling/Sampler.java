@@ -0,0 +1,124 @@
+package edu.cg.scene.sampling;
+
+/**
+ * Places the samples (rays) of a pixel within the pixel.
+ * The positions depend only on the seed, the pixel and the index of the sample, so a render is reproducible
+ * no matter which thread renders which pixel, and no state is shared between threads.
+ * A sampler holds the state of the current pixel, so it belongs to a single thread and must never be shared.
+ * Usage: startPixel(x, y), and then sampleX(i) and sampleY(i) for every sample i of the pixel.
+ */
+public abstract class Sampler {
+	public enum Type {
+		/** Uniform random positions, besides the first sample which goes through the center of the pixel. */
+		RANDOM,
+		/** A random position in every cell of a grid over the pixel. */
+		STRATIFIED,
+		/** The Halton sequence (bases 2 and 3), randomly shifted for every pixel. */
+		HALTON,
+		/** The Sobol sequence, randomly scrambled for every pixel. */
+		SOBOL;
+
+		public Sampler create(int samplesPerPixel, long seed) {
+			switch (this) {
+			case RANDOM:
+				return new RandomSampler(samplesPerPixel, seed);
+			case STRATIFIED:
+				return new StratifiedSampler(samplesPerPixel, seed);
+			case HALTON:
+				return new HaltonSampler(samplesPerPixel, seed);
+			default:
+				return new SobolSampler(samplesPerPixel, seed);
+			}
+		}
+	}
+
+	private final Type type;
+	protected final int samplesPerPixel;
+	private final long seed;
+	private long pixelSeed;
+
+	protected Sampler(Type type, int samplesPerPixel, long seed) {
+		if (samplesPerPixel <= 0)
+			throw new IllegalArgumentException("Samples per pixel must be positive.");
+		this.type = type;
+		this.samplesPerPixel = samplesPerPixel;
+		this.seed = seed;
+	}
+
+	public Type type() {
+		return type;
+	}
+
+	public int samplesPerPixel() {
+		return samplesPerPixel;
+	}
+
+	public long seed() {
+		return seed;
+	}
+
+	/**
+	 * Starts the samples of the pixel (x, y).
+	 */
+	public void startPixel(int x, int y) {
+		pixelSeed = mix(seed ^ mix(((long) x << 32) | (y & 0xffffffffL)));
+		startPixel();
+	}
+
+	/**
+	 * Called when a pixel is started, after the random numbers of the pixel are set.
+	 */
+	protected void startPixel() {
+	}
+
+	/**
+	 * @return the horizontal position of the sample-th sample of the pixel, in [0, 1).
+	 * A pixel with a single sample is sampled at its center.
+	 */
+	public double sampleX(int sample) {
+		return samplesPerPixel == 1 ? 0.5 : x(sample);
+	}
+
+	/**
+	 * @return the vertical position of the sample-th sample of the pixel, in [0, 1).
+	 * A pixel with a single sample is sampled at its center.
+	 */
+	public double sampleY(int sample) {
+		return samplesPerPixel == 1 ? 0.5 : y(sample);
+	}
+
+	protected abstract double x(int sample);
+
+	protected abstract double y(int sample);
+
+	/**
+	 * @return a random number in [0, 1), which depends only on the seed, the pixel, the sample and the dimension.
+	 */
+	protected double random(int sample, int dimension) {
+		return (randomBits(sample, dimension) >>> 11) * 0x1.0p-53;
+	}
+
+	protected long randomBits(int sample, int dimension) {
+		return mix(pixelSeed + (2L * sample + dimension + 1) * 0x9E3779B97F4A7C15L);
+	}
+
+	/**
+	 * @return a random number in [0, 1) for a ray of the tree of rays of a sample, which depends only on the seed,
+	 * the pixel (x, y), the sample and the path to the ray. The path of the primary ray is 1, and a ray which
+	 * the ray of path p spawns has the path 2p if it is reflected and 2p + 1 if it is refracted, so the path
+	 * encodes both the depth and the branches taken. Unlike the positions of the samples, it needs no started
+	 * pixel, so the renderers may draw it for rays of any pixel in any order.
+	 */
+	public static double pathRandom(long seed, int x, int y, int sample, long path) {
+		long pixelSeed = mix(seed ^ mix(((long) x << 32) | (y & 0xffffffffL)));
+		long bits = mix(pixelSeed ^ mix(path * 0x9E3779B97F4A7C15L + sample));
+		return (bits >>> 11) * 0x1.0p-53;
+	}
+
+	// The finalizer of SplitMix64.
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
@@ -0,0 +1,41 @@
+package edu.cg.scene.sampling;
+
+/**
+ * The first two dimensions of the Sobol sequence, a low discrepancy sequence whose first 2^k points
+ * stratify the pixel in every way a grid of 2^k cells can. Every pixel scrambles the sequence with
+ * a random digital shift (XOR), which keeps these properties.
+ */
+public class SobolSampler extends Sampler {
+	private int scrambleX;
+	private int scrambleY;
+
+	public SobolSampler(int samplesPerPixel, long seed) {
+		super(Type.SOBOL, samplesPerPixel, seed);
+	}
+
+	@Override
+	protected void startPixel() {
+		long bits = randomBits(-1, 0);
+		scrambleX = (int) bits;
+		scrambleY = (int) (bits >>> 32);
+	}
+
+	@Override
+	protected double x(int sample) {
+		return toUnit(Integer.reverse(sample) ^ scrambleX);
+	}
+
+	@Override
+	protected double y(int sample) {
+		int bits = 0;
+		for (int v = 1 << 31, i = sample; i != 0; i >>>= 1, v ^= v >>> 1) {
+			if ((i & 1) != 0)
+				bits ^= v;
+		}
+		return toUnit(bits ^ scrambleY);
+	}
+
+	private static double toUnit(int bits) {
+		return (bits & 0xffffffffL) * 0x1.0p-32;
+	}
+}
@@ -0,0 +1,59 @@
+package edu.cg.scene.sampling;
+
+/**
+ * Splits the pixel into a grid of (about) samplesPerPixel cells and places one sample at a random position
+ * in every cell, so the samples cannot clump together.
+ * The cells are visited with a stride of about 0.618 of their number, starting from a random cell, so that
+ * the first few samples of a pixel are already spread over it (which adaptive sampling relies on).
+ */
+public class StratifiedSampler extends Sampler {
+	private final int columns;
+	private final int rows;
+	private final int cells;
+	private final int stride;
+	private int firstCell;
+
+	public StratifiedSampler(int samplesPerPixel, long seed) {
+		super(Type.STRATIFIED, samplesPerPixel, seed);
+		columns = (int) Math.ceil(Math.sqrt(samplesPerPixel));
+		rows = (samplesPerPixel + columns - 1) / columns;
+		cells = columns * rows;
+		stride = goldenStride(cells);
+	}
+
+	@Override
+	protected void startPixel() {
+		firstCell = (int) (random(-1, 0) * cells);
+	}
+
+	@Override
+	protected double x(int sample) {
+		return (cell(sample) % columns + random(sample, 0)) / columns;
+	}
+
+	@Override
+	protected double y(int sample) {
+		return (cell(sample) / columns + random(sample, 1)) / rows;
+	}
+
+	private int cell(int sample) {
+		return (int) ((firstCell + (long) sample * stride) % cells);
+	}
+
+	// The stride closest to 0.618 * cells which is coprime to cells, so that every cell is visited.
+	private static int goldenStride(int cells) {
+		int target = (int) Math.round(0.6180339887498949 * cells);
+		for (int d = 0; ; ++d) {
+			if (target - d >= 1 && gcd(target - d, cells) == 1)
+				return target - d;
+			if (target + d < cells && gcd(target + d, cells) == 1)
+				return target + d;
+			if (target - d < 1 && target + d >= cells)
+				return 1;
+		}
+	}
+
+	private static int gcd(int a, int b) {
+		return b == 0 ? a : gcd(b, a % b);
+	}
+}
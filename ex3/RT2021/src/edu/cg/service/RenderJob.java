@@ -0,0 +1,54 @@
+package edu.cg.service;
+
+import java.util.concurrent.CompletableFuture;
+
+import edu.cg.scene.RenderHandle;
+import edu.cg.scene.RenderResult;
+import edu.cg.scene.Scene;
+
+/**
+ * A render request of the service, from the moment it is admitted until its image is sent back.
+ * Jobs are taken from the queue by priority, highest first, and in the order they came in among equal
+ * priorities.
+ */
+class RenderJob implements Comparable<RenderJob> {
+	final long id;
+	final int priority;
+	final Scene scene;
+	final int width;
+	final int height;
+	final double planeWidth;
+	// The memory the job is estimated to take, reserved while it is queued or rendered.
+	final long memory;
+	// Created when the job is admitted, so its time limit counts the time it waits in the queue.
+	final RenderHandle handle;
+	final CompletableFuture<RenderResult> result = new CompletableFuture<>();
+
+	final long submitTime = System.nanoTime();
+	volatile long startTime = 0;
+	volatile long endTime = 0;
+
+	RenderJob(long id, int priority, Scene scene, int width, int height, double planeWidth, long memory,
+			RenderHandle handle) {
+		this.id = id;
+		this.priority = priority;
+		this.scene = scene;
+		this.width = width;
+		this.height = height;
+		this.planeWidth = planeWidth;
+		this.memory = memory;
+		this.handle = handle;
+	}
+
+	@Override
+	public int compareTo(RenderJob other) {
+		if (priority != other.priority)
+			return Integer.compare(other.priority, priority);
+		return Long.compare(id, other.id);
+	}
+
+	@Override
+	public String toString() {
+		return "job " + id + " (" + scene.getName() + ", " + width + "x" + height + ", priority " + priority + ")";
+	}
+}
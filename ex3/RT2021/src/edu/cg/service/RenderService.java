@@ -0,0 +1,542 @@
+package edu.cg.service;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.ImageIO;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import edu.cg.Logger;
+import edu.cg.menu.SceneLoader;
+import edu.cg.scene.RenderBudget;
+import edu.cg.scene.RenderHandle;
+import edu.cg.scene.RenderResult;
+import edu.cg.scene.Scene;
+
+/**
+ * Renders scenes over HTTP, as a long-running service.
+ *
+ * POST /render takes a scene in the JSON format the scenes are saved in (see GsonMaker) and returns its image
+ * as a PNG. The render parameters are given in the query: width, height and plane-width (default 400, 400 and
+ * 4.0), aa and recursion (default: the scene's own), priority (default 0, higher renders first), and
+ * time-limit (in milliseconds, counted from the moment the job is queued) and ray-limit.
+ * A render which runs out of its limits returns the tiles it rendered. The X-Render-Status header tells
+ * whether the image is complete, and X-Render-Completion how much of it was rendered.
+ * GET /metrics returns the queue depth, the counters of the jobs and their latencies as JSON.
+ *
+ * Jobs wait in a priority queue and are rendered a few at a time, all on one worker pool which lives as long
+ * as the service. A job is admitted only while there is room for it (a renderer or a place in the queue) and
+ * the memory it is estimated to take fits in the memory limit, otherwise it is rejected with 503. The estimate
+ * comes from the size of the image and the Content-Length of the request, and is reserved before the body is
+ * read, so requests without a Content-Length (chunked ones) are rejected with 411. Requests are handled by a
+ * bounded number of threads. Together, these keep a burst of requests from exhausting the heap.
+ *
+ * Usage: RenderService [options]
+ */
+public class RenderService implements AutoCloseable {
+	private static final String USAGE = String.join(System.lineSeparator(),
+			"Usage: RenderService [options]",
+			"Options:",
+			"  --port <port>           The port to listen on (default 8080).",
+			"  --threads <n>           The threads of the worker pool (default: the number of processors).",
+			"  --renders <n>           The most renders which run at once (default 2).",
+			"  --queue <n>             The most jobs which wait in the queue (default 64).",
+			"  --memory <MB>           The most memory the admitted jobs may take (default 512).",
+			"  --time-limit <ms>       The time limit of jobs which don't set one (default: none).");
+
+	// The bytes a job is estimated to take per pixel (the image and its PNG encoding), and per byte of its scene
+	// (the request body and the scene read from it).
+	private static final long BYTES_PER_PIXEL = 8;
+	private static final long BYTES_PER_SCENE_BYTE = 8;
+	// Request threads besides the ones which wait for admitted jobs, to reject requests and serve /metrics.
+	private static final int SPARE_REQUEST_THREADS = 4;
+
+	private int port = 8080;
+	private int nThreads = Runtime.getRuntime().availableProcessors();
+	private int maxConcurrentRenders = 2;
+	private int maxQueuedJobs = 64;
+	private long memoryLimit = 512L << 20;
+	private long defaultTimeLimit = 0;
+	private Logger logger = s -> {};
+
+	private HttpServer server = null;
+	private ExecutorService httpExecutor = null;
+	private ForkJoinPool pool = null;
+	private final List<Thread> renderers = new ArrayList<>();
+	private final PriorityBlockingQueue<RenderJob> queue = new PriorityBlockingQueue<>();
+	private final Set<RenderJob> running = ConcurrentHashMap.newKeySet();
+	private final AtomicLong nextId = new AtomicLong();
+	// Guards the admission of jobs: the jobs which are queued or rendered, and the memory reserved for them.
+	private final Object admissionLock = new Object();
+	private int admittedJobs = 0;
+	private long reservedMemory = 0;
+	private final ServiceMetrics metrics = new ServiceMetrics();
+	private final Gson gson = new GsonBuilder().setPrettyPrinting().create();
+
+	/**
+	 * Sets the port the service listens on. 0 picks a free port.
+	 */
+	public RenderService initPort(int port) {
+		if (port < 0 || port > 0xffff)
+			throw new IllegalArgumentException("Port must be in the range [0, 65535].");
+		this.port = port;
+		return this;
+	}
+
+	/**
+	 * Sets the number of threads of the worker pool all the renders share.
+	 */
+	public RenderService initThreads(int nThreads) {
+		if (nThreads <= 0)
+			throw new IllegalArgumentException("Number of threads must be positive.");
+		this.nThreads = nThreads;
+		return this;
+	}
+
+	/**
+	 * Sets the number of jobs which are rendered at once. The others wait in the queue.
+	 */
+	public RenderService initMaxConcurrentRenders(int maxConcurrentRenders) {
+		if (maxConcurrentRenders <= 0)
+			throw new IllegalArgumentException("Number of concurrent renders must be positive.");
+		this.maxConcurrentRenders = maxConcurrentRenders;
+		return this;
+	}
+
+	/**
+	 * Sets the number of jobs which may wait in the queue while all the renderers are busy. Jobs beyond it are
+	 * rejected, so with 0 a job is admitted only if a renderer is free for it.
+	 */
+	public RenderService initMaxQueuedJobs(int maxQueuedJobs) {
+		if (maxQueuedJobs < 0)
+			throw new IllegalArgumentException("Number of queued jobs must not be negative.");
+		this.maxQueuedJobs = maxQueuedJobs;
+		return this;
+	}
+
+	/**
+	 * Sets the memory (in bytes) the queued and running jobs may take together, by their estimates.
+	 */
+	public RenderService initMemoryLimit(long memoryLimit) {
+		if (memoryLimit <= 0)
+			throw new IllegalArgumentException("Memory limit must be positive.");
+		this.memoryLimit = memoryLimit;
+		return this;
+	}
+
+	/**
+	 * Sets the time limit (in milliseconds) of jobs which don't set one. 0 (the default) sets none.
+	 */
+	public RenderService initDefaultTimeLimit(long defaultTimeLimit) {
+		if (defaultTimeLimit < 0)
+			throw new IllegalArgumentException("Time limit must not be negative.");
+		this.defaultTimeLimit = defaultTimeLimit;
+		return this;
+	}
+
+	public RenderService initLogger(Logger logger) {
+		this.logger = logger;
+		return this;
+	}
+
+	public static void main(String[] args) {
+		System.setProperty("java.awt.headless", "true");
+		RenderService service = new RenderService().initLogger(s -> System.out.println("[service] " + s));
+		try {
+			service.parseArguments(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.err.println(USAGE);
+			System.exit(2);
+		}
+		try {
+			service.start();
+		} catch (IOException e) {
+			System.err.println("Couldn't start: " + e);
+			System.exit(1);
+		}
+		Runtime.getRuntime().addShutdownHook(new Thread(service::close));
+	}
+
+	private void parseArguments(String[] args) {
+		for (int i = 0; i < args.length; ++i) {
+			String arg = args[i];
+			if (i + 1 == args.length)
+				throw new IllegalArgumentException("Missing the value of " + arg);
+			String value = args[++i];
+			switch (arg) {
+			case "--port":
+				initPort(integer(arg, value));
+				break;
+			case "--threads":
+				initThreads(integer(arg, value));
+				break;
+			case "--renders":
+				initMaxConcurrentRenders(integer(arg, value));
+				break;
+			case "--queue":
+				initMaxQueuedJobs(integer(arg, value));
+				break;
+			case "--memory":
+				initMemoryLimit((long) integer(arg, value) << 20);
+				break;
+			case "--time-limit":
+				initDefaultTimeLimit(integer(arg, value));
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown option " + arg);
+			}
+		}
+	}
+
+	private static int integer(String option, String value) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(option + " must be an integer, got " + value);
+		}
+	}
+
+	public RenderService start() throws IOException {
+		if (server != null)
+			throw new IllegalStateException("The service has already been started.");
+		pool = new ForkJoinPool(nThreads);
+		server = HttpServer.create(new InetSocketAddress(port), 0);
+		// The request threads wait for the jobs they admitted, so there are as many busy ones as jobs which are
+		// queued or rendered, besides the spare ones. Requests beyond them wait for a thread before their body is read.
+		httpExecutor = Executors.newFixedThreadPool(maxConcurrentRenders + maxQueuedJobs + SPARE_REQUEST_THREADS);
+		server.setExecutor(httpExecutor);
+		server.createContext("/render", exchange -> handle(exchange, "POST", this::render));
+		server.createContext("/metrics", exchange -> handle(exchange, "GET", this::metrics));
+		for (int i = 0; i < maxConcurrentRenders; ++i) {
+			Thread renderer = new Thread(this::renderJobs, "render-service-renderer-" + i);
+			renderer.setDaemon(true);
+			renderer.start();
+			renderers.add(renderer);
+		}
+		server.start();
+		logger.log("Listening on port " + getPort() + ", rendering up to " + maxConcurrentRenders + " jobs at once on " +
+				nThreads + " threads, with up to " + maxQueuedJobs + " jobs in the queue and " + (memoryLimit >> 20) +
+				" MB of memory.");
+		return this;
+	}
+
+	/**
+	 * @return the port the service listens on.
+	 */
+	public int getPort() {
+		return server.getAddress().getPort();
+	}
+
+	/**
+	 * Stops accepting requests, cancels the running jobs and fails the queued ones.
+	 */
+	@Override
+	public void close() {
+		if (server == null)
+			return;
+		server.stop(0);
+		for (Thread renderer : renderers)
+			renderer.interrupt();
+		List<RenderJob> queued = new ArrayList<>();
+		queue.drainTo(queued);
+		for (RenderJob job : queued)
+			job.result.completeExceptionally(new CancellationException("The service has been shut down."));
+		for (RenderJob job : running)
+			job.handle.cancel();
+		httpExecutor.shutdown();
+		pool.shutdown();
+		server = null;
+		logger.log("Shut down.");
+	}
+
+	/**
+	 * A failure which is sent back as an HTTP status and a message.
+	 */
+	@SuppressWarnings("serial")
+	private static class HttpError extends Exception {
+		final int status;
+
+		HttpError(int status, String message) {
+			super(message);
+			this.status = status;
+		}
+	}
+
+	@FunctionalInterface
+	private interface Handler {
+		void handle(HttpExchange exchange) throws IOException, HttpError;
+	}
+
+	private void handle(HttpExchange exchange, String method, Handler handler) {
+		try {
+			try {
+				if (!exchange.getRequestMethod().equals(method))
+					throw new HttpError(405, "Use " + method + ".");
+				handler.handle(exchange);
+			} catch (HttpError e) {
+				if (e.status == 503)
+					exchange.getResponseHeaders().set("Retry-After", "1");
+				send(exchange, e.status, "text/plain; charset=utf-8", (e.getMessage() + "\n").getBytes(StandardCharsets.UTF_8));
+			}
+		} catch (IOException e) {
+			logger.log("Couldn't answer " + exchange.getRequestURI() + ": " + e.getMessage());
+		} finally {
+			exchange.close();
+		}
+	}
+
+	private static void send(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+		exchange.getResponseHeaders().set("Content-Type", contentType);
+		exchange.sendResponseHeaders(status, body.length);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(body);
+		}
+	}
+
+	private void render(HttpExchange exchange) throws IOException, HttpError {
+		Map<String, String> query = query(exchange.getRequestURI().getRawQuery());
+		int width = intParameter(query, "width", 400);
+		int height = intParameter(query, "height", 400);
+		double planeWidth = doubleParameter(query, "plane-width", 4.0);
+		int priority = intParameter(query, "priority", 0);
+		if (width <= 0 || height <= 0)
+			throw new HttpError(400, "The width and height must be positive.");
+
+		RenderBudget budget = new RenderBudget();
+		long timeLimit = longParameter(query, "time-limit", defaultTimeLimit);
+		long rayLimit = longParameter(query, "ray-limit", 0);
+		try {
+			if (timeLimit > 0)
+				budget.initTimeLimit(timeLimit, TimeUnit.MILLISECONDS);
+			if (rayLimit > 0)
+				budget.initRayLimit(rayLimit);
+		} catch (IllegalArgumentException e) {
+			throw new HttpError(400, e.getMessage());
+		}
+
+		long sceneBytes = contentLength(exchange);
+		if (sceneBytes > memoryLimit / BYTES_PER_SCENE_BYTE || sceneBytes > Integer.MAX_VALUE - 8)
+			throw new HttpError(413, "The scene is too large.");
+		long memory = BYTES_PER_PIXEL * width * height + BYTES_PER_SCENE_BYTE * sceneBytes;
+		if (memory > memoryLimit)
+			throw new HttpError(413, "The job would take about " + (memory >> 20) + " MB, more than the " +
+					(memoryLimit >> 20) + " MB limit.");
+
+		admit(memory);
+		try {
+			Scene scene = scene(readBody(exchange.getRequestBody(), (int) sceneBytes), query);
+			RenderJob job = new RenderJob(nextId.incrementAndGet(), priority, scene, width, height, planeWidth,
+					memory, new RenderHandle(budget));
+			metrics.accepted.increment();
+			logger.log("Admitted " + job + ", " + queue.size() + " jobs queued before it.");
+			queue.add(job);
+			RenderResult result = await(job);
+			ByteArrayOutputStream png = new ByteArrayOutputStream();
+			ImageIO.write(result.image, "png", png);
+			exchange.getResponseHeaders().set("X-Render-Status", result.status.toString());
+			exchange.getResponseHeaders().set("X-Render-Completion", String.format(Locale.ROOT, "%.4f", result.completion()));
+			exchange.getResponseHeaders().set("X-Queue-Millis", Long.toString((job.startTime - job.submitTime) / 1000000));
+			exchange.getResponseHeaders().set("X-Render-Millis", Long.toString((job.endTime - job.startTime) / 1000000));
+			send(exchange, 200, "image/png", png.toByteArray());
+		} finally {
+			synchronized (admissionLock) {
+				--admittedJobs;
+				reservedMemory -= memory;
+			}
+		}
+	}
+
+	private Scene scene(byte[] body, Map<String, String> query) throws HttpError {
+		Scene scene;
+		try {
+			scene = new SceneLoader().initShareMaterials(true).load(new ByteArrayInputStream(body));
+		} catch (JsonParseException | IOException e) {
+			throw new HttpError(400, "Couldn't read the scene: " + e.getMessage());
+		}
+		if (scene == null)
+			throw new HttpError(400, "The request has no scene.");
+		if (query.containsKey("aa")) {
+			int antiAliasingFactor = intParameter(query, "aa", 1);
+			if (antiAliasingFactor != 1 && antiAliasingFactor != 4 && antiAliasingFactor != 9)
+				throw new HttpError(400, "aa must be 1, 4 or 9.");
+			scene.initAntiAliasingFactor(antiAliasingFactor);
+		}
+		if (query.containsKey("recursion")) {
+			int maxRecursionLevel = intParameter(query, "recursion", 1);
+			if (maxRecursionLevel < 1 || maxRecursionLevel > 10)
+				throw new HttpError(400, "recursion must be between 1 and 10.");
+			scene.initMaxRecursionLevel(maxRecursionLevel);
+		}
+		return scene.initWorkerPool(pool);
+	}
+
+	/**
+	 * Reserves room for a job and the memory it is estimated to take, before its scene is read.
+	 * There is room for a job on every renderer and in every place of the queue.
+	 * The caller must release both once the job is done or has failed.
+	 * @throws HttpError 503 if there is no room or not enough memory.
+	 */
+	private void admit(long memory) throws HttpError {
+		synchronized (admissionLock) {
+			if (admittedJobs >= maxConcurrentRenders + maxQueuedJobs) {
+				metrics.rejected.increment();
+				throw new HttpError(503, "The queue is full (" + maxQueuedJobs + " jobs).");
+			}
+			if (reservedMemory + memory > memoryLimit) {
+				metrics.rejected.increment();
+				throw new HttpError(503, "Not enough memory for the job right now.");
+			}
+			++admittedJobs;
+			reservedMemory += memory;
+		}
+	}
+
+	// The length of the request body, which must be given up front.
+	private static long contentLength(HttpExchange exchange) throws HttpError {
+		String value = exchange.getRequestHeaders().getFirst("Content-Length");
+		if (value == null)
+			throw new HttpError(411, "The request must have a Content-Length.");
+		try {
+			long length = Long.parseLong(value.trim());
+			if (length >= 0)
+				return length;
+		} catch (NumberFormatException e) {
+			// Reported below.
+		}
+		throw new HttpError(400, "Bad Content-Length " + value);
+	}
+
+	private RenderResult await(RenderJob job) throws HttpError {
+		try {
+			RenderResult result = job.result.get();
+			metrics.jobDone(job, result);
+			return result;
+		} catch (InterruptedException e) {
+			job.handle.cancel();
+			Thread.currentThread().interrupt();
+			throw new HttpError(503, "The service is shutting down.");
+		} catch (ExecutionException e) {
+			metrics.failed.increment();
+			Throwable cause = e.getCause();
+			if (cause instanceof CancellationException)
+				throw new HttpError(503, cause.getMessage());
+			logger.log("Couldn't render " + job + ": " + cause);
+			throw new HttpError(500, "Couldn't render the scene: " + cause);
+		}
+	}
+
+	// Takes jobs from the queue, one at a time, until the service is closed.
+	private void renderJobs() {
+		while (true) {
+			RenderJob job;
+			try {
+				job = queue.take();
+			} catch (InterruptedException e) {
+				return;
+			}
+			running.add(job);
+			job.startTime = System.nanoTime();
+			try {
+				Logger jobLogger = s -> logger.log("[job " + job.id + "] " + s);
+				RenderResult result = job.scene.render(job.width, job.height, job.planeWidth, jobLogger, job.handle);
+				job.endTime = System.nanoTime();
+				job.result.complete(result);
+			} catch (RuntimeException | Error e) {
+				job.endTime = System.nanoTime();
+				job.result.completeExceptionally(e);
+			} finally {
+				running.remove(job);
+			}
+		}
+	}
+
+	private void metrics(HttpExchange exchange) throws IOException {
+		ServiceMetrics.Snapshot snapshot = metrics.snapshot();
+		snapshot.queued = queue.size();
+		snapshot.running = running.size();
+		snapshot.maxConcurrentRenders = maxConcurrentRenders;
+		snapshot.maxQueuedJobs = maxQueuedJobs;
+		synchronized (admissionLock) {
+			snapshot.reservedMemoryMB = reservedMemory / (double) (1 << 20);
+		}
+		snapshot.memoryLimitMB = memoryLimit / (double) (1 << 20);
+		send(exchange, 200, "application/json", gson.toJson(snapshot).getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static byte[] readBody(InputStream in, int length) throws IOException, HttpError {
+		byte[] body = in.readNBytes(length);
+		if (body.length < length)
+			throw new HttpError(400, "The request body is shorter than its Content-Length.");
+		return body;
+	}
+
+	private static Map<String, String> query(String rawQuery) {
+		Map<String, String> parameters = new HashMap<>();
+		if (rawQuery == null)
+			return parameters;
+		for (String parameter : rawQuery.split("&")) {
+			int eq = parameter.indexOf('=');
+			if (eq > 0)
+				parameters.put(URLDecoder.decode(parameter.substring(0, eq), StandardCharsets.UTF_8),
+						URLDecoder.decode(parameter.substring(eq + 1), StandardCharsets.UTF_8));
+		}
+		return parameters;
+	}
+
+	private static int intParameter(Map<String, String> query, String name, int defaultValue) throws HttpError {
+		long value = longParameter(query, name, defaultValue);
+		if (value != (int) value)
+			throw new HttpError(400, name + " is out of range.");
+		return (int) value;
+	}
+
+	private static long longParameter(Map<String, String> query, String name, long defaultValue) throws HttpError {
+		String value = query.get(name);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			throw new HttpError(400, name + " must be an integer, got " + value);
+		}
+	}
+
+	private static double doubleParameter(Map<String, String> query, String name, double defaultValue)
+			throws HttpError {
+		String value = query.get(name);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw new HttpError(400, name + " must be a number, got " + value);
+		}
+	}
+}
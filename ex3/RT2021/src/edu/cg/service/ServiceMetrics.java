@@ -0,0 +1,117 @@
+package edu.cg.service;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.LongAdder;
+
+import edu.cg.scene.RenderResult;
+
+/**
+ * The counters and latencies of a render service, served as JSON from /metrics.
+ * Latencies are kept for the most recent jobs only, so their percentiles follow the current load.
+ */
+class ServiceMetrics {
+	private static final int WINDOW = 1024;
+
+	final LongAdder accepted = new LongAdder();
+	final LongAdder rejected = new LongAdder();
+	final LongAdder completed = new LongAdder();
+	final LongAdder stopped = new LongAdder();
+	final LongAdder failed = new LongAdder();
+	private final Latencies queueLatency = new Latencies();
+	private final Latencies renderLatency = new Latencies();
+	private final Latencies totalLatency = new Latencies();
+
+	void jobDone(RenderJob job, RenderResult result) {
+		if (result.isComplete())
+			completed.increment();
+		else
+			stopped.increment();
+		queueLatency.add(job.startTime - job.submitTime);
+		renderLatency.add(job.endTime - job.startTime);
+		totalLatency.add(job.endTime - job.submitTime);
+	}
+
+	/**
+	 * What /metrics returns, as serialized by Gson.
+	 */
+	static class Snapshot {
+		int queued;
+		int running;
+		int maxConcurrentRenders;
+		int maxQueuedJobs;
+		double reservedMemoryMB;
+		double memoryLimitMB;
+		long accepted;
+		long rejected;
+		long completed;
+		long stopped;
+		long failed;
+		Latencies.Summary queueMillis;
+		Latencies.Summary renderMillis;
+		Latencies.Summary totalMillis;
+	}
+
+	Snapshot snapshot() {
+		Snapshot snapshot = new Snapshot();
+		snapshot.accepted = accepted.sum();
+		snapshot.rejected = rejected.sum();
+		snapshot.completed = completed.sum();
+		snapshot.stopped = stopped.sum();
+		snapshot.failed = failed.sum();
+		snapshot.queueMillis = queueLatency.summary();
+		snapshot.renderMillis = renderLatency.summary();
+		snapshot.totalMillis = totalLatency.summary();
+		return snapshot;
+	}
+
+	/**
+	 * The latencies of the last WINDOW jobs, in a ring.
+	 */
+	private static class Latencies {
+		private final long[] nanos = new long[WINDOW];
+		private int count = 0;
+		private int next = 0;
+
+		static class Summary {
+			int jobs;
+			double mean;
+			double p50;
+			double p95;
+			double p99;
+			double max;
+		}
+
+		synchronized void add(long latency) {
+			nanos[next] = latency;
+			next = (next + 1) % WINDOW;
+			count = Math.min(count + 1, WINDOW);
+		}
+
+		Summary summary() {
+			long[] sorted;
+			synchronized (this) {
+				sorted = Arrays.copyOf(nanos, count);
+			}
+			Arrays.sort(sorted);
+			Summary summary = new Summary();
+			summary.jobs = sorted.length;
+			if (sorted.length == 0)
+				return summary;
+			double sum = 0;
+			for (long latency : sorted)
+				sum += latency;
+			summary.mean = sum / sorted.length / 1e6;
+			summary.p50 = percentile(sorted, 0.5);
+			summary.p95 = percentile(sorted, 0.95);
+			summary.p99 = percentile(sorted, 0.99);
+			summary.max = sorted[sorted.length - 1] / 1e6;
+			return summary;
+		}
+
+		// The nearest-rank percentile, in milliseconds.
+		private static double percentile(long[] sorted, double fraction) {
+			int rank = (int) Math.ceil(fraction * sorted.length);
+			return sorted[Math.max(rank, 1) - 1] / 1e6;
+		}
+	}
+}